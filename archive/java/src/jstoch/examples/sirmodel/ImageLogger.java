@@ -5,6 +5,7 @@ import java.io.File;
 
 import javax.imageio.ImageIO;
 
+import jstoch.logging.ChangeRecord;
 import jstoch.logging.EventLogger;
 import jstoch.logging.Logger;
 import jstoch.logging.LoggingException;
@@ -39,6 +40,12 @@ public class ImageLogger implements Logger
 		
 	}
 
+	public void logChange(StochasticModel model, double time, ChangeRecord record)
+			throws LoggingException
+	{
+		// Changes in this model are always made by events
+	}
+
 	@SuppressWarnings("unchecked")
 	public void logStart(StochasticModel model) throws LoggingException
 	{
@@ -0,0 +1,150 @@
+package jstoch.logging;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import jstoch.model.*;
+
+/**
+ * Runs a set of AsyncLoggers on their own thread. The simulation thread publishes
+ * compact event records into an EventRingBuffer; the logging thread replays them
+ * to each logger, interleaving periodic output exactly as the simulator does
+ * for synchronous loggers.
+ */
+public class AsyncLogDispatcher implements Runnable
+{
+	private static final long IDLE_PARK_NANOS = 100000;
+	
+	private EventRingBuffer buffer;
+	private List<AsyncLogger> loggers;
+	
+	private Thread thread;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+	
+	public AsyncLogDispatcher(int capacity)
+	{
+		buffer = new EventRingBuffer(capacity);
+		loggers = new ArrayList<AsyncLogger>();
+	}
+	
+	public void addLogger(AsyncLogger logger)
+	{
+		loggers.add(logger);
+	}
+	
+	/**
+	 * Calls logStart on all loggers and starts the logging thread.
+	 */
+	public void start(StochasticModel model) throws LoggingException
+	{
+		for(AsyncLogger logger : loggers)
+			logger.logStart(model);
+		
+		thread = new Thread(this, "AsyncLogDispatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Publishes the outcome of an event. If the logging thread has fallen
+	 * a full buffer behind, waits for it to catch up.
+	 */
+	public void publish(double time, int site, int state, double value) throws LoggingException
+	{
+		while(!buffer.offer(time, site, state, value))
+		{
+			checkFailure();
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Publishes the passage of time without an event, for periodic logging only.
+	 */
+	public void publishTime(double time) throws LoggingException
+	{
+		publish(time, -1, -1, 0.0);
+	}
+	
+	/**
+	 * Waits for all published records to be logged, then calls logEnd on all loggers.
+	 */
+	public void finish(StochasticModel model) throws LoggingException
+	{
+		closed = true;
+		LockSupport.unpark(thread);
+		try
+		{
+			thread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		checkFailure();
+		
+		for(AsyncLogger logger : loggers)
+			logger.logEnd(model);
+	}
+	
+	public void run()
+	{
+		try
+		{
+			while(true)
+			{
+				int count = buffer.available();
+				if(count == 0)
+				{
+					// Records published before close are visible once closed is seen
+					if(closed)
+					{
+						if(buffer.available() == 0) break;
+						continue;
+					}
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+				
+				for(int i = 0; i < count; i++)
+				{
+					dispatch(buffer.getTime(i), buffer.getSite(i), buffer.getState(i), buffer.getValue(i));
+				}
+				buffer.consume(count);
+			}
+		}
+		catch(Throwable e)
+		{
+			failure = e;
+		}
+	}
+	
+	private void dispatch(double time, int site, int state, double value) throws LoggingException
+	{
+		for(AsyncLogger logger : loggers)
+		{
+			boolean done = false;
+			while(!done)
+			{
+				double nextTime = logger.getNextLogTime();
+				if(time > nextTime) logger.logPeriodic(nextTime);
+				else done = true;
+				if(time == Double.POSITIVE_INFINITY) done = true;
+			}
+			
+			if(site >= 0)
+				logger.logRecord(time, site, state, value);
+		}
+	}
+	
+	private void checkFailure() throws LoggingException
+	{
+		Throwable e = failure;
+		if(e == null) return;
+		
+		if(e instanceof LoggingException)
+			throw (LoggingException)e;
+		throw new LoggingException(loggers.isEmpty() ? null : loggers.get(0), "Logging thread failed", e);
+	}
+}
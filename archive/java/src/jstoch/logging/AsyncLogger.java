@@ -0,0 +1,18 @@
+package jstoch.logging;
+
+import jstoch.model.*;
+
+/**
+ * Logger driven by compact event records on a dedicated thread.
+ * logStart and logEnd are called on the simulation thread; all other methods
+ * are called on the logging thread and must not read model state.
+ */
+public interface AsyncLogger
+{
+	public void logStart(StochasticModel model) throws LoggingException;
+	public void logEnd(StochasticModel model) throws LoggingException;
+	
+	public double getNextLogTime() throws LoggingException;
+	public void logPeriodic(double time) throws LoggingException;
+	public void logRecord(double time, int site, int state, double value) throws LoggingException;
+}
@@ -0,0 +1,14 @@
+package jstoch.logging;
+
+/**
+ * Compact description of the outcome of a step: the site that changed, its
+ * new state and its new value. Loggers that run on a separate thread, and
+ * so cannot inspect the model, receive these instead of events.
+ * Methods are called on the simulation thread just after the change is made.
+ */
+public interface ChangeRecord
+{
+	public int getSiteIndex();
+	public int getStateIndex();
+	public double getValue();
+}
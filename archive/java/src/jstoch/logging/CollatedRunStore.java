@@ -0,0 +1,354 @@
+package jstoch.logging;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The periodic output of many runs, collated into one columnar file.
+ * The rows of each run are contiguous and in time order, runs are sorted by
+ * id, and each column is one array of doubles over all rows, so reading one
+ * column of one run touches a single contiguous range. A run index gives
+ * each run's first row and row count, so a single run, or the value at one
+ * time in every run (a time slice), can be read without scanning the rest.
+ * Missing values are NaN.
+ *
+ * File layout, little-endian: a 64-byte header (long MAGIC, int VERSION,
+ * int numColumns, int numRuns, long totalRows, long indexOffset,
+ * long dataOffset), the column names (each a short length and UTF-8
+ * bytes); at indexOffset, one (long runId, long firstRow, long rowCount)
+ * entry per run; at dataOffset, numColumns arrays of totalRows doubles.
+ *
+ * Runs are written independently (writeRun() may be called from several
+ * threads at once) once the row counts of all runs are known.
+ */
+public class CollatedRunStore implements Closeable
+{
+	public static final long MAGIC = 0x4a53544f43485253L; // "JSTOCHRS"
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 64;
+	private static final int INDEX_ENTRY_SIZE = 24;
+	
+	// Upper bound on the size of a single read mapping
+	private static final long MAX_MAPPING_BYTES = 1L << 30;
+	
+	private String[] columnNames;
+	private long[] runIds;
+	private long[] firstRows;
+	private long[] rowCounts;
+	private long totalRows;
+	private long dataOffset;
+	private boolean readOnly;
+	
+	private FileChannel channel;
+	
+	// Reader: runs are grouped into segments of up to MAX_MAPPING_BYTES per
+	// column, each mapped on first use, so no run straddles two mappings
+	private int[] runSegments;
+	private long[] segmentFirstRows;
+	private MappedByteBuffer[][] mappings;
+	
+	private CollatedRunStore(FileChannel channel, String[] columnNames, long[] runIds, long[] rowCounts,
+			boolean readOnly)
+	{
+		this.channel = channel;
+		this.columnNames = columnNames;
+		this.runIds = runIds;
+		this.rowCounts = rowCounts;
+		this.readOnly = readOnly;
+		
+		firstRows = new long[runIds.length];
+		totalRows = 0;
+		for(int i = 0; i < runIds.length; i++)
+		{
+			firstRows[i] = totalRows;
+			totalRows += rowCounts[i];
+		}
+	}
+	
+	/**
+	 * Creates (or truncates) a store for runs with known row counts, and
+	 * writes its header and index. Runs must be in increasing order of id.
+	 */
+	public static CollatedRunStore create(Path path, String[] columnNames, long[] runIds, long[] rowCounts)
+			throws IOException
+	{
+		if(runIds.length != rowCounts.length)
+			throw new IllegalArgumentException("Each run needs a row count.");
+		for(int i = 1; i < runIds.length; i++)
+			if(runIds[i] <= runIds[i - 1])
+				throw new IllegalArgumentException("Run ids must be increasing.");
+		
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		for(String name : columnNames)
+		{
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			names.write(bytes.length & 0xff);
+			names.write(bytes.length >> 8);
+			names.write(bytes, 0, bytes.length);
+		}
+		
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			CollatedRunStore store = new CollatedRunStore(channel, columnNames.clone(), runIds.clone(),
+					rowCounts.clone(), false);
+			
+			long indexOffset = (HEADER_SIZE + names.size() + 7) / 8 * 8;
+			store.dataOffset = indexOffset + (long)runIds.length * INDEX_ENTRY_SIZE;
+			
+			ByteBuffer header = ByteBuffer.allocate((int)store.dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+			header.putLong(0, MAGIC);
+			header.putInt(8, VERSION);
+			header.putInt(12, columnNames.length);
+			header.putInt(16, runIds.length);
+			header.putLong(24, store.totalRows);
+			header.putLong(32, indexOffset);
+			header.putLong(40, store.dataOffset);
+			header.position(HEADER_SIZE);
+			header.put(names.toByteArray());
+			header.position((int)indexOffset);
+			for(int i = 0; i < runIds.length; i++)
+			{
+				header.putLong(runIds[i]);
+				header.putLong(store.firstRows[i]);
+				header.putLong(rowCounts[i]);
+			}
+			header.rewind();
+			writeFully(channel, header, 0);
+			
+			// Size the file now so runs can be written in any order
+			long length = store.dataOffset + columnNames.length * store.totalRows * 8;
+			if(length > store.dataOffset)
+				writeFully(channel, ByteBuffer.allocate(1), length - 1);
+			return store;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Maps an existing store read-only.
+	 */
+	public static CollatedRunStore open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(fixed.hasRemaining() && channel.read(fixed) >= 0);
+			if(fixed.hasRemaining() || fixed.getLong(0) != MAGIC)
+				throw new IOException("Not a collated run store: " + path);
+			if(fixed.getInt(8) != VERSION)
+				throw new IOException("Unsupported collated run store version: " + path);
+			
+			int numColumns = fixed.getInt(12);
+			int numRuns = fixed.getInt(16);
+			long indexOffset = fixed.getLong(32);
+			long dataOffset = fixed.getLong(40);
+			
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.position(HEADER_SIZE);
+			String[] columnNames = new String[numColumns];
+			for(int i = 0; i < numColumns; i++)
+			{
+				byte[] bytes = new byte[header.getShort() & 0xffff];
+				header.get(bytes);
+				columnNames[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			
+			long[] runIds = new long[numRuns];
+			long[] rowCounts = new long[numRuns];
+			header.position((int)indexOffset);
+			for(int i = 0; i < numRuns; i++)
+			{
+				runIds[i] = header.getLong();
+				header.getLong();
+				rowCounts[i] = header.getLong();
+			}
+			
+			CollatedRunStore store = new CollatedRunStore(channel, columnNames, runIds, rowCounts, true);
+			store.dataOffset = dataOffset;
+			store.buildSegments();
+			return store;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private void buildSegments()
+	{
+		runSegments = new int[runIds.length];
+		List<Long> starts = new ArrayList<Long>();
+		long segmentStart = 0;
+		starts.add(0L);
+		for(int i = 0; i < runIds.length; i++)
+		{
+			if((firstRows[i] + rowCounts[i] - segmentStart) * 8 > MAX_MAPPING_BYTES && firstRows[i] > segmentStart)
+			{
+				segmentStart = firstRows[i];
+				starts.add(segmentStart);
+			}
+			runSegments[i] = starts.size() - 1;
+		}
+		
+		segmentFirstRows = new long[starts.size() + 1];
+		for(int i = 0; i < starts.size(); i++)
+			segmentFirstRows[i] = starts.get(i);
+		segmentFirstRows[starts.size()] = totalRows;
+		mappings = new MappedByteBuffer[columnNames.length][starts.size()];
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+	
+	/**
+	 * Writes all columns of one run. Safe to call from several threads at once.
+	 * @param columns One array per column, each of the run's row count.
+	 */
+	public void writeRun(int runIndex, double[][] columns) throws IOException
+	{
+		if(readOnly)
+			throw new IllegalStateException("Store is read-only.");
+		if(columns.length != columnNames.length)
+			throw new IllegalArgumentException("Expected " + columnNames.length + " columns, got " + columns.length + ".");
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int)rowCounts[runIndex] * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for(int col = 0; col < columns.length; col++)
+		{
+			if(columns[col].length != rowCounts[runIndex])
+				throw new IllegalArgumentException("Run " + runIds[runIndex] + " has " + rowCounts[runIndex]
+						+ " rows, but column " + columnNames[col] + " has " + columns[col].length + ".");
+			
+			buffer.clear();
+			buffer.asDoubleBuffer().put(columns[col]);
+			writeFully(channel, buffer, dataOffset + (col * totalRows + firstRows[runIndex]) * 8);
+		}
+	}
+	
+	public int getColumnCount()
+	{
+		return columnNames.length;
+	}
+	
+	public String[] getColumnNames()
+	{
+		return columnNames.clone();
+	}
+	
+	/**
+	 * @return The index of a column, or -1 if there is no such column.
+	 */
+	public int getColumnIndex(String name)
+	{
+		for(int i = 0; i < columnNames.length; i++)
+			if(columnNames[i].equals(name)) return i;
+		return -1;
+	}
+	
+	public int getRunCount()
+	{
+		return runIds.length;
+	}
+	
+	public long getRunId(int runIndex)
+	{
+		return runIds[runIndex];
+	}
+	
+	/**
+	 * @return The index of a run, or -1 if there is no such run.
+	 */
+	public int findRun(long runId)
+	{
+		int index = Arrays.binarySearch(runIds, runId);
+		return index < 0 ? -1 : index;
+	}
+	
+	public long getRowCount(int runIndex)
+	{
+		return rowCounts[runIndex];
+	}
+	
+	public long getTotalRowCount()
+	{
+		return totalRows;
+	}
+	
+	/**
+	 * @return A read-only view of one column of one run, without copying.
+	 */
+	public DoubleBuffer getRunColumn(int runIndex, int col) throws IOException
+	{
+		if(!readOnly)
+			throw new IllegalStateException("Columns can only be viewed in stores opened for reading.");
+		
+		int segment = runSegments[runIndex];
+		MappedByteBuffer mapping;
+		synchronized(this)
+		{
+			mapping = mappings[col][segment];
+			if(mapping == null)
+			{
+				long first = segmentFirstRows[segment];
+				long rows = segmentFirstRows[segment + 1] - first;
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + (col * totalRows + first) * 8, rows * 8);
+				mappings[col][segment] = mapping;
+			}
+		}
+		
+		ByteBuffer view = mapping.duplicate();
+		int start = (int)((firstRows[runIndex] - segmentFirstRows[segment]) * 8);
+		view.position(start);
+		view.limit(start + (int)rowCounts[runIndex] * 8);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Reads one column of every run at a time: the value in the last row
+	 * whose time is at most the given time, found by binary search on the
+	 * time column, or NaN if the run has no such row.
+	 */
+	public double[] getTimeSlice(int timeCol, double time, int col) throws IOException
+	{
+		double[] values = new double[runIds.length];
+		for(int run = 0; run < runIds.length; run++)
+		{
+			DoubleBuffer times = getRunColumn(run, timeCol);
+			int low = 0;
+			int high = times.limit();
+			while(low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if(times.get(mid) <= time)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			values[run] = low == 0 ? Double.NaN : getRunColumn(run, col).get(low - 1);
+		}
+		return values;
+	}
+	
+	public void close() throws IOException
+	{
+		if(!readOnly)
+			channel.force(false);
+		channel.close();
+	}
+}
@@ -8,4 +8,9 @@ public interface EventLogger
 	public void logEnd(StochasticModel model) throws LoggingException;
 	
 	public void logEvent(StochasticModel model, double time, Event event) throws LoggingException;
+	
+	/**
+	 * Logs a change made by a simulator that works without event objects.
+	 */
+	public void logChange(StochasticModel model, double time, ChangeRecord record) throws LoggingException;
 }
@@ -0,0 +1,125 @@
+package jstoch.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer, single-consumer ring buffer of compact event records.
+ * Records are stored in parallel primitive arrays, so publishing allocates nothing.
+ * The producer and consumer only share two sequence counters; each writes one of them
+ * with a release store and reads the other, so no locks are needed.
+ */
+public class EventRingBuffer
+{
+	private final int mask;
+	
+	private final double[] times;
+	private final int[] sites;
+	private final int[] states;
+	private final double[] values;
+	
+	/**
+	 * Number of records published by the producer.
+	 */
+	private final AtomicLong writeSequence = new AtomicLong();
+	
+	/**
+	 * Number of records consumed by the consumer.
+	 */
+	private final AtomicLong readSequence = new AtomicLong();
+	
+	// Each side's cached copy of the other side's counter,
+	// so the shared counters are only re-read when necessary.
+	private long cachedReadSequence;
+	private long cachedWriteSequence;
+	
+	/**
+	 * @param capacity Number of records; rounded up to a power of two.
+	 */
+	public EventRingBuffer(int capacity)
+	{
+		int size = 1;
+		while(size < capacity) size *= 2;
+		mask = size - 1;
+		
+		times = new double[size];
+		sites = new int[size];
+		states = new int[size];
+		values = new double[size];
+	}
+	
+	public int getCapacity()
+	{
+		return mask + 1;
+	}
+	
+	/**
+	 * Attempts to publish a record. Producer thread only.
+	 * @return false if the buffer is full.
+	 */
+	public boolean offer(double time, int site, int state, double value)
+	{
+		long sequence = writeSequence.get();
+		if(sequence - cachedReadSequence > mask)
+		{
+			cachedReadSequence = readSequence.get();
+			if(sequence - cachedReadSequence > mask) return false;
+		}
+		
+		int slot = (int)sequence & mask;
+		times[slot] = time;
+		sites[slot] = site;
+		states[slot] = state;
+		values[slot] = value;
+		
+		writeSequence.lazySet(sequence + 1);
+		return true;
+	}
+	
+	/**
+	 * Returns the number of records available to the consumer. Consumer thread only.
+	 */
+	public int available()
+	{
+		long sequence = readSequence.get();
+		if(sequence == cachedWriteSequence)
+		{
+			cachedWriteSequence = writeSequence.get();
+		}
+		return (int)(cachedWriteSequence - sequence);
+	}
+	
+	// Accessors for the i-th available record. Consumer thread only.
+	
+	public double getTime(int i)
+	{
+		return times[(int)(readSequence.get() + i) & mask];
+	}
+	
+	public int getSite(int i)
+	{
+		return sites[(int)(readSequence.get() + i) & mask];
+	}
+	
+	public int getState(int i)
+	{
+		return states[(int)(readSequence.get() + i) & mask];
+	}
+	
+	public double getValue(int i)
+	{
+		return values[(int)(readSequence.get() + i) & mask];
+	}
+	
+	/**
+	 * Releases the first count available records back to the producer. Consumer thread only.
+	 */
+	public void consume(int count)
+	{
+		readSequence.lazySet(readSequence.get() + count);
+	}
+	
+	public boolean isEmpty()
+	{
+		return writeSequence.get() == readSequence.get();
+	}
+}
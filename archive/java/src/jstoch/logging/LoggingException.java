@@ -54,6 +54,30 @@ public class LoggingException extends Exception
 		this.logger = logger;
 	}
 	
+	public LoggingException(AsyncLogger logger)
+	{
+		super();
+		this.logger = logger;
+	}
+
+	public LoggingException(AsyncLogger logger, String message, Throwable cause)
+	{
+		super(message, cause);
+		this.logger = logger;
+	}
+
+	public LoggingException(AsyncLogger logger, String message)
+	{
+		super(message);
+		this.logger = logger;
+	}
+
+	public LoggingException(AsyncLogger logger, Throwable cause)
+	{
+		super(cause);
+		this.logger = logger;
+	}
+	
 	public Object getLogger()
 	{
 		return logger;
@@ -0,0 +1,296 @@
+package jstoch.logging;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * A table of double columns with one row per log time, stored column-wise
+ * in a binary file that grows one row at a time. Rows are grouped into
+ * chunks of chunkRows rows, and within a chunk each column is a contiguous
+ * run of chunkRows doubles, so a reader can map the file and view a column
+ * of a chunk as a DoubleBuffer without copying or parsing anything.
+ * Missing values (e.g. beta statistics with no populated sites) are NaN.
+ *
+ * File layout, little-endian: a 64-byte header (long MAGIC, int VERSION,
+ * int numColumns, int chunkRows, int dataOffset, long rowCount,
+ * int finished), the column names (each a short length and UTF-8 bytes),
+ * padding to dataOffset, a multiple of 8; then the chunks, each
+ * numColumns * chunkRows * 8 bytes. The last chunk is allocated in full
+ * and holds rowCount % chunkRows rows, or is full.
+ *
+ * The writer maps one chunk at a time and updates rowCount after each row,
+ * so a reader opened during a run sees the rows written so far.
+ */
+public class MappedTimeSeries implements Closeable
+{
+	public static final long MAGIC = 0x4a53544f43485453L; // "JSTOCHTS"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_CHUNK_ROWS = 256;
+	
+	private static final int HEADER_SIZE = 64;
+	private static final int ROW_COUNT_OFFSET = 24;
+	private static final int FINISHED_OFFSET = 32;
+	
+	// Upper bound on the size of a single read mapping
+	private static final long MAX_MAPPING_BYTES = 1L << 30;
+	
+	private String[] columnNames;
+	private int chunkRows;
+	private int dataOffset;
+	private long rowCount;
+	private boolean readOnly;
+	
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	
+	// Writer: the chunk holding the next row
+	private MappedByteBuffer currentChunk;
+	
+	// Reader: whole chunks, grouped into mappings of up to MAX_MAPPING_BYTES
+	private int chunksPerMapping;
+	private MappedByteBuffer[] mappings;
+	
+	private MappedTimeSeries(FileChannel channel, String[] columnNames, int chunkRows, int dataOffset,
+			boolean readOnly)
+	{
+		this.channel = channel;
+		this.columnNames = columnNames;
+		this.chunkRows = chunkRows;
+		this.dataOffset = dataOffset;
+		this.readOnly = readOnly;
+	}
+	
+	/**
+	 * Creates (or truncates) a file with the given columns and no rows.
+	 */
+	public static MappedTimeSeries create(Path path, String[] columnNames, int chunkRows) throws IOException
+	{
+		if(columnNames.length == 0 || chunkRows <= 0)
+			throw new IllegalArgumentException("Time series need at least one column and one row per chunk.");
+		
+		ByteBuffer names = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		for(String name : columnNames)
+		{
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			names.putShort((short)bytes.length);
+			names.put(bytes);
+		}
+		int dataOffset = (HEADER_SIZE + names.position() + 7) / 8 * 8;
+		
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			MappedTimeSeries series = new MappedTimeSeries(channel, columnNames.clone(), chunkRows, dataOffset, false);
+			series.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+			series.header.order(ByteOrder.LITTLE_ENDIAN);
+			series.header.putLong(0, MAGIC);
+			series.header.putInt(8, VERSION);
+			series.header.putInt(12, columnNames.length);
+			series.header.putInt(16, chunkRows);
+			series.header.putInt(20, dataOffset);
+			series.header.putLong(ROW_COUNT_OFFSET, 0);
+			series.header.putInt(FINISHED_OFFSET, 0);
+			names.flip();
+			series.header.position(HEADER_SIZE);
+			series.header.put(names);
+			return series;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Maps an existing file read-only. Rows appended after opening are not seen.
+	 */
+	public static MappedTimeSeries open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(fixed.hasRemaining() && channel.read(fixed) >= 0);
+			if(fixed.hasRemaining() || fixed.getLong(0) != MAGIC)
+				throw new IOException("Not a time series file: " + path);
+			if(fixed.getInt(8) != VERSION)
+				throw new IOException("Unsupported time series file version: " + path);
+			
+			int numColumns = fixed.getInt(12);
+			int chunkRows = fixed.getInt(16);
+			int dataOffset = fixed.getInt(20);
+			
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.position(HEADER_SIZE);
+			String[] columnNames = new String[numColumns];
+			for(int i = 0; i < numColumns; i++)
+			{
+				byte[] bytes = new byte[header.getShort()];
+				header.get(bytes);
+				columnNames[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			
+			MappedTimeSeries series = new MappedTimeSeries(channel, columnNames, chunkRows, dataOffset, true);
+			series.header = header;
+			series.rowCount = header.getLong(ROW_COUNT_OFFSET);
+			series.mapChunks();
+			return series;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private long getChunkBytes()
+	{
+		return (long)columnNames.length * chunkRows * 8;
+	}
+	
+	private void mapChunks() throws IOException
+	{
+		int numChunks = getChunkCount();
+		chunksPerMapping = (int)Math.max(1, MAX_MAPPING_BYTES / getChunkBytes());
+		mappings = new MappedByteBuffer[(numChunks + chunksPerMapping - 1) / chunksPerMapping];
+		for(int i = 0; i < mappings.length; i++)
+		{
+			int mappingChunks = Math.min(chunksPerMapping, numChunks - i * chunksPerMapping);
+			long start = dataOffset + (long)i * chunksPerMapping * getChunkBytes();
+			mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, mappingChunks * getChunkBytes());
+			mappings[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+	
+	public int getColumnCount()
+	{
+		return columnNames.length;
+	}
+	
+	public String[] getColumnNames()
+	{
+		return columnNames.clone();
+	}
+	
+	/**
+	 * @return The index of a column, or -1 if there is no such column.
+	 */
+	public int getColumnIndex(String name)
+	{
+		for(int i = 0; i < columnNames.length; i++)
+			if(columnNames[i].equals(name)) return i;
+		return -1;
+	}
+	
+	public int getChunkRows()
+	{
+		return chunkRows;
+	}
+	
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+	
+	public int getChunkCount()
+	{
+		return (int)((rowCount + chunkRows - 1) / chunkRows);
+	}
+	
+	/**
+	 * Appends a row, mapping a new chunk when the current one is full.
+	 */
+	public void append(double[] row) throws IOException
+	{
+		if(readOnly)
+			throw new IllegalStateException("Time series is read-only.");
+		if(row.length != columnNames.length)
+			throw new IllegalArgumentException("Expected " + columnNames.length + " values, got " + row.length + ".");
+		
+		int rowInChunk = (int)(rowCount % chunkRows);
+		if(rowInChunk == 0)
+		{
+			long start = dataOffset + (rowCount / chunkRows) * getChunkBytes();
+			currentChunk = channel.map(FileChannel.MapMode.READ_WRITE, start, getChunkBytes());
+			currentChunk.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		for(int col = 0; col < row.length; col++)
+			currentChunk.putDouble((col * chunkRows + rowInChunk) * 8, row[col]);
+		
+		rowCount++;
+		header.putLong(ROW_COUNT_OFFSET, rowCount);
+	}
+	
+	/**
+	 * @return A read-only view of one column of one chunk. Only the first
+	 * getChunkRowCount(chunk) values are rows.
+	 */
+	public DoubleBuffer getColumnChunk(int chunk, int col)
+	{
+		if(!readOnly)
+			throw new IllegalStateException("Columns can only be viewed in files opened for reading.");
+		if(chunk < 0 || chunk >= getChunkCount() || col < 0 || col >= columnNames.length)
+			throw new IndexOutOfBoundsException("Invalid chunk " + chunk + ", column " + col + ".");
+		
+		ByteBuffer view = mappings[chunk / chunksPerMapping].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int start = (int)((chunk % chunksPerMapping) * getChunkBytes()) + col * chunkRows * 8;
+		view.position(start);
+		view.limit(start + getChunkRowCount(chunk) * 8);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @return The number of rows in a chunk.
+	 */
+	public int getChunkRowCount(int chunk)
+	{
+		return (int)Math.min(chunkRows, rowCount - (long)chunk * chunkRows);
+	}
+	
+	public double get(long row, int col)
+	{
+		if(row < 0 || row >= rowCount)
+			throw new IndexOutOfBoundsException("Invalid row " + row + ".");
+		return getColumnChunk((int)(row / chunkRows), col).get((int)(row % chunkRows));
+	}
+	
+	/**
+	 * Copies a whole column into an array.
+	 */
+	public double[] readColumn(int col)
+	{
+		double[] values = new double[(int)rowCount];
+		for(int chunk = 0; chunk < getChunkCount(); chunk++)
+			getColumnChunk(chunk, col).get(values, chunk * chunkRows, getChunkRowCount(chunk));
+		return values;
+	}
+	
+	/**
+	 * @return Whether the writer has marked the file as final.
+	 */
+	public boolean isFinished()
+	{
+		return header.getInt(FINISHED_OFFSET) != 0;
+	}
+	
+	/**
+	 * Marks the file as final and closes it.
+	 */
+	public void close() throws IOException
+	{
+		if(!readOnly)
+		{
+			header.putInt(FINISHED_OFFSET, 1);
+			if(currentChunk != null)
+				currentChunk.force();
+			header.force();
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,12 @@
+package jstoch.logging;
+
+import jstoch.model.Event;
+
+/**
+ * Event that can describe its outcome as a compact record, for loggers
+ * that run on a separate thread and so cannot inspect the model.
+ * Methods are called on the simulation thread just after the event is performed.
+ */
+public interface RecordableEvent extends Event, ChangeRecord
+{
+}
@@ -0,0 +1,125 @@
+package jstoch.logging.test;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+import jstoch.logging.CollatedRunStore;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestCollatedRunStore
+{
+	Path path;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		path = Files.createTempFile("store", ".bin");
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(path);
+	}
+	
+	/**
+	 * Columns for a run with the given number of rows at times 0, 1, ...
+	 */
+	private static double[][] makeRun(long runId, int rows)
+	{
+		double[][] columns = new double[2][rows];
+		for(int i = 0; i < rows; i++)
+		{
+			columns[0][i] = i;
+			columns[1][i] = runId * 100 + i;
+		}
+		return columns;
+	}
+	
+	private void writeStore() throws Exception
+	{
+		final long[] runIds = new long[] { 3, 5, 10, 11 };
+		final long[] rowCounts = new long[] { 4, 0, 7, 2 };
+		final CollatedRunStore store = CollatedRunStore.create(path, new String[] { "time", "x" }, runIds, rowCounts);
+		
+		// Write runs from several threads, in reverse order
+		Thread[] threads = new Thread[runIds.length];
+		final Exception[] errors = new Exception[1];
+		for(int i = 0; i < runIds.length; i++)
+		{
+			final int run = runIds.length - 1 - i;
+			threads[i] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						store.writeRun(run, makeRun(runIds[run], (int)rowCounts[run]));
+					}
+					catch(Exception e)
+					{
+						errors[0] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		store.close();
+		if(errors[0] != null)
+			throw errors[0];
+	}
+	
+	@Test
+	public void readRuns() throws Exception
+	{
+		writeStore();
+		try(CollatedRunStore store = CollatedRunStore.open(path))
+		{
+			assertArrayEquals(new String[] { "time", "x" }, store.getColumnNames());
+			assertEquals(4, store.getRunCount());
+			assertEquals(13, store.getTotalRowCount());
+			
+			int run = store.findRun(10);
+			assertEquals(2, run);
+			assertEquals(-1, store.findRun(4));
+			assertEquals(7, store.getRowCount(run));
+			
+			DoubleBuffer x = store.getRunColumn(run, store.getColumnIndex("x"));
+			assertEquals(7, x.remaining());
+			for(int i = 0; i < 7; i++)
+				assertEquals(1000 + i, x.get(i), 0.0);
+			
+			assertEquals(0, store.getRunColumn(store.findRun(5), 1).remaining());
+			assertEquals(1101.0, store.getRunColumn(store.findRun(11), 1).get(1), 0.0);
+		}
+	}
+	
+	@Test
+	public void timeSlice() throws Exception
+	{
+		writeStore();
+		try(CollatedRunStore store = CollatedRunStore.open(path))
+		{
+			double[] values = store.getTimeSlice(0, 3.5, 1);
+			assertEquals(303.0, values[0], 0.0);
+			assertTrue(Double.isNaN(values[1]));
+			assertEquals(1003.0, values[2], 0.0);
+			assertEquals(1101.0, values[3], 0.0);
+			
+			values = store.getTimeSlice(0, -1.0, 1);
+			for(double value : values)
+				assertTrue(Double.isNaN(value));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unsortedRuns() throws IOException
+	{
+		CollatedRunStore.create(path, new String[] { "time" }, new long[] { 2, 1 }, new long[] { 1, 1 });
+	}
+}
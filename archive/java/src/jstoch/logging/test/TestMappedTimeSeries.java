@@ -0,0 +1,107 @@
+package jstoch.logging.test;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+
+import jstoch.logging.MappedTimeSeries;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestMappedTimeSeries
+{
+	Path path;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		path = Files.createTempFile("series", ".bin");
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(path);
+	}
+	
+	@Test
+	public void writeAndRead() throws IOException
+	{
+		// 10 rows in chunks of 4: two full chunks and one of 2 rows
+		try(MappedTimeSeries series = MappedTimeSeries.create(path, new String[] { "time", "x", "y" }, 4))
+		{
+			for(int i = 0; i < 10; i++)
+				series.append(new double[] { i, 2 * i, i == 7 ? Double.NaN : -i });
+			assertEquals(10, series.getRowCount());
+		}
+		
+		try(MappedTimeSeries series = MappedTimeSeries.open(path))
+		{
+			assertTrue(series.isFinished());
+			assertArrayEquals(new String[] { "time", "x", "y" }, series.getColumnNames());
+			assertEquals(1, series.getColumnIndex("x"));
+			assertEquals(-1, series.getColumnIndex("z"));
+			assertEquals(10, series.getRowCount());
+			assertEquals(3, series.getChunkCount());
+			assertEquals(2, series.getChunkRowCount(2));
+			
+			assertEquals(18.0, series.get(9, 1), 0.0);
+			assertEquals(-5.0, series.get(5, 2), 0.0);
+			assertTrue(Double.isNaN(series.get(7, 2)));
+			
+			DoubleBuffer chunk = series.getColumnChunk(1, 1);
+			assertEquals(4, chunk.remaining());
+			assertEquals(8.0, chunk.get(0), 0.0);
+			assertEquals(14.0, chunk.get(3), 0.0);
+			
+			double[] time = series.readColumn(0);
+			for(int i = 0; i < 10; i++)
+				assertEquals(i, time[i], 0.0);
+		}
+	}
+	
+	@Test
+	public void littleEndianLayout() throws IOException
+	{
+		try(MappedTimeSeries series = MappedTimeSeries.create(path, new String[] { "a", "b" }, 2))
+		{
+			series.append(new double[] { 1.0, 2.0 });
+			series.append(new double[] { 3.0, 4.0 });
+		}
+		
+		// Header and names (2 + 1 bytes each) pad to 72; column a, then column b
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(MappedTimeSeries.MAGIC, bytes.getLong(0));
+		assertEquals(2, bytes.getLong(24));
+		assertEquals(72, bytes.getInt(20));
+		assertEquals(1.0, bytes.getDouble(72), 0.0);
+		assertEquals(3.0, bytes.getDouble(80), 0.0);
+		assertEquals(2.0, bytes.getDouble(88), 0.0);
+		assertEquals(4.0, bytes.getDouble(96), 0.0);
+	}
+	
+	@Test
+	public void readWhileWriting() throws IOException
+	{
+		try(MappedTimeSeries writer = MappedTimeSeries.create(path, new String[] { "t" }, 4))
+		{
+			for(int i = 0; i < 6; i++)
+				writer.append(new double[] { i });
+			
+			try(MappedTimeSeries reader = MappedTimeSeries.open(path))
+			{
+				assertFalse(reader.isFinished());
+				assertEquals(6, reader.getRowCount());
+				assertEquals(5.0, reader.get(5, 0), 0.0);
+			}
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void notASeries() throws IOException
+	{
+		Files.write(path, new byte[100]);
+		MappedTimeSeries.open(path);
+	}
+}
@@ -0,0 +1,21 @@
+package jstoch.model;
+
+/**
+ * A model that can stream all of its initial events and their rates into
+ * preallocated arrays, so that a simulator can build its sampler in a single
+ * pass without intermediate collections.
+ */
+public interface BulkStochasticModel extends StochasticModel
+{
+	/**
+	 * @return The number of events that getAllEvents(Event[], double[]) will produce.
+	 */
+	public int getEventCount();
+	
+	/**
+	 * Fills the arrays with all current events and their rates, in a fixed order.
+	 * @param events Array of at least getEventCount() elements.
+	 * @param rates Array of at least getEventCount() elements.
+	 */
+	public void getAllEvents(Event[] events, double[] rates);
+}
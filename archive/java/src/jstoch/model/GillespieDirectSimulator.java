@@ -1,61 +1,65 @@
 package jstoch.model;
 
-import cern.jet.random.*;
 import cern.jet.random.engine.*;
 import java.util.*;
 
-import jstoch.logging.*;
 import jstoch.random.*;
 
-public class GillespieDirectSimulator implements Simulator
+public class GillespieDirectSimulator extends SimulatorAbstract
 {
-	private boolean initialized = false;
-	private boolean finished = false;
-	
-	private StochasticModel model;
-	private RandomEngine rng;
-	
-	private Set<Logger> loggers;
-	private Set<EventLogger> eventLoggers;
-	private Set<PeriodicLogger> periodicLoggers;
-	
-//	public enum DiscreteDistributionType
-//	{
-//		BinaryTree,
-//		SimpleRejection,
-//		ModifiedRejection
-//	}
-	
-//	DiscreteDistributionType discreteDistributionType = DiscreteDistributionType.BinaryTree;
-//	private double modifiedRejectionBinSize = 0.1;
+	/**
+	 * Event distribution: BinaryTree keeps double-precision partial sums;
+	 * FixedPoint keeps exact integer sums (see DiscreteDistributionFixedPoint),
+	 * so the total rate cannot drift over very long runs; Adaptive profiles
+	 * the run and moves to the fastest backend (see DiscreteDistributionAdaptive).
+	 */
+	public enum DiscreteDistributionType
+	{
+		BinaryTree,
+		FixedPoint,
+		Adaptive
+	}
 	
-	private double time;
-	private Exponential timeDist;
+	private DiscreteDistributionType discreteDistributionType = DiscreteDistributionType.BinaryTree;
 	
 	private DiscreteDistribution<Event> dist;
 	
 	private Set<Event> eventsToRemove;
 	private Set<Event> eventsToUpdate;
+	private Map<Event, Double> updatedWeights;
+	
+	// Weight changes handed to the distribution, and those skipped
+	// because the weight was unchanged
+	private long appliedUpdateCount;
+	private long skippedUpdateCount;
 	
 	public GillespieDirectSimulator(StochasticModel model, RandomEngine rng)
 	{
-		time = 0;
-		timeDist = new Exponential(1.0, rng);
-		
-		this.model = model;
-		this.rng = rng;
-		
-		loggers = new HashSet<Logger>();
-		periodicLoggers = new HashSet<PeriodicLogger>();
-		eventLoggers = new HashSet<EventLogger>();
+		super(model, rng);
 	}
 	
-	private void initialize() throws SimulationException
+	protected void initializeEngine() throws SimulationException
 	{
-		if(!initialized)
+		model.initialize();
+		
+		if(model instanceof BulkStochasticModel)
 		{
-			model.initialize();
+			// Stream events and rates straight into arrays and build the tree in one pass
+			BulkStochasticModel bulkModel = (BulkStochasticModel)model;
+			int count = bulkModel.getEventCount();
+			Event[] events = new Event[count];
+			double[] rates = new double[count];
+			bulkModel.getAllEvents(events, rates);
 			
+			if(discreteDistributionType == DiscreteDistributionType.FixedPoint)
+				dist = new DiscreteDistributionFixedPoint<Event>(events, rates, rng);
+			else if(discreteDistributionType == DiscreteDistributionType.Adaptive)
+				dist = new DiscreteDistributionAdaptive<Event>(events, rates, rng);
+			else
+				dist = new DiscreteDistributionBinaryTree<Event>(events, rates, rng);
+		}
+		else
+		{
 			List<Event> events = model.getAllEvents();
 			HashMap<Event, Double> rates = new HashMap<Event, Double>(events.size());
 			
@@ -64,179 +68,93 @@ public class GillespieDirectSimulator implements Simulator
 			
 			events = null;
 			
-			dist = new DiscreteDistributionBinaryTree<Event>(rates, rng);
-//			switch(discreteDistributionType)
-//			{
-//				case BinaryTree:
-//					dist = new DiscreteDistributionBinaryTree<Event>(rates, rng);
-//					break;
-//				case SimpleRejection:
-//					dist = new DiscreteDistributionRejection<Event>(rates, rng);
-//					break;
-//				case ModifiedRejection:
-//					dist = new DiscreteDistributionRejectionPlus<Event>(modifiedRejectionBinSize, rates, rng);
-//					break;
-//			}
-			
-			eventsToRemove = new HashSet<Event>();
-			eventsToUpdate = new HashSet<Event>();
-			
-			try
-			{
-				for(Logger logger : loggers)
-					logger.logStart(model);
-				for(EventLogger logger : eventLoggers)
-					logger.logStart(model);
-				for(PeriodicLogger logger : periodicLoggers)
-					logger.logStart(model);
-			}
-			catch(LoggingException e)
-			{
-				throw new SimulationException("Logging exception thrown", e);
-			}
-			
-			initialized = true;
+			if(discreteDistributionType == DiscreteDistributionType.FixedPoint)
+				dist = new DiscreteDistributionFixedPoint<Event>(rates, rng);
+			else if(discreteDistributionType == DiscreteDistributionType.Adaptive)
+				dist = new DiscreteDistributionAdaptive<Event>(rates, rng);
+			else
+				dist = new DiscreteDistributionBinaryTree<Event>(rates, rng);
 		}
+		
+		eventsToRemove = new HashSet<Event>();
+		eventsToUpdate = new HashSet<Event>();
+		updatedWeights = new HashMap<Event, Double>();
 	}
 	
-	public double runUntil(double endTime) throws SimulationException
+	/**
+	 * Sets the event distribution; takes effect when the simulation is initialized.
+	 */
+	public void setDiscreteDistributionType(DiscreteDistributionType discreteDistributionType)
 	{
-		if(finished) throw new SimulationException("Already finished.");
-		if(!initialized) initialize();
-		
-		while(time < endTime)
-		{
-			performNextEvent();
-			if(time == Double.POSITIVE_INFINITY) break;
-		}
-		return time;
+		this.discreteDistributionType = discreteDistributionType;
 	}
 	
-	public double runFor(double timestep) throws SimulationException
+	public DiscreteDistribution<Event> getDistribution()
 	{
-		return runUntil(time + timestep);
+		return dist;
 	}
 	
-	public double performNextEvent() throws SimulationException
+	protected double getTotalRate()
 	{
-		if(finished) throw new SimulationException("Already finished.");
-		if(!initialized) initialize();
-		
-		double totalRate = dist.getTotalWeight();
-		double tau;
-		if(totalRate == 0)
-			tau = Double.POSITIVE_INFINITY;
-		else
-			tau = timeDist.nextDouble(totalRate);
-		time += tau;
-		
-		try
-		{
-			logPeriodic(time);
-		}
-		catch(LoggingException e)
-		{
-			throw new SimulationException("Logging exception thrown", e);
-		}
-		
-		if(time != Double.POSITIVE_INFINITY)
-		{
-			Event event = dist.nextValue();
-			event.performEvent(time, eventsToRemove, eventsToUpdate);
-			
-			for(Event eventToRemove : eventsToRemove)
-			{
-				dist.remove(eventToRemove);
-			}
-			eventsToRemove.clear();
-			
-			for(Event eventToUpdate : eventsToUpdate)
-			{
-				dist.update(eventToUpdate, eventToUpdate.getRate());
-			}
-			eventsToUpdate.clear();
-			
-			try
-			{
-				logEvent(time, event);
-			}
-			catch(LoggingException e)
-			{
-				throw new SimulationException("Logging exception thrown", e);
-			}
-		}
-		
-		return time;
+		return dist.getTotalWeight();
 	}
 	
-	public void finish() throws SimulationException
+	protected Event performStep() throws SimulationException
 	{
-		if(!initialized) initialize();
+		Event event = dist.nextValue();
+		event.performEvent(time, eventsToRemove, eventsToUpdate);
 		
-		try
+		// Collect all weight changes and hand them to the distribution
+		// in one batch, so shared ancestors are only recomputed once.
+		// Updates take precedence over removals, and weights that are
+		// unchanged (often the case for conservative dependencies)
+		// are not passed on at all. Rates are compared as the distribution
+		// would store them, since FixedPoint rounds weights to its units.
+		for(Event eventToUpdate : eventsToUpdate)
 		{
-			for(Logger logger : loggers)
-				logger.logEnd(model);
-			for(EventLogger logger : eventLoggers)
-				logger.logEnd(model);
-			for(PeriodicLogger logger : periodicLoggers)
-				logger.logEnd(model);
+			double rate = eventToUpdate.getRate();
+			if(dist.quantize(rate) == dist.getWeight(eventToUpdate))
+				skippedUpdateCount++;
+			else
+				updatedWeights.put(eventToUpdate, rate);
 		}
-		catch(LoggingException e)
+		
+		for(Event eventToRemove : eventsToRemove)
 		{
-			throw new SimulationException("Logging exception thrown", e);
+			if(eventsToUpdate.contains(eventToRemove))
+				continue;
+			if(dist.getWeight(eventToRemove) == 0.0)
+				skippedUpdateCount++;
+			else
+				updatedWeights.put(eventToRemove, 0.0);
 		}
+		eventsToRemove.clear();
+		eventsToUpdate.clear();
 		
-		finished = true;
-	}
-	
-	public double getTime()
-	{
-		return time;
-	}
-	
-	public void addEventLogger(EventLogger logger)
-	{
-		eventLoggers.add(logger);
-	}
-	
-	public void addLogger(Logger logger)
-	{
-		loggers.add(logger);
-	}
-	
-	public void addPeriodicLogger(PeriodicLogger logger)
-	{
-		periodicLoggers.add(logger);
-	}
-	
-	public void logPeriodic(double time) throws LoggingException
-	{
-		for(Logger logger : loggers)
-			logPeriodic(time, logger);
+		if(!updatedWeights.isEmpty())
+		{
+			appliedUpdateCount += updatedWeights.size();
+			dist.updateAll(updatedWeights);
+			updatedWeights.clear();
+		}
 		
-		for(PeriodicLogger logger : periodicLoggers)
-			logPeriodic(time, logger);
+		return event;
 	}
 	
-	private void logPeriodic(double time, PeriodicLogger logger) throws LoggingException
+	/**
+	 * @return The number of weight changes passed to the distribution.
+	 */
+	public long getAppliedUpdateCount()
 	{
-		boolean done = false;
-		while(!done)
-		{
-			double nextTime = logger.getNextLogTime(model);
-			if(time > nextTime) logger.logPeriodic(model, nextTime);
-			else done = true;
-			if(time == Double.POSITIVE_INFINITY) done = true;
-		}
+		return appliedUpdateCount;
 	}
 	
-	public void logEvent(double time, Event event) throws LoggingException
+	/**
+	 * @return The number of recomputed weights that were skipped because
+	 * they were unchanged (including removals of events with zero weight).
+	 */
+	public long getSkippedUpdateCount()
 	{
-		for(Logger logger : loggers)
-			logger.logEvent(model, time, event);
-		
-		for(EventLogger logger : eventLoggers)
-			logger.logEvent(model, time, event);
+		return skippedUpdateCount;
 	}
 }
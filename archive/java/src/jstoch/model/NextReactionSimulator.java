@@ -1,56 +1,32 @@
 package jstoch.model;
 
-import jstoch.logging.*;
 import cern.jet.random.engine.RandomEngine;
 
-public class NextReactionSimulator implements Simulator
+/**
+ * Placeholder for the next-reaction method. Loggers and stop conditions are
+ * registered through SimulatorAbstract, but running fails until the method
+ * is implemented.
+ */
+public class NextReactionSimulator extends SimulatorAbstract
 {
 	public NextReactionSimulator(StochasticModel model, RandomEngine rng)
 	{
+		super(model, rng);
 	}
 	
-	public void addEventLogger(EventLogger logger)
+	protected void initializeEngine() throws SimulationException
 	{
-		// TODO Auto-generated method stub
+		throw new SimulationException("The next-reaction method is not implemented.");
 	}
 	
-	public void addLogger(Logger logger)
+	protected double getTotalRate()
 	{
-		// TODO Auto-generated method stub	
+		throw new UnsupportedOperationException("The next-reaction method is not implemented.");
 	}
 	
-	public void addPeriodicLogger(PeriodicLogger logger)
+	protected Event performStep() throws SimulationException
 	{
-		// TODO Auto-generated method stub
-	}
-	
-	public void finish() throws SimulationException
-	{
-		// TODO Auto-generated method stub
-	}
-	
-	public double getTime()
-	{
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	public double performNextEvent() throws SimulationException
-	{
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	public double runFor(double timestep) throws SimulationException
-	{
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	public double runUntil(double time) throws SimulationException
-	{
-		// TODO Auto-generated method stub
-		return 0;
+		throw new SimulationException("The next-reaction method is not implemented.");
 	}
 
 // BELOW HERE IS NEXT-REACTION IMPLEMENTATION FROM OLDER VERSION OF SOFTWARE.
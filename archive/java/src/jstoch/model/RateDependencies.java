@@ -0,0 +1,187 @@
+package jstoch.model;
+
+import java.util.*;
+
+/**
+ * Dependency graph for lattice models whose event rates read the states of
+ * nearby sites. States and event types are small ints. Each event type
+ * declares the states of sites that host it, and the inputs its rate reads,
+ * as paths of neighbor hops from the host site: the input (a, b) reads which
+ * neighbors are in state a, and, for each of those, which of its neighbors
+ * are in state b. An input may also read the value (e.g. beta) of the site
+ * at the end of its path.
+ *
+ * compile() turns the declarations into invalidation rules. For each pair
+ * of states (from, to), there is a rule for every point on an input path
+ * whose state membership changes between from and to. Each rule gives the
+ * states of the sites to walk through, outward from the changed site, to
+ * reach the hosts of the affected events. Changes that no input can see
+ * get no rules.
+ */
+public class RateDependencies
+{
+	/**
+	 * Events of one type reached from a changed site by walking through
+	 * neighbors in the given states, then one more hop to a host site.
+	 */
+	public static class Rule
+	{
+		public final int eventType;
+		
+		// States of the intermediate sites, outward from the changed site
+		public final int[] walk;
+		
+		// Whether each state hosts the event type
+		public final boolean[] hostStates;
+		
+		Rule(int eventType, int[] walk, boolean[] hostStates)
+		{
+			this.eventType = eventType;
+			this.walk = walk;
+			this.hostStates = hostStates;
+		}
+		
+		@Override
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof Rule)) return false;
+			Rule rule = (Rule)other;
+			return eventType == rule.eventType && Arrays.equals(walk, rule.walk);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return 31 * eventType + Arrays.hashCode(walk);
+		}
+	}
+	
+	private static class Input
+	{
+		int eventType;
+		int[] path;
+		boolean readsValue;
+	}
+	
+	private int numStates;
+	private boolean[][] hostStates;
+	private List<Input> inputs;
+	
+	private Rule[][][] stateRules;
+	private Rule[][] valueRules;
+	
+	public RateDependencies(int numStates, int numEventTypes)
+	{
+		this.numStates = numStates;
+		hostStates = new boolean[numEventTypes][numStates];
+		inputs = new ArrayList<Input>();
+	}
+	
+	/**
+	 * Declares that sites in a state host events of a type.
+	 */
+	public void addHost(int eventType, int state)
+	{
+		hostStates[eventType][state] = true;
+	}
+	
+	/**
+	 * Declares that an event type's rate reads the states along a path.
+	 * @param readsValue Whether the rate also reads the value of the last site on the path.
+	 * @param path The state at each hop from the host site, at least one.
+	 */
+	public void addInput(int eventType, boolean readsValue, int... path)
+	{
+		if(path.length == 0)
+			throw new IllegalArgumentException("Input paths must have at least one hop.");
+		Input input = new Input();
+		input.eventType = eventType;
+		input.path = path.clone();
+		input.readsValue = readsValue;
+		inputs.add(input);
+	}
+	
+	/**
+	 * Compiles the declarations into rules. Inputs of event types with no
+	 * host states are ignored.
+	 */
+	public void compile()
+	{
+		stateRules = new Rule[numStates][numStates][];
+		for(int from = 0; from < numStates; from++)
+		{
+			for(int to = 0; to < numStates; to++)
+			{
+				Set<Rule> rules = new LinkedHashSet<Rule>();
+				if(from != to)
+				{
+					for(Input input : inputs)
+					{
+						for(int hop = 0; hop < input.path.length; hop++)
+						{
+							if((input.path[hop] == from) != (input.path[hop] == to))
+								rules.add(newRule(input, hop));
+						}
+					}
+				}
+				removeUnhosted(rules);
+				stateRules[from][to] = rules.toArray(new Rule[rules.size()]);
+			}
+		}
+		
+		valueRules = new Rule[numStates][];
+		for(int state = 0; state < numStates; state++)
+		{
+			Set<Rule> rules = new LinkedHashSet<Rule>();
+			for(Input input : inputs)
+			{
+				int last = input.path.length - 1;
+				if(input.readsValue && input.path[last] == state)
+					rules.add(newRule(input, last));
+			}
+			removeUnhosted(rules);
+			valueRules[state] = rules.toArray(new Rule[rules.size()]);
+		}
+	}
+	
+	/**
+	 * Makes the rule for a change at a hop of an input path: the walk
+	 * retraces the earlier hops in reverse.
+	 */
+	private Rule newRule(Input input, int hop)
+	{
+		int[] walk = new int[hop];
+		for(int i = 0; i < hop; i++)
+			walk[i] = input.path[hop - 1 - i];
+		return new Rule(input.eventType, walk, hostStates[input.eventType]);
+	}
+	
+	private void removeUnhosted(Set<Rule> rules)
+	{
+		Iterator<Rule> iterator = rules.iterator();
+		while(iterator.hasNext())
+		{
+			boolean hosted = false;
+			for(boolean host : iterator.next().hostStates)
+				hosted |= host;
+			if(!hosted)
+				iterator.remove();
+		}
+	}
+	
+	/**
+	 * @return The rules for events affected when a site changes from one state to another.
+	 */
+	public Rule[] getStateRules(int from, int to)
+	{
+		return stateRules[from][to];
+	}
+	
+	/**
+	 * @return The rules for events affected when the value of a site in a state changes.
+	 */
+	public Rule[] getValueRules(int state)
+	{
+		return valueRules[state];
+	}
+}
@@ -9,8 +9,13 @@ public interface Simulator
 	public double runUntil(double time) throws SimulationException;
 	public double runFor(double timestep) throws SimulationException;
 	public void finish() throws SimulationException;
+	
+	public void addStopCondition(StopCondition condition);
+	public String getStopReason();
+	public double getStopTime();
 
 	public void addLogger(Logger logger);
 	public void addPeriodicLogger(PeriodicLogger logger);
 	public void addEventLogger(EventLogger logger);
+	public void addAsyncLogger(AsyncLogger logger);
 }
@@ -0,0 +1,430 @@
+package jstoch.model;
+
+import cern.jet.random.*;
+import cern.jet.random.engine.*;
+import java.util.*;
+
+import jstoch.logging.*;
+import jstoch.random.Xoroshiro128PlusPlus;
+
+/**
+ * Run loop, logging and stop conditions shared by simulation engines.
+ * Subclasses only decide how the total rate is tracked and which event
+ * happens at each step.
+ */
+public abstract class SimulatorAbstract implements Simulator
+{
+	private boolean initialized = false;
+	private boolean finished = false;
+	
+	protected StochasticModel model;
+	protected RandomEngine rng;
+	
+	private Set<Logger> loggers;
+	private Set<EventLogger> eventLoggers;
+	private Set<PeriodicLogger> periodicLoggers;
+	
+	// Pending periodic log times for all Loggers and PeriodicLoggers,
+	// earliest first, and a cached copy of the earliest one so that
+	// the per-event check is a single comparison.
+	private PriorityQueue<ScheduledLog> logSchedule;
+	private double nextLogTime;
+	
+	// Conditions for ending a run early, the earliest pending check time,
+	// and the reason and check time of the condition that ended the run
+	private List<StopCondition> stopConditions;
+	private double nextCheckTime = Double.POSITIVE_INFINITY;
+	private String stopReason;
+	private double stopTime = Double.NaN;
+	
+	// Loggers running on their own thread; null unless any have been added
+	private AsyncLogDispatcher asyncLogs;
+	private int asyncLogCapacity = 1 << 16;
+	
+	// Set when the current step has reported a change with logChange()
+	private boolean changeLogged;
+	
+	protected double time;
+	private Exponential timeDist;
+	
+	// The rng, if it is a Xoroshiro128PlusPlus, which draws exponential
+	// variates itself; otherwise null and timeDist is used
+	private Xoroshiro128PlusPlus xoroshiro;
+	
+	protected SimulatorAbstract(StochasticModel model, RandomEngine rng)
+	{
+		time = 0;
+		timeDist = new Exponential(1.0, rng);
+		if(rng instanceof Xoroshiro128PlusPlus)
+			xoroshiro = (Xoroshiro128PlusPlus)rng;
+		
+		this.model = model;
+		this.rng = rng;
+		
+		loggers = new HashSet<Logger>();
+		periodicLoggers = new HashSet<PeriodicLogger>();
+		eventLoggers = new HashSet<EventLogger>();
+		stopConditions = new ArrayList<StopCondition>();
+	}
+	
+	/**
+	 * Initializes the model and any event-selection structures.
+	 */
+	protected abstract void initializeEngine() throws SimulationException;
+	
+	/**
+	 * @return The total rate at which steps occur in the current state,
+	 * or 0 if nothing can happen.
+	 */
+	protected abstract double getTotalRate();
+	
+	/**
+	 * Performs one step at the current time. Engines that make changes
+	 * without event objects report them with logChange() instead.
+	 * @return The event performed, or null if there was none.
+	 */
+	protected abstract Event performStep() throws SimulationException;
+	
+	private void initialize() throws SimulationException
+	{
+		if(!initialized)
+		{
+			initializeEngine();
+			
+			try
+			{
+				for(Logger logger : loggers)
+					logger.logStart(model);
+				for(EventLogger logger : eventLoggers)
+					logger.logStart(model);
+				for(PeriodicLogger logger : periodicLoggers)
+					logger.logStart(model);
+				if(asyncLogs != null)
+					asyncLogs.start(model);
+				
+				logSchedule = new PriorityQueue<ScheduledLog>();
+				for(Logger logger : loggers)
+					logSchedule.add(new ScheduledLog(logger, logger.getNextLogTime(model)));
+				for(PeriodicLogger logger : periodicLoggers)
+					logSchedule.add(new ScheduledLog(logger, logger.getNextLogTime(model)));
+				updateNextLogTime();
+			}
+			catch(LoggingException e)
+			{
+				throw new SimulationException("Logging exception thrown", e);
+			}
+			
+			for(StopCondition condition : stopConditions)
+				nextCheckTime = Math.min(nextCheckTime, condition.getNextCheckTime(model));
+			
+			initialized = true;
+		}
+	}
+	
+	public double runUntil(double endTime) throws SimulationException
+	{
+		if(finished) throw new SimulationException("Already finished.");
+		if(!initialized) initialize();
+		
+		while(time < endTime && stopReason == null)
+		{
+			performNextEvent();
+			if(time == Double.POSITIVE_INFINITY) break;
+		}
+		return time;
+	}
+	
+	public double runFor(double timestep) throws SimulationException
+	{
+		return runUntil(time + timestep);
+	}
+	
+	public double performNextEvent() throws SimulationException
+	{
+		if(finished) throw new SimulationException("Already finished.");
+		if(!initialized) initialize();
+		
+		double totalRate = getTotalRate();
+		double tau;
+		if(totalRate == 0)
+			tau = Double.POSITIVE_INFINITY;
+		else if(xoroshiro != null)
+			tau = xoroshiro.nextExponential(totalRate);
+		else
+			tau = timeDist.nextDouble(totalRate);
+		time += tau;
+		
+		// Stop conditions are checked against the state before this event,
+		// which is the state at every check time passed. A run that stops
+		// ends at the stop time, and is only logged up to and including it.
+		if(time > nextCheckTime && checkStopConditions(time))
+		{
+			time = stopTime;
+			try
+			{
+				logPeriodicThrough(time);
+				
+				// Asynchronous loggers log strictly before the published time
+				if(asyncLogs != null)
+					asyncLogs.publishTime(Math.nextUp(time));
+			}
+			catch(LoggingException e)
+			{
+				throw new SimulationException("Logging exception thrown", e);
+			}
+			return time;
+		}
+		
+		try
+		{
+			logPeriodic(time);
+			if(asyncLogs != null && time == Double.POSITIVE_INFINITY)
+				asyncLogs.publishTime(time);
+		}
+		catch(LoggingException e)
+		{
+			throw new SimulationException("Logging exception thrown", e);
+		}
+		
+		if(time != Double.POSITIVE_INFINITY)
+		{
+			changeLogged = false;
+			Event event = performStep();
+			
+			try
+			{
+				if(event != null)
+					logEvent(time, event);
+				
+				if(asyncLogs != null && !changeLogged)
+				{
+					if(event instanceof RecordableEvent)
+						publishChange((RecordableEvent)event);
+					else asyncLogs.publishTime(time);
+				}
+			}
+			catch(LoggingException e)
+			{
+				throw new SimulationException("Logging exception thrown", e);
+			}
+		}
+		
+		return time;
+	}
+	
+	public void finish() throws SimulationException
+	{
+		if(!initialized) initialize();
+		
+		try
+		{
+			for(Logger logger : loggers)
+				logger.logEnd(model);
+			for(EventLogger logger : eventLoggers)
+				logger.logEnd(model);
+			for(PeriodicLogger logger : periodicLoggers)
+				logger.logEnd(model);
+			if(asyncLogs != null)
+				asyncLogs.finish(model);
+		}
+		catch(LoggingException e)
+		{
+			throw new SimulationException("Logging exception thrown", e);
+		}
+		
+		finished = true;
+	}
+	
+	public double getTime()
+	{
+		return time;
+	}
+	
+	public String getStopReason()
+	{
+		return stopReason;
+	}
+	
+	public double getStopTime()
+	{
+		return stopTime;
+	}
+	
+	public void addStopCondition(StopCondition condition)
+	{
+		stopConditions.add(condition);
+	}
+	
+	/**
+	 * Runs all condition checks scheduled before the given time, in time order.
+	 * @return true if a condition has asked for the run to end.
+	 */
+	private boolean checkStopConditions(double time) throws SimulationException
+	{
+		while(time > nextCheckTime)
+		{
+			double checkTime = nextCheckTime;
+			nextCheckTime = Double.POSITIVE_INFINITY;
+			for(StopCondition condition : stopConditions)
+			{
+				if(condition.getNextCheckTime(model) == checkTime)
+				{
+					String reason = condition.check(model, checkTime);
+					if(reason != null && stopReason == null)
+					{
+						stopReason = reason;
+						stopTime = checkTime;
+					}
+				}
+				nextCheckTime = Math.min(nextCheckTime, condition.getNextCheckTime(model));
+			}
+			if(stopReason != null) return true;
+			if(time == Double.POSITIVE_INFINITY) break;
+		}
+		return false;
+	}
+	
+	public void addEventLogger(EventLogger logger)
+	{
+		eventLoggers.add(logger);
+	}
+	
+	public void addLogger(Logger logger)
+	{
+		loggers.add(logger);
+	}
+	
+	public void addPeriodicLogger(PeriodicLogger logger)
+	{
+		periodicLoggers.add(logger);
+	}
+	
+	public void addAsyncLogger(AsyncLogger logger)
+	{
+		if(asyncLogs == null)
+			asyncLogs = new AsyncLogDispatcher(asyncLogCapacity);
+		asyncLogs.addLogger(logger);
+	}
+	
+	/**
+	 * Sets the number of event records buffered for asynchronous loggers.
+	 * Must be called before any asynchronous loggers are added.
+	 */
+	public void setAsyncLogCapacity(int capacity)
+	{
+		asyncLogCapacity = capacity;
+	}
+	
+	/**
+	 * Performs periodic logging for all log times passed. Loggers are only
+	 * consulted when the earliest pending log time has been crossed; a logger's
+	 * next log time is assumed to change only when it logs.
+	 */
+	public void logPeriodic(double time) throws LoggingException
+	{
+		if(!(time > nextLogTime)) return;
+		
+		if(time == Double.POSITIVE_INFINITY)
+		{
+			// Each logger gets a single final log
+			List<ScheduledLog> due = new ArrayList<ScheduledLog>(logSchedule);
+			logSchedule.clear();
+			Collections.sort(due);
+			for(ScheduledLog entry : due)
+			{
+				entry.logger.logPeriodic(model, entry.time);
+				entry.time = entry.logger.getNextLogTime(model);
+				logSchedule.add(entry);
+			}
+		}
+		else
+		{
+			while(time > logSchedule.peek().time)
+			{
+				ScheduledLog entry = logSchedule.poll();
+				entry.logger.logPeriodic(model, entry.time);
+				entry.time = entry.logger.getNextLogTime(model);
+				logSchedule.add(entry);
+			}
+		}
+		
+		updateNextLogTime();
+	}
+	
+	/**
+	 * Performs periodic logging for all log times up to and including the
+	 * given (finite) time, when a run ends there.
+	 */
+	private void logPeriodicThrough(double time) throws LoggingException
+	{
+		while(!logSchedule.isEmpty() && logSchedule.peek().time <= time)
+		{
+			ScheduledLog entry = logSchedule.poll();
+			entry.logger.logPeriodic(model, entry.time);
+			entry.time = entry.logger.getNextLogTime(model);
+			logSchedule.add(entry);
+		}
+		updateNextLogTime();
+	}
+	
+	private void updateNextLogTime()
+	{
+		if(logSchedule.isEmpty()) nextLogTime = Double.POSITIVE_INFINITY;
+		else nextLogTime = logSchedule.peek().time;
+	}
+	
+	private static class ScheduledLog implements Comparable<ScheduledLog>
+	{
+		PeriodicLogger logger;
+		double time;
+		
+		ScheduledLog(PeriodicLogger logger, double time)
+		{
+			this.logger = logger;
+			this.time = time;
+		}
+		
+		public int compareTo(ScheduledLog other)
+		{
+			return Double.compare(time, other.time);
+		}
+	}
+	
+	public void logEvent(double time, Event event) throws LoggingException
+	{
+		for(Logger logger : loggers)
+			logger.logEvent(model, time, event);
+		
+		for(EventLogger logger : eventLoggers)
+			logger.logEvent(model, time, event);
+	}
+	
+	/**
+	 * Logs a change made at the current time without an event object,
+	 * for engines that do their own event selection.
+	 */
+	protected void logChange(ChangeRecord record) throws SimulationException
+	{
+		try
+		{
+			for(Logger logger : loggers)
+				logger.logChange(model, time, record);
+			
+			for(EventLogger logger : eventLoggers)
+				logger.logChange(model, time, record);
+			
+			if(asyncLogs != null)
+				publishChange(record);
+		}
+		catch(LoggingException e)
+		{
+			throw new SimulationException("Logging exception thrown", e);
+		}
+		changeLogged = true;
+	}
+	
+	private void publishChange(ChangeRecord record) throws LoggingException
+	{
+		asyncLogs.publish(time, record.getSiteIndex(), record.getStateIndex(), record.getValue());
+	}
+}
@@ -0,0 +1,17 @@
+package jstoch.model;
+
+/**
+ * Condition checked periodically by a simulator to end a run early,
+ * e.g. on reaching an absorbing state. Checks follow the same schedule
+ * convention as PeriodicLogger.
+ */
+public interface StopCondition
+{
+	public double getNextCheckTime(StochasticModel model) throws SimulationException;
+	
+	/**
+	 * Checks the condition at a scheduled check time and advances the schedule.
+	 * @return A description of why the simulation should stop, or null to continue.
+	 */
+	public String check(StochasticModel model, double time) throws SimulationException;
+}
@@ -0,0 +1,106 @@
+package jstoch.model.test;
+
+import java.util.*;
+
+import jstoch.model.*;
+import jstoch.model.GillespieDirectSimulator.DiscreteDistributionType;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import cern.jet.random.engine.*;
+
+public class TestGillespieDirectSimulator
+{
+	/**
+	 * Event with a fixed rate whose dependencies are conservative: each
+	 * time it is performed, it marks every event for update.
+	 */
+	static class ConstantEvent implements Event
+	{
+		double rate;
+		List<Event> events;
+		
+		ConstantEvent(double rate, List<Event> events)
+		{
+			this.rate = rate;
+			this.events = events;
+		}
+		
+		public void performEvent(double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			eventsToUpdate.addAll(events);
+		}
+		
+		public double getRate()
+		{
+			return rate;
+		}
+	}
+	
+	static class ConstantModel implements StochasticModel
+	{
+		List<Event> events = new ArrayList<Event>();
+		
+		ConstantModel(double... rates)
+		{
+			for(double rate : rates)
+				events.add(new ConstantEvent(rate, events));
+		}
+		
+		public List<Event> getAllEvents()
+		{
+			return events;
+		}
+		
+		public void initialize()
+		{
+		}
+	}
+	
+	/**
+	 * Runs a model whose rates never change and checks that every
+	 * recomputed weight is skipped as unchanged.
+	 */
+	void checkUnchangedRatesSkipped(DiscreteDistributionType type) throws SimulationException
+	{
+		// Rates that are not dyadic fractions, so FixedPoint rounds them
+		ConstantModel model = new ConstantModel(0.1, 0.3, 1.0 / 3.0);
+		GillespieDirectSimulator sim = new GillespieDirectSimulator(model, new MersenneTwister(1));
+		sim.setDiscreteDistributionType(type);
+		
+		for(int i = 0; i < 100; i++)
+			sim.performNextEvent();
+		
+		assertEquals(0, sim.getAppliedUpdateCount());
+		assertEquals(300, sim.getSkippedUpdateCount());
+	}
+	
+	@Test
+	public void unchangedRatesSkippedBinaryTree() throws SimulationException
+	{
+		checkUnchangedRatesSkipped(DiscreteDistributionType.BinaryTree);
+	}
+	
+	@Test
+	public void unchangedRatesSkippedFixedPoint() throws SimulationException
+	{
+		checkUnchangedRatesSkipped(DiscreteDistributionType.FixedPoint);
+	}
+	
+	@Test
+	public void changedRateApplied() throws SimulationException
+	{
+		ConstantModel model = new ConstantModel(0.1, 0.3);
+		GillespieDirectSimulator sim = new GillespieDirectSimulator(model, new MersenneTwister(1));
+		sim.setDiscreteDistributionType(DiscreteDistributionType.FixedPoint);
+		
+		sim.performNextEvent();
+		((ConstantEvent)model.events.get(0)).rate = 0.2;
+		sim.performNextEvent();
+		
+		assertEquals(1, sim.getAppliedUpdateCount());
+		assertEquals(3, sim.getSkippedUpdateCount());
+		assertEquals(0.2, sim.getDistribution().getWeight(model.events.get(0)), 1e-9);
+	}
+}
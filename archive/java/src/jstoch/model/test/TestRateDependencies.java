@@ -0,0 +1,86 @@
+package jstoch.model.test;
+
+import jstoch.model.*;
+import jstoch.model.RateDependencies.Rule;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestRateDependencies
+{
+	static final int A = 0, B = 1, C = 2;
+	static final int EVENT_X = 0, EVENT_Y = 1, EVENT_Z = 2;
+	
+	RateDependencies dependencies;
+	
+	@Before
+	public void setUp()
+	{
+		dependencies = new RateDependencies(3, 3);
+		
+		// X at A sites reads B neighbors and their values
+		dependencies.addHost(EVENT_X, A);
+		dependencies.addInput(EVENT_X, true, B);
+		
+		// Y at B and C sites reads A neighbors, and their C neighbors
+		dependencies.addHost(EVENT_Y, B);
+		dependencies.addHost(EVENT_Y, C);
+		dependencies.addInput(EVENT_Y, false, A, C);
+		
+		// Z has no hosts
+		dependencies.addInput(EVENT_Z, false, A);
+		
+		dependencies.compile();
+	}
+	
+	@Test
+	public void directNeighbors()
+	{
+		// B->C changes X's input, and the second hop of Y's
+		Rule[] rules = dependencies.getStateRules(B, C);
+		assertEquals(2, rules.length);
+		assertEquals(EVENT_X, rules[0].eventType);
+		assertEquals(0, rules[0].walk.length);
+		assertTrue(rules[0].hostStates[A]);
+		assertFalse(rules[0].hostStates[B]);
+		assertEquals(EVENT_Y, rules[1].eventType);
+		assertArrayEquals(new int[] {A}, rules[1].walk);
+	}
+	
+	@Test
+	public void secondHop()
+	{
+		// A->C changes both hops of Y's input, and Z has no hosts
+		Rule[] rules = dependencies.getStateRules(A, C);
+		assertEquals(2, rules.length);
+		assertEquals(EVENT_Y, rules[0].eventType);
+		assertArrayEquals(new int[0], rules[0].walk);
+		assertEquals(EVENT_Y, rules[1].eventType);
+		assertArrayEquals(new int[] {A}, rules[1].walk);
+	}
+	
+	@Test
+	public void duplicatesMerged()
+	{
+		// A->B changes X's input and the first hop of Y's
+		Rule[] rules = dependencies.getStateRules(A, B);
+		assertEquals(2, rules.length);
+		assertEquals(rules.length, dependencies.getStateRules(B, A).length);
+	}
+	
+	@Test
+	public void noChange()
+	{
+		assertEquals(0, dependencies.getStateRules(B, B).length);
+	}
+	
+	@Test
+	public void valueRules()
+	{
+		Rule[] rules = dependencies.getValueRules(B);
+		assertEquals(1, rules.length);
+		assertEquals(EVENT_X, rules[0].eventType);
+		assertEquals(0, dependencies.getValueRules(A).length);
+		assertEquals(0, dependencies.getValueRules(C).length);
+	}
+}
@@ -5,8 +5,15 @@ import java.util.Map;
 public interface DiscreteDistribution<T>
 {
 	public void update(T value, double weight);
+	public void updateAll(Map<T, Double> weights);
 	public void remove(T value);
 	public double getWeight(T value);
+	
+	/**
+	 * @return The weight getWeight() would report after update() with
+	 * this weight, so callers can tell whether an update changes anything.
+	 */
+	public double quantize(double weight);
 	public T nextValue();
 	public int getSize();
 	
@@ -5,6 +5,26 @@ import java.util.*;
 public abstract class DiscreteDistributionAbstract<T> implements
 		DiscreteDistribution<T>
 {
+	/**
+	 * Applies a batch of weight changes; a weight of zero removes the value.
+	 * This default simply applies each change in turn.
+	 */
+	public void updateAll(Map<T, Double> weights)
+	{
+		for(Map.Entry<T, Double> entry : weights.entrySet())
+		{
+			update(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Weights are stored as given by default.
+	 */
+	public double quantize(double weight)
+	{
+		return weight > 0.0 ? weight : 0.0;
+	}
+	
 	public boolean verify(int numDraws)
 	{
 		Map<T, Integer> counts = new HashMap<T, Integer>();
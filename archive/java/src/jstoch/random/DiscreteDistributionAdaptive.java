@@ -0,0 +1,279 @@
+package jstoch.random;
+
+import java.util.*;
+
+import cern.jet.random.engine.*;
+
+/**
+ * Discrete distribution that picks its own backend. It starts on a linear
+ * scan (for a few values) or a binary tree, profiles draws, updates and
+ * weights for a warm-up period, and then moves its contents to whichever
+ * backend a simple cost model predicts is fastest:
+ * 
+ * - Linear: O(N) draws, O(1) updates; best for a handful of values.
+ * - BinaryTree: O(log N) draws and updates; best for skewed weights.
+ * - Rejection: O(max/mean) draws, O(1) updates; best for many updates
+ *   per draw over weights of similar size.
+ * - RejectionPlus: binned rejection with one bin per mean weight, so
+ *   draws are O(1) for any weights; updates cost one bin per mean weight
+ *   of change.
+ * 
+ * The choice is re-evaluated periodically, and only changed when the
+ * predicted saving is large, so the backend does not flap.
+ */
+public class DiscreteDistributionAdaptive<T> extends DiscreteDistributionAbstract<T>
+{
+	public enum Backend
+	{
+		Linear,
+		BinaryTree,
+		Rejection,
+		RejectionPlus
+	}
+	
+	// Largest size at which the initial backend is a linear scan
+	public static final int LINEAR_MAX_SIZE = 16;
+	
+	// Switch only if the predicted cost drops below this fraction
+	private static final double SWITCH_THRESHOLD = 0.7;
+	
+	private RandomEngine rng;
+	
+	private Backend backend;
+	private DiscreteDistribution<T> dist;
+	private double binWeight;
+	private int migrationCount;
+	
+	// Draws before the first evaluation, and between later ones
+	private long warmupDraws = 1000;
+	private long evaluationInterval = 100000;
+	
+	// Statistics since the last evaluation
+	private long drawCount;
+	private long updateCount;
+	private long nextEvaluation;
+	
+	public DiscreteDistributionAdaptive(RandomEngine rng)
+	{
+		this(new HashMap<T, Double>(), rng);
+	}
+	
+	public DiscreteDistributionAdaptive(HashMap<T, Double> weights, RandomEngine rng)
+	{
+		this.rng = rng;
+		migrate(weights.size() <= LINEAR_MAX_SIZE ? Backend.Linear : Backend.BinaryTree, weights);
+		nextEvaluation = warmupDraws;
+	}
+	
+	/**
+	 * Builds the distribution from parallel arrays of values and weights,
+	 * starting on a binary tree built in one pass.
+	 */
+	public DiscreteDistributionAdaptive(T[] values, double[] weights, RandomEngine rng)
+	{
+		this.rng = rng;
+		if(values.length <= LINEAR_MAX_SIZE)
+		{
+			HashMap<T, Double> weightMap = new HashMap<T, Double>();
+			for(int i = 0; i < values.length; i++)
+				if(weights[i] > 0.0) weightMap.put(values[i], weights[i]);
+			migrate(Backend.Linear, weightMap);
+		}
+		else
+		{
+			backend = Backend.BinaryTree;
+			dist = new DiscreteDistributionBinaryTree<T>(values, weights, rng);
+		}
+		nextEvaluation = warmupDraws;
+	}
+	
+	/**
+	 * Sets the number of draws before the first evaluation, and between later ones.
+	 */
+	public void setEvaluationSchedule(long warmupDraws, long evaluationInterval)
+	{
+		this.warmupDraws = warmupDraws;
+		this.evaluationInterval = evaluationInterval;
+		nextEvaluation = Math.max(warmupDraws - drawCount, 1);
+	}
+	
+	public Backend getBackend()
+	{
+		return backend;
+	}
+	
+	public int getMigrationCount()
+	{
+		return migrationCount;
+	}
+	
+	/**
+	 * Moves the contents to a new backend.
+	 */
+	public void setBackend(Backend newBackend)
+	{
+		migrate(newBackend, new HashMap<T, Double>(dist.getWeights()));
+		migrationCount++;
+	}
+	
+	private void migrate(Backend newBackend, HashMap<T, Double> weights)
+	{
+		backend = newBackend;
+		switch(newBackend)
+		{
+			case Linear:
+				dist = new DiscreteDistributionLinear<T>(weights, rng);
+				break;
+			case BinaryTree:
+				dist = new DiscreteDistributionBinaryTree<T>(weights, rng);
+				break;
+			case Rejection:
+				dist = new DiscreteDistributionRejection<T>(weights, rng);
+				break;
+			case RejectionPlus:
+				double total = 0;
+				for(double weight : weights.values())
+					total += weight;
+				binWeight = weights.isEmpty() ? 1.0 : total / weights.size();
+				dist = new DiscreteDistributionRejectionPlus<T>(binWeight, weights, rng);
+				break;
+		}
+	}
+	
+	/**
+	 * Predicts the cost of each backend per draw from the statistics since
+	 * the last evaluation, and moves to the cheapest if it is enough cheaper.
+	 * Costs are rough, in units of about 10 ns, fitted to timings of each
+	 * backend with a thousand values.
+	 */
+	private void evaluate()
+	{
+		Map<T, Double> weights = dist.getWeights();
+		int n = weights.size();
+		if(n > 0)
+		{
+			double total = 0;
+			double max = 0;
+			for(double weight : weights.values())
+			{
+				total += weight;
+				max = Math.max(max, weight);
+			}
+			double mean = total / n;
+			
+			// Bins per value for binned rejection at the current mean,
+			// which is also its expected number of trials per draw
+			double bins = 0;
+			for(double weight : weights.values())
+				bins += Math.ceil(weight / mean);
+			double binsPerValue = bins / n;
+			
+			double updatesPerDraw = (double)updateCount / drawCount;
+			double log2n = Math.log(n) / Math.log(2);
+			
+			double[] costs = new double[Backend.values().length];
+			costs[Backend.Linear.ordinal()] = 2 + 0.1 * n + 4 * updatesPerDraw;
+			costs[Backend.BinaryTree.ordinal()] = (log2n + 2) + 2 * log2n * updatesPerDraw;
+			costs[Backend.Rejection.ordinal()] = (2 * max / mean + 4) + 7 * updatesPerDraw;
+			costs[Backend.RejectionPlus.ordinal()] = 4 * binsPerValue + (8 + 4 * binsPerValue) * updatesPerDraw;
+			
+			// Binned rejection is only as good as its bin weight
+			if(backend == Backend.RejectionPlus)
+				costs[backend.ordinal()] += 4 * Math.abs(Math.log(mean / binWeight) / Math.log(2));
+			
+			Backend best = backend;
+			for(Backend candidate : Backend.values())
+			{
+				if(costs[candidate.ordinal()] < costs[best.ordinal()])
+					best = candidate;
+			}
+			if(costs[best.ordinal()] < SWITCH_THRESHOLD * costs[backend.ordinal()])
+				setBackend(best);
+		}
+		
+		drawCount = 0;
+		updateCount = 0;
+		nextEvaluation = Math.max(evaluationInterval, 4L * n);
+	}
+	
+	public void update(T value, double weight)
+	{
+		updateCount++;
+		
+		// Some backends only keep their totals through update, not remove
+		dist.update(value, weight > 0.0 ? weight : 0.0);
+		checkLinearSize();
+	}
+	
+	@Override
+	public void updateAll(Map<T, Double> weights)
+	{
+		updateCount += weights.size();
+		dist.updateAll(weights);
+		checkLinearSize();
+	}
+	
+	/**
+	 * A linear scan that has outgrown small sizes will lose to a tree
+	 * whatever the statistics say, so this doesn't wait for an evaluation.
+	 */
+	private void checkLinearSize()
+	{
+		if(backend == Backend.Linear && dist.getSize() > 4 * LINEAR_MAX_SIZE)
+			setBackend(Backend.BinaryTree);
+	}
+	
+	public void remove(T value)
+	{
+		update(value, 0.0);
+	}
+	
+	public T nextValue()
+	{
+		drawCount++;
+		if(drawCount >= nextEvaluation)
+			evaluate();
+		return dist.nextValue();
+	}
+	
+	public double getTotalWeight()
+	{
+		return dist.getTotalWeight();
+	}
+	
+	public double getWeight(T value)
+	{
+		return dist.getWeight(value);
+	}
+	
+	@Override
+	public double quantize(double weight)
+	{
+		return dist.quantize(weight);
+	}
+	
+	public Map<T, Double> getWeights()
+	{
+		return dist.getWeights();
+	}
+	
+	public int getSize()
+	{
+		return dist.getSize();
+	}
+	
+	public double getNullRate()
+	{
+		return dist.getNullRate();
+	}
+	
+	public double getRejectionRate()
+	{
+		return dist.getRejectionRate();
+	}
+	
+	public double getTotalRejectionRate()
+	{
+		return dist.getTotalRejectionRate();
+	}
+}
@@ -17,6 +17,16 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 	List<Object> tree;
 	double totalWeight;
 	
+	// Scratch space for batch updates, indexed like the tree
+	double[] subtreeDeltas;
+	double[] leftDeltas;
+	boolean[] dirty;
+	int[] dirtyLeaves; // Changed leaves, at any depth
+	int dirtyLeafCount;
+	int[] levelIndexes; // Dirty nodes on the level being recomputed
+	int[] nextLevelIndexes; // Dirty nodes on the level above
+	List<T> additions;
+	
 	public DiscreteDistributionBinaryTree(RandomEngine rng)
 	{
 		this(new HashMap<T, Double>(), rng);
@@ -30,6 +40,35 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 		buildTree();
 	}
 	
+	/**
+	 * Builds the distribution directly from parallel arrays of values and weights,
+	 * without an intermediate map. Values with zero weight are skipped; values
+	 * must be distinct. The tree is laid out in array order.
+	 */
+	public DiscreteDistributionBinaryTree(T[] values, double[] weights, RandomEngine rng)
+	{
+		this.uniform = new Uniform(rng);
+		
+		int n = 0;
+		Object[] items = new Object[values.length];
+		double[] itemWeights = new double[values.length];
+		this.weights = new HashMap<T, Double>(mapCapacity(values.length));
+		for(int i = 0; i < values.length; i++)
+		{
+			assert(weights[i] >= 0.0);
+			if(weights[i] > 0.0)
+			{
+				items[n] = values[i];
+				itemWeights[n] = weights[i];
+				this.weights.put(values[i], weights[i]);
+				n++;
+			}
+		}
+		assert(this.weights.size() == n);
+		
+		buildTree(items, itemWeights, n);
+	}
+	
 	public List<Object> getTree()
 	{
 		return tree;
@@ -42,19 +81,36 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 	
 	private void buildTree()
 	{
-		List<T> zeroWeights = new ArrayList<T>();
-		for(T val : weights.keySet())
+		// Drop zero weights and collect the rest in map order
+		Object[] items = new Object[weights.size()];
+		double[] itemWeights = new double[weights.size()];
+		int n = 0;
+		Iterator<Map.Entry<T, Double>> entries = weights.entrySet().iterator();
+		while(entries.hasNext())
 		{
-			double weight = weights.get(val);
+			Map.Entry<T, Double> entry = entries.next();
+			double weight = entry.getValue();
 			assert(weight >= 0.0);
 			
-			if(weight == 0.0) zeroWeights.add(val);
+			if(weight == 0.0) entries.remove();
+			else
+			{
+				items[n] = entry.getKey();
+				itemWeights[n] = weight;
+				n++;
+			}
 		}
 		
-		for(T val : zeroWeights) weights.remove(val);
-		zeroWeights = null;
-		
-		int n = weights.size();
+		buildTree(items, itemWeights, n);
+	}
+	
+	/**
+	 * Builds the tree bottom-up in one pass from the first n items and their
+	 * (nonzero) weights, which must match the weights map.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buildTree(Object[] items, double[] itemWeights, int n)
+	{
 		int nFull = round2(n);
 		
 		// Initialize tree with null placeholders
@@ -63,13 +119,15 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 		for(int i = 0; i < treeLength; i++)
 			tree.add(null);
 		
+		// Total weight below each node
+		double[] sums = new double[treeLength];
+		
 		// Add leaf nodes with items, all at lowest level until final 1 or 2
 		{
-			int i = 0;
 			int treeIndex = nFull - 1;
 			int numLeft = n;
-			treeIndexes = new HashMap<T, Integer>(n);
-			for(T item : weights.keySet())
+			treeIndexes = new HashMap<T, Integer>(mapCapacity(n));
+			for(int i = 0; i < n; i++)
 			{
 				// Termination: adjust the tree index to the right level
 				// If there's just one left, it will put it at the right level
@@ -96,77 +154,38 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 				
 				// In all cases, put this item in the right place in the tree
 				// and record its index.
-				tree.set(treeIndex, item);
-				treeIndexes.put(item, treeIndex);
+				tree.set(treeIndex, items[i]);
+				treeIndexes.put((T)items[i], treeIndex);
+				sums[treeIndex] = itemWeights[i];
 				
-				i++;
 				treeIndex++;
 				numLeft--;
 			}
 		}
 		
-		// Now propagate sums up from leaf nodes to root of tree, level by level.
-		// Because the sum at each node only includes half of the sum
-		// that must be propagated up the tree, we maintain a parallel
-		// array of right-sums to mirror the left-sums stored at each node.
+		// Now propagate sums up from leaf nodes to root of tree. Children always
+		// have higher indexes than their parents, so one backward pass suffices.
+		// Each internal node stores the sum of its left subtree.
 		{
-			double[] rightSums = new double[nFull - 1];
-			int levelStart = nFull - 1;
-			int levelSize = nFull;
-			for(int level = lgCeil(n) - 1; level >= 0; level--)
+			for(int treeIndex = nFull - 2; treeIndex >= 0; treeIndex--)
 			{
-				levelStart /= 2;
-				levelSize /= 2;
-				for(int treeIndex = levelStart; treeIndex < levelStart + levelSize; treeIndex++)
+				if(tree.get(treeIndex) == null)
 				{
-					if(tree.get(treeIndex) == null)
+					int leftIndex = leftChild(treeIndex);
+					int rightIndex = rightChild(treeIndex);
+					
+					// Left child null implies that right child is also null,
+					// but this is ONLY true during the initial setup:
+					// this is not a constraint on the data structure after item removal.
+					if(tree.get(leftIndex) != null)
 					{
-						int leftIndex = leftChild(treeIndex);
-						int rightIndex = rightChild(treeIndex);
-						
-						Object leftChild = tree.get(leftChild(treeIndex));
-						Object rightChild = tree.get(rightChild(treeIndex));
-						
-						// Left child null implies that right child is also null,
-						// but this is ONLY true during the initial setup:
-						// this is not a constraint on the data structure after item removal.
-						if(leftChild != null)
-						{
-							double leftSum;
-							double rightSum;
-							if(leftChild instanceof Double)
-								leftSum = (Double)leftChild + rightSums[leftIndex];
-							else
-								leftSum = weights.get(leftChild);
-							
-							if(rightChild != null)
-							{
-								if(rightChild instanceof Double)
-									rightSum = (Double)rightChild + rightSums[rightIndex];
-								else
-									rightSum = weights.get(rightChild);
-							}
-							else rightSum = 0;
-							
-							tree.set(treeIndex, leftSum);
-							rightSums[treeIndex] = rightSum;
-						}
+						tree.set(treeIndex, sums[leftIndex]);
+						sums[treeIndex] = sums[leftIndex] + sums[rightIndex];
 					}
 				}
 			}
-			if(weights.size() == 0) totalWeight = 0.0;
-			else
-			{
-				Object root = tree.get(0);
-				if(root instanceof Double)
-				{
-					totalWeight = (Double)root + rightSums[0];
-				}
-				else
-				{
-					totalWeight = weights.get(root);
-				}
-			}
+			if(n == 0) totalWeight = 0.0;
+			else totalWeight = sums[0];
 		}
 		
 		// Record all the free indexes, level by level
@@ -206,6 +225,11 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 		return 2*i + 2;
 	}
 	
+	private static int mapCapacity(int n)
+	{
+		return (int)(n / 0.75f) + 1;
+	}
+	
 	private static int round2(int n)
 	{
 		int L = 1;
@@ -247,8 +271,8 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 	
 	public double getWeight(T value)
 	{
-		if(!weights.containsKey(value)) return 0;
-		return weights.get(value);
+		Double weight = weights.get(value);
+		return weight == null ? 0 : weight;
 	}
 	
 	public Map<T, Double> getWeights()
@@ -428,6 +452,156 @@ public class DiscreteDistributionBinaryTree<T> extends DiscreteDistributionAbstr
 		}
 	}
 	
+	/**
+	 * Applies a batch of weight changes. All leaves are modified first,
+	 * and then each affected internal node is recomputed exactly once,
+	 * level by level from the deepest, instead of walking to the root once
+	 * per value. All scratch space is reused from call to call.
+	 * Values not yet in the tree are added afterward one at a time,
+	 * since additions may rearrange leaves or rebuild the tree.
+	 */
+	public void updateAll(Map<T, Double> newWeights)
+	{
+		int treeLength = tree.size();
+		if(dirty == null || dirty.length != treeLength)
+		{
+			subtreeDeltas = new double[treeLength];
+			leftDeltas = new double[treeLength];
+			dirty = new boolean[treeLength];
+			dirtyLeaves = new int[treeLength];
+			levelIndexes = new int[treeLength];
+			nextLevelIndexes = new int[treeLength];
+		}
+		if(additions == null)
+			additions = new ArrayList<T>();
+		
+		dirtyLeafCount = 0;
+		double totalDelta = 0;
+		
+		// Modify or remove existing leaves, recording the change in each subtree sum
+		for(Map.Entry<T, Double> entry : newWeights.entrySet())
+		{
+			T value = entry.getKey();
+			double weight = entry.getValue();
+			
+			if(!weights.containsKey(value))
+			{
+				if(weight > 0.0)
+					additions.add(value);
+				continue;
+			}
+			
+			double oldWeight = weights.get(value);
+			if(weight == oldWeight) continue;
+			
+			int treeIndex = treeIndexes.get(value);
+			double delta;
+			if(weight <= 0.0)
+			{
+				weights.remove(value);
+				treeIndexes.remove(value);
+				tree.set(treeIndex, null);
+				pushFreeIndex(treeIndex);
+				delta = -oldWeight;
+			}
+			else
+			{
+				weights.put(value, weight);
+				delta = weight - oldWeight;
+			}
+			
+			subtreeDeltas[treeIndex] = delta;
+			dirty[treeIndex] = true;
+			dirtyLeaves[dirtyLeafCount++] = treeIndex;
+			totalDelta += delta;
+		}
+		
+		// The parents of the nodes on one level are all on the level above,
+		// so recomputing one level at a time from the deepest guarantees that
+		// a node is only visited after all of its changed descendants have
+		// reported in. Leaves are sorted so that those on each level can be
+		// merged in as it is reached.
+		Arrays.sort(dirtyLeaves, 0, dirtyLeafCount);
+		int nextLeaf = dirtyLeafCount - 1;
+		int levelCount = 0;
+		while(levelCount > 0 || nextLeaf >= 0)
+		{
+			int levelStart = levelStart(levelCount > 0 ? levelIndexes[0] : dirtyLeaves[nextLeaf]);
+			while(nextLeaf >= 0 && dirtyLeaves[nextLeaf] >= levelStart)
+				levelIndexes[levelCount++] = dirtyLeaves[nextLeaf--];
+			
+			int nextLevelCount = 0;
+			for(int i = 0; i < levelCount; i++)
+			{
+				int treeIndex = levelIndexes[i];
+				double delta = subtreeDeltas[treeIndex];
+				subtreeDeltas[treeIndex] = 0.0;
+				dirty[treeIndex] = false;
+				
+				// Internal node: same fix-ups as the single-value walk in update()
+				if(tree.get(treeIndex) instanceof Double)
+				{
+					if(tree.get(leftChild(treeIndex)) == null)
+					{
+						if(tree.get(rightChild(treeIndex)) == null)
+						{
+							tree.set(treeIndex, null);
+							pushFreeIndex(treeIndex);
+						}
+						else tree.set(treeIndex, 0.0);
+					}
+					else if(leftDeltas[treeIndex] != 0.0)
+					{
+						tree.set(treeIndex, (Double)tree.get(treeIndex) + leftDeltas[treeIndex]);
+					}
+				}
+				leftDeltas[treeIndex] = 0.0;
+				
+				if(treeIndex > 0)
+				{
+					int parentIndex = parent(treeIndex);
+					if(treeIndex == leftChild(parentIndex))
+						leftDeltas[parentIndex] += delta;
+					subtreeDeltas[parentIndex] += delta;
+					if(!dirty[parentIndex])
+					{
+						dirty[parentIndex] = true;
+						nextLevelIndexes[nextLevelCount++] = parentIndex;
+					}
+				}
+			}
+			
+			int[] swap = levelIndexes;
+			levelIndexes = nextLevelIndexes;
+			nextLevelIndexes = swap;
+			levelCount = nextLevelCount;
+		}
+		
+		if(tree.get(0) == null)
+		{
+			totalWeight = 0.0;
+		}
+		else
+		{
+			totalWeight += totalDelta;
+		}
+		
+		for(int i = 0; i < additions.size(); i++)
+		{
+			T value = additions.get(i);
+			update(value, newWeights.get(value));
+		}
+		additions.clear();
+	}
+	
+	/**
+	 * @return The index of the first node on the same level as a node.
+	 */
+	private static int levelStart(int i)
+	{
+		return Integer.highestOneBit(i + 1) - 1;
+	}
+	
 	private int popFreeIndex()
 	{
 		int index;
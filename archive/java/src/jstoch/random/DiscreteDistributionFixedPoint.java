@@ -0,0 +1,254 @@
+package jstoch.random;
+
+import java.util.*;
+
+import cern.jet.random.engine.*;
+
+/**
+ * Binary tree distribution that stores weights as 64-bit integers in units
+ * of 1/scale. All internal sums are exact, so the total never drifts from
+ * the sum of the leaves however many updates are made, and small weights
+ * are never lost next to large ones. Weights are rounded to the nearest
+ * unit; a positive weight smaller than one unit is kept as one unit.
+ *
+ * Values occupy leaf slots of a flat array tree; freed slots are reused,
+ * and the tree is only rebuilt when it must double in size.
+ */
+public class DiscreteDistributionFixedPoint<T> extends DiscreteDistributionAbstract<T>
+{
+	// Default resolution of 2^-32 allows totals up to 2^31
+	public static final double DEFAULT_SCALE = 4294967296.0;
+	
+	private RandomEngine rng;
+	private double scale;
+	
+	private int capacity;
+	private long[] tree;
+	private Object[] values;
+	private Map<T, Integer> slots;
+	private int[] freeSlots;
+	private int freeSlotCount;
+	
+	public DiscreteDistributionFixedPoint(RandomEngine rng)
+	{
+		this(rng, DEFAULT_SCALE);
+	}
+	
+	public DiscreteDistributionFixedPoint(RandomEngine rng, double scale)
+	{
+		this.rng = rng;
+		this.scale = scale;
+		slots = new HashMap<T, Integer>();
+		allocate(16);
+		freeSlotCount = 0;
+		for(int slot = capacity - 1; slot >= 0; slot--)
+			freeSlots[freeSlotCount++] = slot;
+	}
+	
+	public DiscreteDistributionFixedPoint(HashMap<T, Double> weights, RandomEngine rng)
+	{
+		this(rng);
+		for(Map.Entry<T, Double> entry : weights.entrySet())
+			update(entry.getKey(), entry.getValue());
+	}
+	
+	/**
+	 * Builds the distribution from parallel arrays of values and weights
+	 * in one pass; values with nonpositive weights are skipped.
+	 */
+	public DiscreteDistributionFixedPoint(T[] values, double[] weights, RandomEngine rng)
+	{
+		this.rng = rng;
+		this.scale = DEFAULT_SCALE;
+		slots = new HashMap<T, Integer>(2 * values.length);
+		
+		int count = 0;
+		for(double weight : weights)
+			if(weight > 0.0) count++;
+		allocate(Math.max(count, 16));
+		
+		int slot = 0;
+		for(int i = 0; i < values.length; i++)
+		{
+			if(weights[i] > 0.0)
+			{
+				this.values[slot] = values[i];
+				tree[capacity + slot] = toUnits(weights[i]);
+				slots.put(values[i], slot);
+				slot++;
+			}
+		}
+		rebuildSums();
+		
+		freeSlotCount = 0;
+		for(int free = capacity - 1; free >= count; free--)
+			freeSlots[freeSlotCount++] = free;
+	}
+	
+	private void allocate(int minCapacity)
+	{
+		capacity = 1;
+		while(capacity < minCapacity)
+			capacity *= 2;
+		tree = new long[2 * capacity];
+		values = new Object[capacity];
+		freeSlots = new int[capacity];
+	}
+	
+	private void rebuildSums()
+	{
+		for(int node = capacity - 1; node >= 1; node--)
+			tree[node] = Math.addExact(tree[2 * node], tree[2 * node + 1]);
+	}
+	
+	/**
+	 * Doubles the capacity, keeping all values in their slots.
+	 */
+	private void grow()
+	{
+		int oldCapacity = capacity;
+		long[] oldTree = tree;
+		Object[] oldValues = values;
+		
+		allocate(2 * oldCapacity);
+		System.arraycopy(oldTree, oldCapacity, tree, capacity, oldCapacity);
+		System.arraycopy(oldValues, 0, values, 0, oldCapacity);
+		rebuildSums();
+		
+		freeSlotCount = 0;
+		for(int slot = capacity - 1; slot >= oldCapacity; slot--)
+			freeSlots[freeSlotCount++] = slot;
+	}
+	
+	private long toUnits(double weight)
+	{
+		long units = Math.round(weight * scale);
+		return units == 0 ? 1 : units;
+	}
+	
+	private void setLeaf(int slot, long units)
+	{
+		int node = capacity + slot;
+		tree[node] = units;
+		for(node /= 2; node >= 1; node /= 2)
+			tree[node] = Math.addExact(tree[2 * node], tree[2 * node + 1]);
+	}
+	
+	public void update(T value, double weight)
+	{
+		Integer slot = slots.get(value);
+		if(weight <= 0.0)
+		{
+			if(slot == null) return;
+			
+			slots.remove(value);
+			values[slot] = null;
+			setLeaf(slot, 0);
+			freeSlots[freeSlotCount++] = slot;
+			return;
+		}
+		
+		if(slot == null)
+		{
+			if(freeSlotCount == 0)
+				grow();
+			slot = freeSlots[--freeSlotCount];
+			slots.put(value, slot);
+			values[slot] = value;
+		}
+		
+		// Weights that round to the same units leave the tree untouched
+		long units = toUnits(weight);
+		if(units != tree[capacity + slot])
+			setLeaf(slot, units);
+	}
+	
+	public void remove(T value)
+	{
+		update(value, 0.0);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T nextValue()
+	{
+		long total = tree[1];
+		if(total == 0) return null;
+		
+		// Uniform draw from [0, total) without modulo bias
+		long bits, u;
+		do
+		{
+			bits = rng.nextLong() >>> 1;
+			u = bits % total;
+		} while(bits - u + (total - 1) < 0);
+		
+		int node = 1;
+		while(node < capacity)
+		{
+			int left = 2 * node;
+			if(u < tree[left])
+			{
+				node = left;
+			}
+			else
+			{
+				u -= tree[left];
+				node = left + 1;
+			}
+		}
+		return (T)values[node - capacity];
+	}
+	
+	/**
+	 * @return The total weight, in integer units of 1/scale.
+	 */
+	public long getTotalUnits()
+	{
+		return tree[1];
+	}
+	
+	public double getTotalWeight()
+	{
+		return tree[1] / scale;
+	}
+	
+	public double getWeight(T value)
+	{
+		Integer slot = slots.get(value);
+		return slot == null ? 0 : tree[capacity + slot] / scale;
+	}
+	
+	@Override
+	public double quantize(double weight)
+	{
+		return weight <= 0.0 ? 0 : toUnits(weight) / scale;
+	}
+	
+	public Map<T, Double> getWeights()
+	{
+		Map<T, Double> weights = new HashMap<T, Double>(2 * slots.size());
+		for(Map.Entry<T, Integer> entry : slots.entrySet())
+			weights.put(entry.getKey(), tree[capacity + entry.getValue()] / scale);
+		return weights;
+	}
+	
+	public int getSize()
+	{
+		return slots.size();
+	}
+	
+	public double getNullRate()
+	{
+		return 0;
+	}
+	
+	public double getRejectionRate()
+	{
+		return 0;
+	}
+	
+	public double getTotalRejectionRate()
+	{
+		return 0;
+	}
+}
@@ -0,0 +1,136 @@
+package jstoch.random;
+
+import java.util.*;
+
+import cern.jet.random.engine.*;
+
+/**
+ * Discrete distribution that draws by scanning its weights in order.
+ * Updates are O(1) and draws O(N), with no tree or table to maintain,
+ * so it is the fastest choice for a handful of values (e.g. the six
+ * events of the well-mixed model). The total is summed afresh on each
+ * draw, so it never drifts.
+ */
+public class DiscreteDistributionLinear<T> extends DiscreteDistributionAbstract<T>
+{
+	private RandomEngine rng;
+	
+	private int size;
+	private Object[] values;
+	private double[] weights;
+	private Map<T, Integer> indexes;
+	
+	public DiscreteDistributionLinear(RandomEngine rng)
+	{
+		this.rng = rng;
+		values = new Object[8];
+		weights = new double[8];
+		indexes = new HashMap<T, Integer>();
+	}
+	
+	public DiscreteDistributionLinear(HashMap<T, Double> weights, RandomEngine rng)
+	{
+		this(rng);
+		for(Map.Entry<T, Double> entry : weights.entrySet())
+			update(entry.getKey(), entry.getValue());
+	}
+	
+	public void update(T value, double weight)
+	{
+		Integer index = indexes.get(value);
+		if(weight <= 0.0)
+		{
+			if(index == null) return;
+			
+			// Move the last value into the hole
+			size--;
+			values[index] = values[size];
+			weights[index] = weights[size];
+			values[size] = null;
+			indexes.remove(value);
+			if(index < size)
+				indexes.put(valueAt(index), index);
+			return;
+		}
+		
+		if(index == null)
+		{
+			if(size == values.length)
+			{
+				values = Arrays.copyOf(values, 2 * size);
+				weights = Arrays.copyOf(weights, 2 * size);
+			}
+			index = size++;
+			values[index] = value;
+			indexes.put(value, index);
+		}
+		weights[index] = weight;
+	}
+	
+	public void remove(T value)
+	{
+		update(value, 0.0);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T valueAt(int index)
+	{
+		return (T)values[index];
+	}
+	
+	public T nextValue()
+	{
+		if(size == 0) return null;
+		
+		double u = rng.nextDouble() * getTotalWeight();
+		for(int i = 0; i < size - 1; i++)
+		{
+			u -= weights[i];
+			if(u < 0)
+				return valueAt(i);
+		}
+		return valueAt(size - 1);
+	}
+	
+	public double getTotalWeight()
+	{
+		double total = 0;
+		for(int i = 0; i < size; i++)
+			total += weights[i];
+		return total;
+	}
+	
+	public double getWeight(T value)
+	{
+		Integer index = indexes.get(value);
+		return index == null ? 0 : weights[index];
+	}
+	
+	public Map<T, Double> getWeights()
+	{
+		Map<T, Double> weightMap = new HashMap<T, Double>(2 * size);
+		for(int i = 0; i < size; i++)
+			weightMap.put(valueAt(i), weights[i]);
+		return weightMap;
+	}
+	
+	public int getSize()
+	{
+		return size;
+	}
+	
+	public double getNullRate()
+	{
+		return 0;
+	}
+	
+	public double getRejectionRate()
+	{
+		return 0;
+	}
+	
+	public double getTotalRejectionRate()
+	{
+		return 0;
+	}
+}
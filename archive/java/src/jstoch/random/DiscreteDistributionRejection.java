@@ -91,6 +91,10 @@ public class DiscreteDistributionRejection<T> extends DiscreteDistributionAbstra
 			double weight = weights.get(value);
 			update(value, weights.get(value), false);
 			totalWeight += weight;
+			
+			int scale = log2Scale(weight);
+			Integer scaleCount = scaleCounts.get(scale);
+			scaleCounts.put(scale, scaleCount == null ? 1 : scaleCount + 1);
 		}
 	}
 	
@@ -111,7 +115,7 @@ public class DiscreteDistributionRejection<T> extends DiscreteDistributionAbstra
 		// contains this value.
 		int location = -1;
 		double oldWeight = 0;
-		if(weightMap.containsKey(value))
+		if(locationMap.containsKey(value))
 		{
 			location = locationMap.get(value);
 			oldWeight = weightMap.get(value);
@@ -217,8 +221,11 @@ public class DiscreteDistributionRejection<T> extends DiscreteDistributionAbstra
 		}
 		if(weightMap.containsKey(value))
 		{
-			totalWeight -= weightMap.get(value);
-			weightMap.remove(value);
+			double weight = weightMap.remove(value);
+			totalWeight -= weight;
+			
+			int scale = log2Scale(weight);
+			scaleCounts.put(scale, scaleCounts.get(scale) - 1);
 		}
 	}
 	
@@ -242,7 +249,7 @@ public class DiscreteDistributionRejection<T> extends DiscreteDistributionAbstra
 		T value = null;
 		while(!accepted)
 		{
-			int index = Math.abs(rng.nextInt()) % lookupTable.size();
+			int index = (rng.nextInt() >>> 1) % lookupTable.size();
 			value = lookupTable.get(index);
 			drawCountSinceDefrag++;
 			if(value != null)
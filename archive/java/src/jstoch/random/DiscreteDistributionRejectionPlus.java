@@ -195,7 +195,7 @@ public class DiscreteDistributionRejectionPlus<T> extends DiscreteDistributionAb
 				freeQueue.add(location);
 			}
 			locationMap.remove(value);
-			weightMap.remove(value);
+			totalWeight -= weightMap.remove(value);
 		}
 		if(weightMap.size() == 0) totalWeight = 0;
 	}
@@ -217,7 +217,6 @@ public class DiscreteDistributionRejectionPlus<T> extends DiscreteDistributionAb
 		if(weight <= 0)
 		{
 			remove(value);
-			if(updateMap) totalWeight -= oldWeight;
 			return;
 		}
 		
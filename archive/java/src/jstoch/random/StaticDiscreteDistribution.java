@@ -5,7 +5,11 @@ import cern.jet.random.engine.RandomEngine;
 
 /**
  * Represents custom discrete probability distributions that do not change
- * in time. Current implementation simply uses the rejection algorithm.
+ * in time. By default, draws use Walker's alias method, with the table built
+ * in O(N) time by Vose's algorithm: each draw picks a column uniformly and
+ * then either the column's own value or its alias, so it takes O(1) time
+ * however skewed the weights are. The rejection method is kept as an
+ * alternative that needs no table.
  * 
  * @author Ed Baskerville
  *
@@ -13,18 +17,36 @@ import cern.jet.random.engine.RandomEngine;
 @SuppressWarnings("serial")
 public class StaticDiscreteDistribution extends AbstractDiscreteDistribution
 {
+	public enum Method
+	{
+		Alias,
+		Rejection
+	}
+	
 	RandomEngine rng;
 	double[] weights;
 	int count;
 	double maxWeight;
+	Method method;
+	
+	// Alias table: column i yields i with probability probabilities[i],
+	// and aliases[i] otherwise
+	double[] probabilities;
+	int[] aliases;
 	
 	public StaticDiscreteDistribution(double[] weights, RandomEngine rng)
+	{
+		this(weights, rng, Method.Alias);
+	}
+	
+	public StaticDiscreteDistribution(double[] weights, RandomEngine rng, Method method)
 	{
 		if(weights.length == 0) throw new IllegalArgumentException("Array of weights must not be empty.");
 		
 		this.weights = weights;
 		count = weights.length;
 		this.rng = rng;
+		this.method = method;
 		
 		maxWeight = 0;
 		for(double weight : weights)
@@ -37,17 +59,90 @@ public class StaticDiscreteDistribution extends AbstractDiscreteDistribution
 			if(weight > maxWeight)
 				maxWeight = weight;
 		}
+		
+		if(method == Method.Alias)
+			buildAliasTable();
+	}
+	
+	/**
+	 * Builds the alias table with Vose's algorithm: columns scaled below
+	 * the mean are topped up from columns above it, one pair at a time.
+	 */
+	private void buildAliasTable()
+	{
+		double sum = 0;
+		for(double weight : weights)
+			sum += weight;
+		
+		probabilities = new double[count];
+		aliases = new int[count];
+		
+		// Stacks of columns below and above the mean, sharing one array
+		int[] work = new int[count];
+		int smallCount = 0;
+		int largeStart = count;
+		for(int i = 0; i < count; i++)
+		{
+			probabilities[i] = weights[i] * count / sum;
+			if(probabilities[i] < 1.0)
+				work[smallCount++] = i;
+			else
+				work[--largeStart] = i;
+		}
+		
+		while(smallCount > 0 && largeStart < count)
+		{
+			int small = work[--smallCount];
+			int large = work[largeStart];
+			aliases[small] = large;
+			
+			probabilities[large] -= 1.0 - probabilities[small];
+			if(probabilities[large] < 1.0)
+			{
+				largeStart++;
+				work[smallCount++] = large;
+			}
+		}
+		
+		// Leftover columns are full up to rounding error
+		while(smallCount > 0)
+			probabilities[work[--smallCount]] = 1.0;
+		while(largeStart < count)
+			probabilities[work[largeStart++]] = 1.0;
+	}
+	
+	/**
+	 * @return A uniform index in [0, count), without modulo bias.
+	 */
+	private int nextIndex()
+	{
+		int bits, value;
+		do
+		{
+			bits = rng.nextInt() >>> 1;
+			value = bits % count;
+		} while(bits - value + (count - 1) < 0);
+		return value;
 	}
 	
 	@Override
 	public int nextInt()
 	{
+		if(method == Method.Alias)
+		{
+			// Full columns need no second draw
+			int column = nextIndex();
+			if(probabilities[column] >= 1.0)
+				return column;
+			return rng.nextDouble() < probabilities[column] ? column : aliases[column];
+		}
+		
 		// Simple implementation of standard rejection method.
 		boolean accepted = false;
 		int value = -1;
 		while(!accepted)
 		{
-			value = Math.abs(rng.nextInt()) % count; 
+			value = nextIndex();
 			if(rng.nextDouble() * maxWeight < weights[value])
 			{
 				accepted = true;
@@ -0,0 +1,92 @@
+package jstoch.random;
+
+/**
+ * Complete binary tree of partial sums over nonnegative weights indexed
+ * 0..capacity-1, stored in a flat double[] with the leaves in the second half.
+ * Setting a weight recomputes the sums on its path to the root from their
+ * children, so the total does not drift however many updates are made.
+ * Capacity doubles as needed.
+ */
+public class SumTree
+{
+	private int capacity;
+	private double[] tree;
+	
+	public SumTree(int capacity)
+	{
+		this.capacity = 1;
+		while(this.capacity < capacity)
+			this.capacity *= 2;
+		tree = new double[2 * this.capacity];
+	}
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public double getTotal()
+	{
+		return tree[1];
+	}
+	
+	public double get(int index)
+	{
+		return tree[capacity + index];
+	}
+	
+	public void set(int index, double weight)
+	{
+		assert(weight >= 0);
+		if(index >= capacity)
+			grow(index + 1);
+		
+		int node = capacity + index;
+		tree[node] = weight;
+		for(node /= 2; node >= 1; node /= 2)
+			tree[node] = tree[2 * node] + tree[2 * node + 1];
+	}
+	
+	/**
+	 * Finds the index whose cumulative weight range contains u.
+	 * Zero-weight leaves are never returned while the total is positive.
+	 * @param u A value in [0, getTotal()).
+	 * @return The index.
+	 */
+	public int find(double u)
+	{
+		int node = 1;
+		while(node < capacity)
+		{
+			int left = 2 * node;
+			if(u < tree[left] || tree[left + 1] == 0)
+			{
+				node = left;
+			}
+			else
+			{
+				u -= tree[left];
+				node = left + 1;
+			}
+		}
+		return node - capacity;
+	}
+	
+	/**
+	 * Doubles the capacity until it is at least minCapacity and rebuilds the sums.
+	 */
+	private void grow(int minCapacity)
+	{
+		int newCapacity = capacity;
+		while(newCapacity < minCapacity)
+			newCapacity *= 2;
+		
+		double[] newTree = new double[2 * newCapacity];
+		System.arraycopy(tree, capacity, newTree, newCapacity, capacity);
+		for(int node = newCapacity - 1; node >= 1; node--)
+			newTree[node] = newTree[2 * node] + newTree[2 * node + 1];
+		
+		capacity = newCapacity;
+		tree = newTree;
+	}
+}
@@ -0,0 +1,129 @@
+package jstoch.random.test;
+
+import java.util.*;
+
+import jstoch.random.*;
+import jstoch.random.DiscreteDistributionAdaptive.Backend;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import cern.jet.random.engine.*;
+
+public class TestDiscreteDistributionAdaptive
+{
+	RandomEngine rng;
+	DiscreteDistributionAdaptive<Integer> dist;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		rng = new MersenneTwister();
+		dist = new DiscreteDistributionAdaptive<Integer>(rng);
+		dist.setEvaluationSchedule(1000, 1000);
+	}
+	
+	@Test
+	public void emptyDist()
+	{
+		assertEquals(null, dist.nextValue());
+	}
+	
+	@Test
+	public void linearScan()
+	{
+		DiscreteDistributionLinear<Integer> linear = new DiscreteDistributionLinear<Integer>(rng);
+		for(int i = 0; i < 20; i++)
+			linear.update(i, i + 1);
+		linear.remove(0);
+		linear.remove(7);
+		linear.update(3, 10.0);
+		
+		assertEquals(18, linear.getSize());
+		assertEquals(0.0, linear.getWeight(7), 0.0);
+		assertEquals(10.0, linear.getWeight(3), 0.0);
+		assertEquals(210.0 - 1 - 8 - 4 + 10, linear.getTotalWeight(), 1e-12);
+		assertTrue(linear.verify(100000));
+	}
+	
+	@Test
+	public void smallStaysLinear()
+	{
+		for(int i = 0; i < 6; i++)
+			dist.update(i, i + 1.0);
+		for(int i = 0; i < 5000; i++)
+		{
+			dist.update(dist.nextValue(), rng.nextDouble());
+		}
+		assertEquals(Backend.Linear, dist.getBackend());
+	}
+	
+	@Test
+	public void drawHeavySkewedAvoidsRejection()
+	{
+		// No updates and weights spanning many orders of magnitude
+		for(int i = 0; i < 1000; i++)
+			dist.update(i, Math.pow(10, -6 * rng.nextDouble()));
+		for(int i = 0; i < 2000; i++)
+			dist.nextValue();
+		Backend backend = dist.getBackend();
+		assertTrue(backend.toString(), backend == Backend.BinaryTree || backend == Backend.RejectionPlus);
+	}
+	
+	@Test
+	public void updateHeavyMovesToRejection()
+	{
+		// Many updates per draw over similar weights
+		for(int i = 0; i < 1000; i++)
+			dist.update(i, 1.0 + rng.nextDouble());
+		for(int i = 0; i < 2000; i++)
+		{
+			dist.nextValue();
+			for(int j = 0; j < 20; j++)
+				dist.update((int)(rng.nextDouble() * 1000), 1.0 + rng.nextDouble());
+		}
+		assertEquals(Backend.Rejection, dist.getBackend());
+		
+		// And stays there
+		int migrationCount = dist.getMigrationCount();
+		for(int i = 0; i < 5000; i++)
+		{
+			dist.nextValue();
+			for(int j = 0; j < 20; j++)
+				dist.update((int)(rng.nextDouble() * 1000), 1.0 + rng.nextDouble());
+		}
+		assertEquals(migrationCount, dist.getMigrationCount());
+	}
+	
+	@Test
+	public void contentsSurviveMigration()
+	{
+		Map<Integer, Double> expected = new HashMap<Integer, Double>();
+		for(int i = 0; i < 100; i++)
+		{
+			double weight = 0.5 + rng.nextDouble();
+			dist.update(i, weight);
+			expected.put(i, weight);
+		}
+		dist.remove(50);
+		expected.remove(50);
+		
+		double total = 0;
+		for(double weight : expected.values())
+			total += weight;
+		
+		for(Backend backend : Backend.values())
+		{
+			dist.setBackend(backend);
+			assertEquals(backend, dist.getBackend());
+			assertEquals(expected, dist.getWeights());
+			assertEquals(total, dist.getTotalWeight(), 1e-9);
+			
+			// Removing and restoring a value keeps the total
+			dist.remove(10);
+			dist.update(10, expected.get(10));
+			assertEquals(total, dist.getTotalWeight(), 1e-9);
+			assertTrue(backend.toString(), dist.verify(100000));
+		}
+	}
+}
@@ -124,4 +124,81 @@ public class TestDiscreteDistributionBinaryTree
 			assertTrue(dist.verify(10000));
 		}
 	}
+	
+	@Test
+	public void batchUpdate()
+	{
+		for(int i = 0; i < 20; i++) weights.put(i, 1.0);
+		dist = new DiscreteDistributionBinaryTree<Integer>(weights, rng);
+		
+		HashMap<Integer, Double> batch = new HashMap<Integer, Double>();
+		batch.put(0, 0.0);
+		batch.put(3, 0.0);
+		batch.put(4, 5.0);
+		batch.put(7, 0.5);
+		batch.put(25, 2.0);
+		batch.put(26, 0.0);
+		dist.updateAll(batch);
+		
+		assertEquals(19, dist.getSize());
+		assertEquals(0.0, dist.getWeight(0), 0.0);
+		assertEquals(5.0, dist.getWeight(4), 0.0);
+		assertEquals(2.0, dist.getWeight(25), 0.0);
+		assertEquals(23.5, dist.getTotalWeight(), 1e-9);
+		assertTrue(dist.verify(1000000));
+	}
+	
+	@Test
+	public void stochasticBatchTest()
+	{
+		int size = 100;
+		
+		dist = new DiscreteDistributionBinaryTree<Integer>(weights, rng);
+		
+		for(int i = 0; i < 50; i++)
+		{
+			dist.update(i, rng.nextDouble());
+		}
+		
+		HashMap<Integer, Double> batch = new HashMap<Integer, Double>();
+		for(int i = 0; i < size; i++)
+		{
+			for(int j = 0; j < 10; j++)
+			{
+				int value = Math.abs(rng.nextInt()) % size;
+				batch.put(value, rng.nextDouble() < 0.4 ? 0.0 : rng.nextDouble());
+			}
+			dist.updateAll(batch);
+			batch.clear();
+			
+			double totalWeight = 0;
+			for(double weight : dist.getWeights().values()) totalWeight += weight;
+			assertEquals(totalWeight, dist.getTotalWeight(), 1e-9);
+			assertTrue(dist.verify(10000));
+		}
+	}
+	
+	@Test
+	public void arrayBuild()
+	{
+		Integer[] values = new Integer[13];
+		double[] arrayWeights = new double[13];
+		for(int i = 0; i < 13; i++)
+		{
+			values[i] = i;
+			arrayWeights[i] = (i % 4 == 0) ? 0.0 : i * 0.1;
+		}
+		dist = new DiscreteDistributionBinaryTree<Integer>(values, arrayWeights, rng);
+		
+		assertEquals(9, dist.getSize());
+		assertEquals(0.0, dist.getWeight(4), 0.0);
+		assertEquals(5.4, dist.getTotalWeight(), 1e-9);
+		assertTrue(dist.verify(1000000));
+		
+		// Later updates work as on a map-built tree
+		dist.update(4, 1.0);
+		dist.remove(1);
+		assertEquals(6.3, dist.getTotalWeight(), 1e-9);
+		assertTrue(dist.verify(1000000));
+	}
 }
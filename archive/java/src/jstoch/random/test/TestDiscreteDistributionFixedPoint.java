@@ -0,0 +1,105 @@
+package jstoch.random.test;
+
+import java.util.*;
+
+import jstoch.random.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import cern.jet.random.engine.*;
+
+public class TestDiscreteDistributionFixedPoint
+{
+	RandomEngine rng;
+	DiscreteDistributionFixedPoint<Integer> dist;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		rng = new MersenneTwister();
+		dist = new DiscreteDistributionFixedPoint<Integer>(rng);
+	}
+	
+	@Test
+	public void emptyDist()
+	{
+		assertEquals(null, dist.nextValue());
+		assertEquals(0.0, dist.getTotalWeight(), 0.0);
+	}
+	
+	@Test
+	public void updateAndRemove()
+	{
+		dist.update(1, 0.5);
+		dist.update(2, 0.25);
+		dist.update(3, 1.0);
+		dist.update(2, 0.75);
+		dist.remove(3);
+		
+		assertEquals(2, dist.getSize());
+		assertEquals(0.75, dist.getWeight(2), 0.0);
+		assertEquals(0.0, dist.getWeight(3), 0.0);
+		assertEquals(1.25, dist.getTotalWeight(), 0.0);
+	}
+	
+	@Test
+	public void arrayBuild()
+	{
+		Integer[] values = new Integer[] { 0, 1, 2, 3 };
+		double[] weights = new double[] { 1.0, 0.0, 2.0, 1.0 };
+		dist = new DiscreteDistributionFixedPoint<Integer>(values, weights, rng);
+		
+		assertEquals(3, dist.getSize());
+		assertEquals(4.0, dist.getTotalWeight(), 0.0);
+		
+		// Slots freed by the build are reused, and the tree grows when full
+		for(int i = 4; i < 40; i++)
+			dist.update(i, 1.0);
+		assertEquals(40.0, dist.getTotalWeight(), 0.0);
+		assertTrue(dist.verify(100000));
+	}
+	
+	@Test
+	public void smallWeightsKept()
+	{
+		// Tiny weights next to a huge one are neither lost nor rounded to zero
+		dist.update(0, 1e6);
+		dist.update(1, 0.001);
+		dist.update(2, 1e-12);
+		
+		assertEquals(0.001, dist.getWeight(1), 1e-9);
+		assertTrue(dist.getWeight(2) > 0.0);
+		
+		dist.remove(0);
+		assertEquals(dist.getWeight(1) + dist.getWeight(2), dist.getTotalWeight(), 0.0);
+	}
+	
+	@Test
+	public void noDrift()
+	{
+		// After many random updates the total equals the sum of the leaves exactly
+		Random random = new Random(3);
+		for(int i = 0; i < 200000; i++)
+		{
+			int value = random.nextInt(1000);
+			if(random.nextInt(10) == 0)
+				dist.remove(value);
+			else
+				dist.update(value, random.nextDouble() * Math.pow(10, random.nextInt(8) - 3));
+		}
+		
+		long units = 0;
+		for(double weight : dist.getWeights().values())
+			units += Math.round(weight * DiscreteDistributionFixedPoint.DEFAULT_SCALE);
+		assertEquals(units, dist.getTotalUnits());
+	}
+	
+	@Test
+	public void stochasticTest()
+	{
+		for(int i = 0; i < 50; i++)
+			dist.update(i, rng.nextDouble());
+		assertTrue(dist.verify(100000));
+	}
+}
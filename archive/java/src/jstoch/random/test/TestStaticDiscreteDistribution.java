@@ -60,7 +60,7 @@ public class TestStaticDiscreteDistribution
 		
 		int[] counts = new int[4];
 		
-		for(int i = 0; i < 100; i++)
+		for(int i = 0; i < 1000; i++)
 		{
 			counts[dist.nextInt()]++;
 		}
@@ -68,7 +68,7 @@ public class TestStaticDiscreteDistribution
 		for(int i = 0; i < 4; i++)
 		{
 			assertTrue("Count " + i + " not in expected range: " + counts[i],
-					counts[i] > 20 && counts[i] < 30);
+					counts[i] > 200 && counts[i] < 300);
 		}
 	}
 	
@@ -89,4 +89,63 @@ public class TestStaticDiscreteDistribution
 		assertTrue("counts[1] = " + counts[1], counts[1] > 160 && counts[1] < 240);
 		assertTrue("counts[2] = " + counts[2], counts[2] > 660 && counts[2] < 840);
 	}
+	
+	@Test
+	public void multipleDistRejection()
+	{
+		double[] weights = new double[] { 0.1, 0.2, 0.7 };
+		dist = new StaticDiscreteDistribution(weights, rng, StaticDiscreteDistribution.Method.Rejection);
+		
+		int[] counts = new int[3];
+		
+		for(int i = 0; i < 1000; i++)
+		{
+			counts[dist.nextInt()]++;
+		}
+		
+		assertTrue("counts[0] = " + counts[0], counts[0] > 80 && counts[0] < 120);
+		assertTrue("counts[1] = " + counts[1], counts[1] > 160 && counts[1] < 240);
+		assertTrue("counts[2] = " + counts[2], counts[2] > 660 && counts[2] < 840);
+	}
+	
+	@Test
+	public void multipleDistSkewed()
+	{
+		// One heavy value and many light ones, as in a dispersal kernel
+		int n = 10000;
+		double[] weights = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			weights[i] = 1.0 / (1 + i) / (1 + i);
+		}
+		dist = new StaticDiscreteDistribution(weights, rng);
+		
+		double sum = 0;
+		for(double weight : weights)
+		{
+			sum += weight;
+		}
+		
+		int draws = 1000000;
+		int[] counts = new int[n];
+		for(int i = 0; i < draws; i++)
+		{
+			counts[dist.nextInt()]++;
+		}
+		
+		for(int i = 0; i < 4; i++)
+		{
+			double expected = draws * weights[i] / sum;
+			assertEquals("counts[" + i + "]", expected, counts[i], 5 * Math.sqrt(expected));
+		}
+		
+		int tail = 0;
+		double expectedTail = 0;
+		for(int i = 100; i < n; i++)
+		{
+			tail += counts[i];
+			expectedTail += draws * weights[i] / sum;
+		}
+		assertEquals("tail", expectedTail, tail, 5 * Math.sqrt(expectedTail));
+	}
 }
@@ -0,0 +1,71 @@
+package jstoch.random.test;
+
+import java.util.*;
+
+import jstoch.random.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestSumTree
+{
+	@Test
+	public void setAndTotal()
+	{
+		SumTree tree = new SumTree(5);
+		assertEquals(8, tree.getCapacity());
+		
+		tree.set(0, 1.0);
+		tree.set(3, 2.5);
+		tree.set(4, 0.5);
+		assertEquals(4.0, tree.getTotal(), 0.0);
+		
+		tree.set(3, 0.0);
+		assertEquals(1.5, tree.getTotal(), 0.0);
+		assertEquals(0.5, tree.get(4), 0.0);
+	}
+	
+	@Test
+	public void find()
+	{
+		SumTree tree = new SumTree(4);
+		tree.set(0, 1.0);
+		tree.set(2, 2.0);
+		tree.set(3, 1.0);
+		
+		assertEquals(0, tree.find(0.0));
+		assertEquals(0, tree.find(0.99));
+		assertEquals(2, tree.find(1.0));
+		assertEquals(2, tree.find(2.99));
+		assertEquals(3, tree.find(3.0));
+		
+		// Rounding past the total never lands on a zero leaf
+		assertEquals(3, tree.find(4.0));
+	}
+	
+	@Test
+	public void grow()
+	{
+		SumTree tree = new SumTree(2);
+		tree.set(0, 1.0);
+		tree.set(1, 2.0);
+		tree.set(9, 4.0);
+		
+		assertEquals(16, tree.getCapacity());
+		assertEquals(7.0, tree.getTotal(), 0.0);
+		assertEquals(2.0, tree.get(1), 0.0);
+		assertEquals(9, tree.find(3.5));
+	}
+	
+	@Test
+	public void noDrift()
+	{
+		Random random = new Random(7);
+		SumTree tree = new SumTree(100);
+		for(int i = 0; i < 100000; i++)
+			tree.set(random.nextInt(100), random.nextDouble() * 1e6);
+		for(int i = 0; i < 100; i++)
+			tree.set(i, 0.125);
+		assertEquals(12.5, tree.getTotal(), 0.0);
+	}
+}
@@ -0,0 +1,106 @@
+package jstoch.random.test;
+
+import java.util.*;
+
+import jstoch.random.Xoroshiro128PlusPlus;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for Xoroshiro128PlusPlus class.
+ */
+public class TestXoroshiro128PlusPlus
+{
+	@Test
+	public void referenceOutput()
+	{
+		// Values from the reference C implementation
+		Xoroshiro128PlusPlus rng = new Xoroshiro128PlusPlus(1L, 2L);
+		assertEquals(393217L, rng.nextLong());
+		assertEquals(669327710093319L, rng.nextLong());
+		assertEquals(1732421326133921491L, rng.nextLong());
+		
+		rng.jump();
+		assertEquals(1634122034616564957L, rng.nextLong());
+		assertEquals(1545814713924780798L, rng.nextLong());
+	}
+	
+	@Test
+	public void seedReproducible()
+	{
+		Xoroshiro128PlusPlus a = new Xoroshiro128PlusPlus(42);
+		Xoroshiro128PlusPlus b = new Xoroshiro128PlusPlus(42);
+		for(int i = 0; i < 100; i++)
+			assertEquals(a.nextLong(), b.nextLong());
+	}
+	
+	@Test
+	public void split()
+	{
+		Xoroshiro128PlusPlus parent = new Xoroshiro128PlusPlus(7);
+		Xoroshiro128PlusPlus copy = new Xoroshiro128PlusPlus(7);
+		
+		// The child continues the parent's sequence; the parent jumps ahead
+		Xoroshiro128PlusPlus child = parent.split();
+		long first = copy.nextLong();
+		assertEquals(first, child.nextLong());
+		
+		copy = new Xoroshiro128PlusPlus(7);
+		copy.jump();
+		assertEquals(copy.nextLong(), parent.nextLong());
+	}
+	
+	@Test
+	public void substream()
+	{
+		Xoroshiro128PlusPlus rng = new Xoroshiro128PlusPlus(11);
+		long expected = rng.substream(3).nextLong();
+		
+		// Substreams do not depend on the parent's position
+		for(int i = 0; i < 10; i++)
+			rng.nextLong();
+		assertEquals(expected, rng.substream(3).nextLong());
+		
+		Set<Long> firsts = new HashSet<Long>();
+		for(int i = 0; i < 1000; i++)
+			firsts.add(rng.substream(i).nextLong());
+		assertEquals(1000, firsts.size());
+		
+		assertFalse(rng.substream(1).substream(2).nextLong() == rng.substream(2).substream(1).nextLong());
+	}
+	
+	@Test
+	public void variates()
+	{
+		Xoroshiro128PlusPlus rng = new Xoroshiro128PlusPlus(5);
+		int n = 200000;
+		
+		double uniformSum = 0;
+		double expSum = 0;
+		double normalSum = 0;
+		double normalSqSum = 0;
+		int[] counts = new int[7];
+		for(int i = 0; i < n; i++)
+		{
+			double u = rng.raw();
+			assertTrue(u > 0 && u < 1);
+			uniformSum += u;
+			
+			expSum += rng.nextExponential(2.0);
+			
+			double z = rng.nextNormal(1.0, 3.0);
+			normalSum += z;
+			normalSqSum += (z - 1.0) * (z - 1.0);
+			
+			counts[rng.nextInt(7)]++;
+		}
+		
+		assertEquals(0.5, uniformSum / n, 0.005);
+		assertEquals(0.5, expSum / n, 0.005);
+		assertEquals(1.0, normalSum / n, 0.03);
+		assertEquals(9.0, normalSqSum / n, 0.1);
+		for(int count : counts)
+			assertEquals(n / 7.0, count, 5 * Math.sqrt(n / 7.0));
+	}
+}
@@ -0,0 +1,201 @@
+package jstoch.space;
+
+import java.util.*;
+
+/**
+ * A lattice whose cells are stored in square tiles that are only allocated
+ * when first accessed. A new tile is filled by a factory, so untouched parts
+ * of the lattice behave as if uniformly filled with default objects while
+ * costing no memory. Memory use is proportional to the area actually visited.
+ */
+public class ChunkedLattice<T> extends Lattice<T>
+{
+	public static final int DEFAULT_TILE_SIZE = 64;
+	
+	/**
+	 * Creates the object for a cell when its tile is allocated.
+	 */
+	public interface Factory<T>
+	{
+		public T create(int row, int col);
+	}
+	
+	private int tileSize;
+	private Factory<T> factory;
+	
+	// Tiles keyed by (tile row << 32 | tile col), each tileSize*tileSize cells,
+	// clipped at the lattice edges; tileList keeps allocation order
+	private Map<Long, Object[]> tiles = new HashMap<Long, Object[]>();
+	private List<Object[]> tileList = new ArrayList<Object[]>();
+	
+	// Most recently used tile, since accesses are strongly clustered
+	private long lastKey = -1;
+	private Object[] lastTile;
+	
+	public ChunkedLattice(int numRows, int numCols, BoundaryCondition boundaryCondition,
+			NeighborhoodType neighborhoodType, Factory<T> factory)
+	{
+		this(numRows, numCols, boundaryCondition, neighborhoodType, DEFAULT_TILE_SIZE, factory);
+	}
+	
+	public ChunkedLattice(int numRows, int numCols, BoundaryCondition boundaryCondition,
+			NeighborhoodType neighborhoodType, int tileSize, Factory<T> factory)
+	{
+		super(numRows, numCols, boundaryCondition, neighborhoodType, false);
+		if(tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be positive.");
+		this.tileSize = tileSize;
+		this.factory = factory;
+	}
+	
+	@Override
+	public void put(T obj, int row, int col)
+	{
+		if(row < numRows && row >= 0 && col < numCols && col >= 0)
+		{
+			tile(row, col, true)[cellIndex(row, col)] = obj;
+		}
+		else
+		{
+			throw new IllegalArgumentException("Invalid cell " + row + ", " + col + ".");
+		}
+	}
+	
+	/**
+	 * Returns the object at a cell, allocating its tile if necessary.
+	 */
+	@Override
+	public T get(int row, int col)
+	{
+		return get(row, col, true);
+	}
+	
+	/**
+	 * Returns the object at a cell, or null if its tile has not been allocated.
+	 */
+	@Override
+	public T peek(int row, int col)
+	{
+		return get(row, col, false);
+	}
+	
+	/**
+	 * @return Objects in all allocated tiles, tile by tile in allocation order,
+	 * and in row-major order within each tile.
+	 */
+	@Override
+	public Iterable<T> sites()
+	{
+		return new Iterable<T>()
+		{
+			@SuppressWarnings("unchecked")
+			public Iterator<T> iterator()
+			{
+				return new Iterator<T>()
+				{
+					int tileIndex = 0;
+					int index = 0;
+					
+					public boolean hasNext()
+					{
+						return tileIndex < tileList.size();
+					}
+					
+					public T next()
+					{
+						if(!hasNext())
+							throw new NoSuchElementException();
+						Object[] tile = tileList.get(tileIndex);
+						T obj = (T)tile[index];
+						index++;
+						if(index == tile.length)
+						{
+							tileIndex++;
+							index = 0;
+						}
+						return obj;
+					}
+				};
+			}
+		};
+	}
+	
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+	
+	public int getTileCount()
+	{
+		return tileList.size();
+	}
+	
+	public boolean isAllocated(int row, int col)
+	{
+		return tiles.containsKey(tileKey(posMod(row, numRows), posMod(col, numCols)));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T get(int row, int col, boolean allocate)
+	{
+		if(row < 0 || row >= numRows || col < 0 || col >= numCols)
+		{
+			switch(getBoundaryCondition())
+			{
+				case Periodic:
+					row = posMod(row, numRows);
+					col = posMod(col, numCols);
+					break;
+				default:
+					return null;
+			}
+		}
+		
+		Object[] tile = tile(row, col, allocate);
+		if(tile == null)
+			return null;
+		return (T)tile[cellIndex(row, col)];
+	}
+	
+	private Object[] tile(int row, int col, boolean allocate)
+	{
+		long key = tileKey(row, col);
+		if(key == lastKey)
+			return lastTile;
+		
+		Object[] tile = tiles.get(key);
+		if(tile == null)
+		{
+			if(!allocate)
+				return null;
+			tile = newTile(row - row % tileSize, col - col % tileSize);
+			tiles.put(key, tile);
+			tileList.add(tile);
+		}
+		lastKey = key;
+		lastTile = tile;
+		return tile;
+	}
+	
+	private Object[] newTile(int row0, int col0)
+	{
+		int rows = Math.min(tileSize, numRows - row0);
+		int cols = Math.min(tileSize, numCols - col0);
+		Object[] tile = new Object[rows * cols];
+		for(int i = 0; i < rows; i++)
+			for(int j = 0; j < cols; j++)
+				tile[i * cols + j] = factory.create(row0 + i, col0 + j);
+		return tile;
+	}
+	
+	private long tileKey(int row, int col)
+	{
+		return ((long)(row / tileSize) << 32) | (col / tileSize);
+	}
+	
+	private int cellIndex(int row, int col)
+	{
+		int cols = Math.min(tileSize, numCols - (col - col % tileSize));
+		return (row % tileSize) * cols + col % tileSize;
+	}
+}
@@ -49,10 +49,21 @@ public class Lattice<T> implements Space<T>
 	
 	public Lattice(int numRows, int numCols, BoundaryCondition boundaryCondition,
 			NeighborhoodType neighborhoodType)
+	{
+		this(numRows, numCols, boundaryCondition, neighborhoodType, true);
+	}
+	
+	/**
+	 * For subclasses with their own storage: if allocate == false,
+	 * the sites array is left null.
+	 */
+	protected Lattice(int numRows, int numCols, BoundaryCondition boundaryCondition,
+			NeighborhoodType neighborhoodType, boolean allocate)
 	{
 		this.numRows = numRows;
 		this.numCols = numCols;
-		sites = new Object[numRows][numCols];
+		if(allocate)
+			sites = new Object[numRows][numCols];
 		this.boundaryCondition = boundaryCondition;
 		this.neighborhoodType = neighborhoodType; 
 	}
@@ -79,6 +90,20 @@ public class Lattice<T> implements Space<T>
 		return neighborList;
 	}
 	
+	/**
+	 * Returns the sites that have (row, col) as a neighbor. These differ from
+	 * the neighbors when the neighborhood is not symmetric.
+	 */
+	public List<T> getReverseNeighbors(int row, int col)
+	{
+		List<T> neighborList = new ArrayList<T>(neighborhoodType.size());
+		for(int[] neighborOffset : neighborhoodType.neighborOffsets())
+		{
+			neighborList.add(get(row - neighborOffset[0], col - neighborOffset[1]));
+		}
+		return neighborList;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public T get(int row, int col)
 	{
@@ -96,6 +121,47 @@ public class Lattice<T> implements Space<T>
 		}
 	}
 	
+	/**
+	 * Like get(), but never creates anything: returns null for cells
+	 * that hold nothing yet.
+	 */
+	public T peek(int row, int col)
+	{
+		return get(row, col);
+	}
+	
+	/**
+	 * @return All stored objects, in row-major order.
+	 */
+	public Iterable<T> sites()
+	{
+		return new Iterable<T>()
+		{
+			@SuppressWarnings("unchecked")
+			public Iterator<T> iterator()
+			{
+				return new Iterator<T>()
+				{
+					int index = 0;
+					
+					public boolean hasNext()
+					{
+						return index < numRows * numCols;
+					}
+					
+					public T next()
+					{
+						if(!hasNext())
+							throw new NoSuchElementException();
+						T obj = (T)sites[index / numCols][index % numCols];
+						index++;
+						return obj;
+					}
+				};
+			}
+		};
+	}
+	
 	public int getNumRows()
 	{
 		return numRows;
@@ -116,7 +182,7 @@ public class Lattice<T> implements Space<T>
 		return boundaryCondition;
 	}
 	
-	private static int posMod(int val, int base)
+	protected static int posMod(int val, int base)
 	{
 		int mod = val % base;
 		while(mod < 0)
@@ -0,0 +1,238 @@
+package jstoch.space;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * A periodic lattice of integer states and double values (e.g. beta) stored
+ * off-heap in a memory-mapped file, one fixed-width record per site.
+ * The OS pages in only the parts of the file that are touched, and other
+ * processes can map the same file read-only (open()) to look at the lattice
+ * while a run is writing it.
+ *
+ * File layout, big-endian: a HEADER_SIZE-byte header
+ * (long MAGIC, int VERSION, int numRows, int numCols, int RECORD_SIZE,
+ * double time, int finished), then numRows * numCols records in row-major
+ * order, each an int state followed by a double value.
+ *
+ * Readers see writes as they happen, without any locking, so a snapshot
+ * taken during a run may mix sites from slightly different times.
+ */
+public class MappedStateLattice implements Space<Integer>, Closeable
+{
+	public static final long MAGIC = 0x4a53544f43484d4cL; // "JSTOCHML"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int RECORD_SIZE = 12;
+	
+	private static final int TIME_OFFSET = 24;
+	private static final int FINISHED_OFFSET = 32;
+	
+	// Upper bound on the size of a single mapping
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+	
+	private int numRows;
+	private int numCols;
+	private boolean readOnly;
+	
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	
+	// Rows are split into chunks of rowsPerChunk rows, each mapped separately
+	private int rowsPerChunk;
+	private MappedByteBuffer[] chunks;
+	
+	private MappedStateLattice(FileChannel channel, int numRows, int numCols, boolean readOnly) throws IOException
+	{
+		if(numRows <= 0 || numCols <= 0 || (long)numCols * RECORD_SIZE > MAX_CHUNK_BYTES)
+			throw new IllegalArgumentException("Invalid lattice size " + numRows + " x " + numCols + ".");
+		
+		this.channel = channel;
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.readOnly = readOnly;
+		
+		FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+		header = channel.map(mode, 0, HEADER_SIZE);
+		
+		long rowBytes = (long)numCols * RECORD_SIZE;
+		rowsPerChunk = (int)Math.min(numRows, MAX_CHUNK_BYTES / rowBytes);
+		chunks = new MappedByteBuffer[(numRows + rowsPerChunk - 1) / rowsPerChunk];
+		for(int i = 0; i < chunks.length; i++)
+		{
+			int chunkRows = Math.min(rowsPerChunk, numRows - i * rowsPerChunk);
+			chunks[i] = channel.map(mode, HEADER_SIZE + i * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+		}
+	}
+	
+	/**
+	 * Creates (or truncates) a lattice file. All sites start in state 0 with value 0.
+	 */
+	public static MappedStateLattice create(Path path, int numRows, int numCols) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			MappedStateLattice lattice = new MappedStateLattice(channel, numRows, numCols, false);
+			lattice.header.putLong(0, MAGIC);
+			lattice.header.putInt(8, VERSION);
+			lattice.header.putInt(12, numRows);
+			lattice.header.putInt(16, numCols);
+			lattice.header.putInt(20, RECORD_SIZE);
+			lattice.header.putDouble(TIME_OFFSET, 0.0);
+			lattice.header.putInt(FINISHED_OFFSET, 0);
+			return lattice;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Maps an existing lattice file read-only, e.g. one still being written by a run.
+	 */
+	public static MappedStateLattice open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+			buffer.flip();
+			if(buffer.remaining() < HEADER_SIZE || buffer.getLong(0) != MAGIC)
+				throw new IOException("Not a lattice state file: " + path);
+			if(buffer.getInt(8) != VERSION || buffer.getInt(20) != RECORD_SIZE)
+				throw new IOException("Unsupported lattice state file version: " + path);
+			
+			return new MappedStateLattice(channel, buffer.getInt(12), buffer.getInt(16), true);
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	public int getNumRows()
+	{
+		return numRows;
+	}
+	
+	public int getNumCols()
+	{
+		return numCols;
+	}
+	
+	public boolean isReadOnly()
+	{
+		return readOnly;
+	}
+	
+	public int getState(int row, int col)
+	{
+		row = posMod(row, numRows);
+		col = posMod(col, numCols);
+		return chunk(row).getInt(offset(row, col));
+	}
+	
+	public double getValue(int row, int col)
+	{
+		row = posMod(row, numRows);
+		col = posMod(col, numCols);
+		return chunk(row).getDouble(offset(row, col) + 4);
+	}
+	
+	public void setState(int row, int col, int state)
+	{
+		int offset = offset(row, col);
+		chunk(row).putInt(offset, state);
+	}
+	
+	public void setValue(int row, int col, double value)
+	{
+		int offset = offset(row, col);
+		chunk(row).putDouble(offset + 4, value);
+	}
+	
+	public void set(int row, int col, int state, double value)
+	{
+		int offset = offset(row, col);
+		MappedByteBuffer chunk = chunk(row);
+		chunk.putInt(offset, state);
+		chunk.putDouble(offset + 4, value);
+	}
+	
+	/**
+	 * @return The time of the most recent write, as recorded by setTime().
+	 */
+	public double getTime()
+	{
+		return header.getDouble(TIME_OFFSET);
+	}
+	
+	public void setTime(double time)
+	{
+		header.putDouble(TIME_OFFSET, time);
+	}
+	
+	/**
+	 * @return Whether the writer has marked the lattice as final.
+	 */
+	public boolean isFinished()
+	{
+		return header.getInt(FINISHED_OFFSET) != 0;
+	}
+	
+	/**
+	 * Marks the lattice as final and flushes it to the file.
+	 */
+	public void finish()
+	{
+		header.putInt(FINISHED_OFFSET, 1);
+		force();
+	}
+	
+	/**
+	 * Flushes all changes to the file.
+	 */
+	public void force()
+	{
+		if(readOnly) return;
+		for(MappedByteBuffer chunk : chunks)
+			chunk.force();
+		header.force();
+	}
+	
+	/**
+	 * Closes the file. The mappings stay valid until garbage-collected,
+	 * but should not be used any more.
+	 */
+	public void close() throws IOException
+	{
+		force();
+		channel.close();
+	}
+	
+	private MappedByteBuffer chunk(int row)
+	{
+		return chunks[row / rowsPerChunk];
+	}
+	
+	private int offset(int row, int col)
+	{
+		if(row < 0 || row >= numRows || col < 0 || col >= numCols)
+			throw new IllegalArgumentException("Invalid cell " + row + ", " + col + ".");
+		return ((row % rowsPerChunk) * numCols + col) * RECORD_SIZE;
+	}
+	
+	private static int posMod(int val, int base)
+	{
+		int mod = val % base;
+		return mod < 0 ? mod + base : mod;
+	}
+}
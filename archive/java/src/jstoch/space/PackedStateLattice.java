@@ -0,0 +1,238 @@
+package jstoch.space;
+
+import java.util.*;
+
+/**
+ * A periodic lattice of states 0-3, packed 2 bits per site into long[] rows
+ * (32 sites per word). Besides single-site access, it supports whole-row
+ * operations on 32 sites at a time ("multi-spin coding"): state counts with
+ * popcounts, and neighbor counts kept as bit-sliced counters.
+ *
+ * In row masks and counter planes, site col occupies the low bit of lane
+ * col % 32 in word col / 32; the high bit of each lane is always zero.
+ *
+ * Row operations share scratch arrays, so an instance should only be used
+ * from one thread at a time.
+ */
+public class PackedStateLattice
+{
+	public static final int SITES_PER_WORD = 32;
+	
+	// Number of counter planes; counts up to 15 neighbors
+	public static final int NUM_PLANES = 4;
+	
+	private static final long LOW_BITS = 0x5555555555555555L;
+	
+	private int numRows;
+	private int numCols;
+	private int wordsPerRow;
+	private long[][] rows;
+	
+	// Low bits of all valid lanes in the last word of each row
+	private long lastWordLanes;
+	
+	private long[] match;
+	private long[] shifted;
+	
+	public PackedStateLattice(int numRows, int numCols)
+	{
+		this.numRows = numRows;
+		this.numCols = numCols;
+		wordsPerRow = (numCols + SITES_PER_WORD - 1) / SITES_PER_WORD;
+		rows = new long[numRows][wordsPerRow];
+		
+		int lastLanes = numCols - (wordsPerRow - 1) * SITES_PER_WORD;
+		lastWordLanes = lastLanes == SITES_PER_WORD ? LOW_BITS : LOW_BITS & ((1L << (2 * lastLanes)) - 1);
+		
+		match = new long[wordsPerRow];
+		shifted = new long[wordsPerRow];
+	}
+	
+	public int getNumRows()
+	{
+		return numRows;
+	}
+	
+	public int getNumCols()
+	{
+		return numCols;
+	}
+	
+	public int getWordsPerRow()
+	{
+		return wordsPerRow;
+	}
+	
+	/**
+	 * @return The packed words of a row, for direct reading.
+	 */
+	public long[] getRow(int row)
+	{
+		return rows[row];
+	}
+	
+	public int get(int row, int col)
+	{
+		row = posMod(row, numRows);
+		col = posMod(col, numCols);
+		return (int)(rows[row][col >>> 5] >>> ((col & 31) << 1)) & 3;
+	}
+	
+	public void set(int row, int col, int state)
+	{
+		if(state < 0 || state > 3)
+			throw new IllegalArgumentException("Invalid state " + state + ".");
+		
+		row = posMod(row, numRows);
+		col = posMod(col, numCols);
+		int shift = (col & 31) << 1;
+		long[] words = rows[row];
+		words[col >>> 5] = (words[col >>> 5] & ~(3L << shift)) | ((long)state << shift);
+	}
+	
+	/**
+	 * Unpacks the states of a whole row, one per byte.
+	 * @param out At least getNumCols() bytes, overwritten.
+	 * @param offset Index in out of the row's first site.
+	 */
+	public void readRow(int row, byte[] out, int offset)
+	{
+		long[] words = rows[posMod(row, numRows)];
+		for(int word = 0; word < wordsPerRow; word++)
+		{
+			long bits = words[word];
+			int end = Math.min(numCols, (word + 1) * SITES_PER_WORD);
+			for(int col = word * SITES_PER_WORD; col < end; col++)
+			{
+				out[offset + col] = (byte)(bits & 3);
+				bits >>>= 2;
+			}
+		}
+	}
+	
+	public void fill(int state)
+	{
+		for(int row = 0; row < numRows; row++)
+			for(int col = 0; col < numCols; col++)
+				set(row, col, state);
+	}
+	
+	/**
+	 * @return The number of sites in the given state.
+	 */
+	public long count(int state)
+	{
+		long count = 0;
+		for(int row = 0; row < numRows; row++)
+		{
+			matchRow(row, state, match);
+			for(long word : match)
+				count += Long.bitCount(word);
+		}
+		return count;
+	}
+	
+	/**
+	 * Sets the low bit of each lane in out where the site in the given row is in the given state.
+	 */
+	public void matchRow(int row, int state, long[] out)
+	{
+		long pattern = state * LOW_BITS;
+		long[] words = rows[row];
+		for(int w = 0; w < wordsPerRow; w++)
+		{
+			long x = words[w] ^ pattern;
+			out[w] = ~(x | (x >>> 1)) & LOW_BITS;
+		}
+		out[wordsPerRow - 1] &= lastWordLanes;
+	}
+	
+	/**
+	 * Counts, for every site in a row, the neighbors in the given state.
+	 * Counts are returned bit-sliced: bit k of a site's count is in planes[k].
+	 * @param offsets Neighbor offsets {row, col}; column offsets must be -1, 0 or 1.
+	 * @param planes NUM_PLANES arrays of getWordsPerRow() words, overwritten.
+	 */
+	public void neighborCounts(int row, int state, int[][] offsets, long[][] planes)
+	{
+		for(long[] plane : planes)
+			Arrays.fill(plane, 0);
+		
+		for(int[] offset : offsets)
+		{
+			matchRow(posMod(row + offset[0], numRows), state, match);
+			shiftRow(match, offset[1], shifted);
+			
+			// Ripple-carry add of one bit per lane into the counters
+			for(int w = 0; w < wordsPerRow; w++)
+			{
+				long carry = shifted[w];
+				for(int k = 0; k < NUM_PLANES && carry != 0; k++)
+				{
+					long next = planes[k][w] & carry;
+					planes[k][w] ^= carry;
+					carry = next;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The count for one column from planes filled by neighborCounts().
+	 */
+	public static int countAt(long[][] planes, int col)
+	{
+		int shift = (col & 31) << 1;
+		int count = 0;
+		for(int k = 0; k < planes.length; k++)
+			count |= (int)((planes[k][col >>> 5] >>> shift) & 1) << k;
+		return count;
+	}
+	
+	/**
+	 * Counts the neighbors of a single site in the given state.
+	 */
+	public int countNeighbors(int row, int col, int state, int[][] offsets)
+	{
+		int count = 0;
+		for(int[] offset : offsets)
+			if(get(row + offset[0], col + offset[1]) == state)
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Shifts a row mask so that each lane holds the lane dc columns to its right,
+	 * wrapping around the row.
+	 */
+	private void shiftRow(long[] in, int dc, long[] out)
+	{
+		int last = wordsPerRow - 1;
+		int lastLane = ((numCols - 1) & 31) << 1;
+		switch(dc)
+		{
+			case 0:
+				System.arraycopy(in, 0, out, 0, wordsPerRow);
+				break;
+			case 1:
+				for(int w = 0; w < wordsPerRow; w++)
+					out[w] = (in[w] >>> 2) | (w < last ? in[w + 1] << 62 : 0);
+				out[last] |= (in[0] & 1L) << lastLane;
+				break;
+			case -1:
+				for(int w = 0; w < wordsPerRow; w++)
+					out[w] = (in[w] << 2) | (w > 0 ? in[w - 1] >>> 62 : 0);
+				out[last] &= lastWordLanes;
+				out[0] |= (in[last] >>> lastLane) & 1L;
+				break;
+			default:
+				throw new IllegalArgumentException("Column offsets must be -1, 0 or 1.");
+		}
+	}
+	
+	private static int posMod(int val, int base)
+	{
+		int mod = val % base;
+		return mod < 0 ? mod + base : mod;
+	}
+}
@@ -0,0 +1,490 @@
+package jstoch.space;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A time series of full lattice snapshots (frames), each giving every
+ * site's state (0-3, 2 bits) and value (a float, e.g. beta; NaN where
+ * undefined), stored as a cube of time x row x col chunks. Frames are
+ * grouped into blocks of tileFrames frames, and each block is split into
+ * tiles of tileSize x tileSize sites; each tile of each block is a chunk,
+ * compressed on its own. Reading one frame decompresses the chunks of one
+ * block; reading one site's history decompresses one chunk per block.
+ *
+ * Within a chunk, sites are ordered by frame, then row, then column.
+ * States are packed 4 per byte, lowest bits first. Values are stored as
+ * little-endian floats split into byte planes (all first bytes, then all
+ * second bytes, ...), which compresses much better than whole floats.
+ * Both are deflate-compressed.
+ *
+ * File layout, little-endian: a 64-byte header (long MAGIC, int VERSION,
+ * int numRows, int numCols, int tileSize, int tileFrames), then blocks,
+ * each: int frameCount, int 0, long blockLength (including this header),
+ * frameCount double times, and for each tile in row-major order an int
+ * compressed state length and an int compressed value length; then the
+ * chunk data, state then values for each tile in the same order.
+ *
+ * The writer buffers one block of frames in memory and writes it when it
+ * is full, and a partial block on close, so a reader opened during a run
+ * sees all complete blocks written so far.
+ */
+public class SnapshotCube implements Closeable
+{
+	public static final long MAGIC = 0x4a53544f43485343L; // "JSTOCHSC"
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 64;
+	
+	private int numRows;
+	private int numCols;
+	private int tileSize;
+	private int tileFrames;
+	private int tileRows;
+	private int tileCols;
+	private boolean readOnly;
+	
+	private FileChannel channel;
+	
+	// Writer: frames of the block being filled
+	private int bufferedFrames;
+	private double[] bufferedTimes;
+	private byte[][] bufferedStates;
+	private float[][] bufferedValues;
+	private long writePosition;
+	
+	// Reader: blocks found when the file was opened
+	private List<Block> blocks;
+	private int frameCount;
+	
+	private static class Block
+	{
+		int firstFrame;
+		double[] times;
+		long[] stateOffsets;
+		int[] stateLengths;
+		long[] valueOffsets;
+		int[] valueLengths;
+	}
+	
+	private SnapshotCube(FileChannel channel, int numRows, int numCols, int tileSize, int tileFrames,
+			boolean readOnly)
+	{
+		if(numRows <= 0 || numCols <= 0 || tileSize <= 0 || tileFrames <= 0)
+			throw new IllegalArgumentException("Invalid cube dimensions.");
+		
+		this.channel = channel;
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.tileSize = tileSize;
+		this.tileFrames = tileFrames;
+		this.readOnly = readOnly;
+		tileRows = (numRows + tileSize - 1) / tileSize;
+		tileCols = (numCols + tileSize - 1) / tileSize;
+	}
+	
+	/**
+	 * Creates (or truncates) a cube file with no frames.
+	 */
+	public static SnapshotCube create(Path path, int numRows, int numCols, int tileSize, int tileFrames)
+			throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			SnapshotCube cube = new SnapshotCube(channel, numRows, numCols, tileSize, tileFrames, false);
+			cube.bufferedTimes = new double[tileFrames];
+			cube.bufferedStates = new byte[tileFrames][];
+			cube.bufferedValues = new float[tileFrames][];
+			
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putLong(0, MAGIC);
+			header.putInt(8, VERSION);
+			header.putInt(12, numRows);
+			header.putInt(16, numCols);
+			header.putInt(20, tileSize);
+			header.putInt(24, tileFrames);
+			writeFully(channel, header, 0);
+			cube.writePosition = HEADER_SIZE;
+			return cube;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Opens an existing cube file for reading. Blocks written after opening are not seen.
+	 */
+	public static SnapshotCube open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+			if(header == null || header.getLong(0) != MAGIC)
+				throw new IOException("Not a snapshot cube file: " + path);
+			if(header.getInt(8) != VERSION)
+				throw new IOException("Unsupported snapshot cube file version: " + path);
+			
+			SnapshotCube cube = new SnapshotCube(channel, header.getInt(12), header.getInt(16),
+					header.getInt(20), header.getInt(24), true);
+			cube.readBlocks();
+			return cube;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private int getTileCount()
+	{
+		return tileRows * tileCols;
+	}
+	
+	private int getBlockHeaderSize(int frames)
+	{
+		return 16 + 8 * frames + 8 * getTileCount();
+	}
+	
+	private void readBlocks() throws IOException
+	{
+		blocks = new ArrayList<Block>();
+		frameCount = 0;
+		long position = HEADER_SIZE;
+		long size = channel.size();
+		while(position + 16 <= size)
+		{
+			ByteBuffer start = readFully(channel, position, 16);
+			int frames = start.getInt(0);
+			long blockLength = start.getLong(8);
+			if(frames <= 0 || frames > tileFrames || position + blockLength > size)
+				break;
+			
+			ByteBuffer header = readFully(channel, position, getBlockHeaderSize(frames));
+			Block block = new Block();
+			block.firstFrame = frameCount;
+			block.times = new double[frames];
+			for(int i = 0; i < frames; i++)
+				block.times[i] = header.getDouble(16 + 8 * i);
+			
+			int numTiles = getTileCount();
+			block.stateOffsets = new long[numTiles];
+			block.stateLengths = new int[numTiles];
+			block.valueOffsets = new long[numTiles];
+			block.valueLengths = new int[numTiles];
+			long offset = position + getBlockHeaderSize(frames);
+			for(int tile = 0; tile < numTiles; tile++)
+			{
+				block.stateLengths[tile] = header.getInt(16 + 8 * frames + 8 * tile);
+				block.valueLengths[tile] = header.getInt(16 + 8 * frames + 8 * tile + 4);
+				block.stateOffsets[tile] = offset;
+				offset += block.stateLengths[tile];
+				block.valueOffsets[tile] = offset;
+				offset += block.valueLengths[tile];
+			}
+			
+			blocks.add(block);
+			frameCount += frames;
+			position += blockLength;
+		}
+	}
+	
+	public int getNumRows()
+	{
+		return numRows;
+	}
+	
+	public int getNumCols()
+	{
+		return numCols;
+	}
+	
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+	
+	public int getTileFrames()
+	{
+		return tileFrames;
+	}
+	
+	/**
+	 * @return The number of frames, including any still buffered by a writer.
+	 */
+	public int getFrameCount()
+	{
+		return readOnly ? frameCount : frameCount + bufferedFrames;
+	}
+	
+	public double getTime(int frame)
+	{
+		Block block = getBlock(frame);
+		return block.times[frame - block.firstFrame];
+	}
+	
+	/**
+	 * Adds a frame; the arrays are copied.
+	 * @param states Site states in row-major order, each 0-3.
+	 * @param values Site values in row-major order.
+	 */
+	public void addFrame(double time, byte[] states, float[] values) throws IOException
+	{
+		if(readOnly)
+			throw new IllegalStateException("Snapshot cube is read-only.");
+		if(states.length != numRows * numCols || values.length != numRows * numCols)
+			throw new IllegalArgumentException("Frames must have one state and one value per site.");
+		
+		bufferedTimes[bufferedFrames] = time;
+		bufferedStates[bufferedFrames] = states.clone();
+		bufferedValues[bufferedFrames] = values.clone();
+		bufferedFrames++;
+		if(bufferedFrames == tileFrames)
+			writeBlock();
+	}
+	
+	/**
+	 * Compresses the buffered frames tile by tile and appends them as a block.
+	 */
+	private void writeBlock() throws IOException
+	{
+		int frames = bufferedFrames;
+		int numTiles = getTileCount();
+		byte[][] compressedStates = new byte[numTiles][];
+		byte[][] compressedValues = new byte[numTiles][];
+		Deflater deflater = new Deflater();
+		try
+		{
+			for(int tile = 0; tile < numTiles; tile++)
+			{
+				int row0 = (tile / tileCols) * tileSize;
+				int col0 = (tile % tileCols) * tileSize;
+				int rows = Math.min(tileSize, numRows - row0);
+				int cols = Math.min(tileSize, numCols - col0);
+				int sites = frames * rows * cols;
+				
+				byte[] states = new byte[(sites + 3) / 4];
+				byte[] values = new byte[4 * sites];
+				int i = 0;
+				for(int frame = 0; frame < frames; frame++)
+				{
+					for(int row = row0; row < row0 + rows; row++)
+					{
+						for(int col = col0; col < col0 + cols; col++)
+						{
+							int site = row * numCols + col;
+							states[i >> 2] |= (bufferedStates[frame][site] & 3) << (2 * (i & 3));
+							int bits = Float.floatToRawIntBits(bufferedValues[frame][site]);
+							for(int plane = 0; plane < 4; plane++)
+								values[plane * sites + i] = (byte)(bits >>> (8 * plane));
+							i++;
+						}
+					}
+				}
+				compressedStates[tile] = deflate(deflater, states);
+				compressedValues[tile] = deflate(deflater, values);
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(getBlockHeaderSize(frames)).order(ByteOrder.LITTLE_ENDIAN);
+		long blockLength = header.capacity();
+		for(int tile = 0; tile < numTiles; tile++)
+			blockLength += compressedStates[tile].length + compressedValues[tile].length;
+		
+		header.putInt(frames);
+		header.putInt(0);
+		header.putLong(blockLength);
+		for(int frame = 0; frame < frames; frame++)
+			header.putDouble(bufferedTimes[frame]);
+		for(int tile = 0; tile < numTiles; tile++)
+		{
+			header.putInt(compressedStates[tile].length);
+			header.putInt(compressedValues[tile].length);
+		}
+		header.flip();
+		
+		// Data first, so the block only looks complete once it is
+		long position = writePosition + header.capacity();
+		for(int tile = 0; tile < numTiles; tile++)
+		{
+			writeFully(channel, ByteBuffer.wrap(compressedStates[tile]), position);
+			position += compressedStates[tile].length;
+			writeFully(channel, ByteBuffer.wrap(compressedValues[tile]), position);
+			position += compressedValues[tile].length;
+		}
+		writeFully(channel, header, writePosition);
+		writePosition = position;
+		
+		frameCount += frames;
+		bufferedFrames = 0;
+		Arrays.fill(bufferedStates, null);
+		Arrays.fill(bufferedValues, null);
+	}
+	
+	private static byte[] deflate(Deflater deflater, byte[] input)
+	{
+		deflater.reset();
+		deflater.setInput(input);
+		deflater.finish();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4 + 64);
+		byte[] buffer = new byte[8192];
+		while(!deflater.finished())
+		{
+			int count = deflater.deflate(buffer);
+			output.write(buffer, 0, count);
+		}
+		return output.toByteArray();
+	}
+	
+	private byte[] inflate(long offset, int length, int size) throws IOException
+	{
+		ByteBuffer compressed = readFully(channel, offset, length);
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(compressed.array(), 0, length);
+			byte[] output = new byte[size];
+			int count = 0;
+			while(count < size && !inflater.finished())
+				count += inflater.inflate(output, count, size - count);
+			if(count != size)
+				throw new IOException("Corrupt snapshot cube chunk at " + offset + ".");
+			return output;
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("Corrupt snapshot cube chunk at " + offset + ".", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+	
+	private Block getBlock(int frame)
+	{
+		if(!readOnly)
+			throw new IllegalStateException("Frames can only be read from cubes opened for reading.");
+		if(frame < 0 || frame >= frameCount)
+			throw new IndexOutOfBoundsException("Invalid frame " + frame + ".");
+		return blocks.get(frame / tileFrames);
+	}
+	
+	/**
+	 * Reads a whole frame, decompressing the chunks of its block.
+	 * @param states Filled with site states in row-major order.
+	 * @param values Filled with site values in row-major order.
+	 */
+	public void readFrame(int frame, byte[] states, float[] values) throws IOException
+	{
+		Block block = getBlock(frame);
+		int frames = block.times.length;
+		int frameInBlock = frame - block.firstFrame;
+		for(int tile = 0; tile < getTileCount(); tile++)
+		{
+			int row0 = (tile / tileCols) * tileSize;
+			int col0 = (tile % tileCols) * tileSize;
+			int rows = Math.min(tileSize, numRows - row0);
+			int cols = Math.min(tileSize, numCols - col0);
+			int sites = frames * rows * cols;
+			
+			byte[] tileStates = inflate(block.stateOffsets[tile], block.stateLengths[tile], (sites + 3) / 4);
+			byte[] tileValues = inflate(block.valueOffsets[tile], block.valueLengths[tile], 4 * sites);
+			int i = frameInBlock * rows * cols;
+			for(int row = row0; row < row0 + rows; row++)
+			{
+				for(int col = col0; col < col0 + cols; col++)
+				{
+					int site = row * numCols + col;
+					states[site] = (byte)((tileStates[i >> 2] >> (2 * (i & 3))) & 3);
+					values[site] = getValue(tileValues, sites, i);
+					i++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads one site in every frame, decompressing one chunk per block.
+	 * @param states Filled with the site's state in each frame.
+	 * @param values Filled with the site's value in each frame.
+	 */
+	public void readHistory(int row, int col, byte[] states, float[] values) throws IOException
+	{
+		if(row < 0 || row >= numRows || col < 0 || col >= numCols)
+			throw new IllegalArgumentException("Invalid cell " + row + ", " + col + ".");
+		
+		int tile = (row / tileSize) * tileCols + col / tileSize;
+		int row0 = (row / tileSize) * tileSize;
+		int col0 = (col / tileSize) * tileSize;
+		int rows = Math.min(tileSize, numRows - row0);
+		int cols = Math.min(tileSize, numCols - col0);
+		for(Block block : blocks)
+		{
+			int frames = block.times.length;
+			int sites = frames * rows * cols;
+			byte[] tileStates = inflate(block.stateOffsets[tile], block.stateLengths[tile], (sites + 3) / 4);
+			byte[] tileValues = inflate(block.valueOffsets[tile], block.valueLengths[tile], 4 * sites);
+			for(int frame = 0; frame < frames; frame++)
+			{
+				int i = (frame * rows + row - row0) * cols + col - col0;
+				states[block.firstFrame + frame] = (byte)((tileStates[i >> 2] >> (2 * (i & 3))) & 3);
+				values[block.firstFrame + frame] = getValue(tileValues, sites, i);
+			}
+		}
+	}
+	
+	private static float getValue(byte[] planes, int sites, int i)
+	{
+		int bits = 0;
+		for(int plane = 0; plane < 4; plane++)
+			bits |= (planes[plane * sites + i] & 0xff) << (8 * plane);
+		return Float.intBitsToFloat(bits);
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+	
+	/**
+	 * @return The bytes read, or null if the file ends first.
+	 */
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining())
+		{
+			int count = channel.read(buffer, position + buffer.position());
+			if(count < 0)
+				return null;
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Writes any buffered frames as a final, partial block, and closes the file.
+	 */
+	public void close() throws IOException
+	{
+		if(!readOnly && bufferedFrames > 0)
+			writeBlock();
+		channel.close();
+	}
+}
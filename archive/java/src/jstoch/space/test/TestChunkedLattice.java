@@ -0,0 +1,67 @@
+package jstoch.space.test;
+
+import java.util.*;
+
+import jstoch.space.*;
+import jstoch.space.Lattice.BoundaryCondition;
+import jstoch.space.Lattice.NeighborhoodType;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestChunkedLattice
+{
+	ChunkedLattice<String> lattice(BoundaryCondition boundaryCondition)
+	{
+		return new ChunkedLattice<String>(10, 7, boundaryCondition, NeighborhoodType.VonNeumann, 4,
+				(row, col) -> row + "," + col);
+	}
+	
+	@Test
+	public void allocateOnDemand()
+	{
+		ChunkedLattice<String> lattice = lattice(BoundaryCondition.Periodic);
+		assertEquals(0, lattice.getTileCount());
+		assertNull(lattice.peek(5, 5));
+		assertFalse(lattice.isAllocated(5, 5));
+		
+		assertEquals("5,5", lattice.get(5, 5));
+		assertEquals(1, lattice.getTileCount());
+		assertTrue(lattice.isAllocated(4, 4));
+		assertEquals("7,6", lattice.peek(7, 6));
+		assertNull(lattice.peek(3, 3));
+		
+		lattice.put("x", 6, 4);
+		assertEquals("x", lattice.get(6, 4));
+		assertEquals(1, lattice.getTileCount());
+	}
+	
+	@Test
+	public void boundaries()
+	{
+		ChunkedLattice<String> periodic = lattice(BoundaryCondition.Periodic);
+		assertEquals("9,6", periodic.get(-1, -1));
+		assertEquals("0,0", periodic.get(10, 7));
+		assertEquals(Arrays.asList("0,1", "1,0", "0,6", "9,0"), periodic.getNeighbors(0, 0));
+		
+		ChunkedLattice<String> bounded = lattice(BoundaryCondition.Bounded);
+		assertNull(bounded.get(-1, 0));
+		assertEquals(0, bounded.getTileCount());
+	}
+	
+	@Test
+	public void sites()
+	{
+		ChunkedLattice<String> lattice = lattice(BoundaryCondition.Periodic);
+		lattice.get(9, 6);
+		lattice.get(0, 0);
+		
+		// Edge tile is clipped to 2x3; sites come tile by tile in allocation order
+		List<String> sites = new ArrayList<String>();
+		for(String site : lattice.sites())
+			sites.add(site);
+		assertEquals(Arrays.asList("8,4", "8,5", "8,6", "9,4", "9,5", "9,6",
+				"0,0", "0,1", "0,2", "0,3", "1,0", "1,1", "1,2", "1,3",
+				"2,0", "2,1", "2,2", "2,3", "3,0", "3,1", "3,2", "3,3"), sites);
+	}
+}
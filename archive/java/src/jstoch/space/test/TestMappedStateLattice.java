@@ -0,0 +1,75 @@
+package jstoch.space.test;
+
+import java.io.*;
+import java.nio.file.*;
+
+import jstoch.space.MappedStateLattice;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestMappedStateLattice
+{
+	Path path;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		path = Files.createTempFile("lattice", ".bin");
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(path);
+	}
+	
+	@Test
+	public void writeAndRead() throws IOException
+	{
+		try(MappedStateLattice lattice = MappedStateLattice.create(path, 5, 7))
+		{
+			lattice.set(0, 0, 3, 0.25);
+			lattice.setState(4, 6, 2);
+			lattice.setValue(4, 6, 1.5);
+			lattice.setTime(12.0);
+			
+			assertEquals(3, lattice.getState(0, 0));
+			assertEquals(0.25, lattice.getValue(0, 0), 0.0);
+			assertEquals(0, lattice.getState(2, 3));
+			
+			// Periodic boundaries
+			assertEquals(2, lattice.getState(-1, -1));
+			assertEquals(1.5, lattice.getValue(9, 13), 0.0);
+			
+			// A reader sees writes made while the writer is still open
+			try(MappedStateLattice reader = MappedStateLattice.open(path))
+			{
+				assertTrue(reader.isReadOnly());
+				assertEquals(5, reader.getNumRows());
+				assertEquals(7, reader.getNumCols());
+				assertEquals(12.0, reader.getTime(), 0.0);
+				assertFalse(reader.isFinished());
+				
+				lattice.setState(2, 3, 1);
+				assertEquals(1, reader.getState(2, 3));
+				assertEquals(1.5, reader.getValue(4, 6), 0.0);
+			}
+			
+			lattice.finish();
+		}
+		
+		try(MappedStateLattice reader = MappedStateLattice.open(path))
+		{
+			assertTrue(reader.isFinished());
+			assertEquals(3, reader.getState(0, 0));
+		}
+	}
+	
+	@Test(expected=IOException.class)
+	public void notALatticeFile() throws IOException
+	{
+		Files.write(path, new byte[100]);
+		MappedStateLattice.open(path);
+	}
+}
@@ -0,0 +1,116 @@
+package jstoch.space.test;
+
+import java.util.*;
+
+import jstoch.space.*;
+import jstoch.space.Lattice.NeighborhoodType;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestPackedStateLattice
+{
+	static final int[][] fullMoore = {{1, 1}, {1, 0}, {1, -1}, {0, -1}, {-1, -1}, {-1, 0}, {-1, 1}, {0, 1}};
+
+	PackedStateLattice randomLattice(int numRows, int numCols, Random random)
+	{
+		PackedStateLattice lattice = new PackedStateLattice(numRows, numCols);
+		for(int row = 0; row < numRows; row++)
+			for(int col = 0; col < numCols; col++)
+				lattice.set(row, col, random.nextInt(4));
+		return lattice;
+	}
+
+	@Test
+	public void getSet()
+	{
+		PackedStateLattice lattice = new PackedStateLattice(3, 40);
+		lattice.set(0, 0, 3);
+		lattice.set(1, 31, 2);
+		lattice.set(1, 32, 1);
+		lattice.set(2, 39, 3);
+		lattice.set(0, 0, 1);
+
+		assertEquals(1, lattice.get(0, 0));
+		assertEquals(2, lattice.get(1, 31));
+		assertEquals(1, lattice.get(1, 32));
+		assertEquals(0, lattice.get(1, 33));
+		assertEquals(3, lattice.get(2, 39));
+
+		// Periodic boundaries
+		assertEquals(3, lattice.get(-1, -1));
+		assertEquals(1, lattice.get(3, 40));
+		lattice.set(-1, 40, 2);
+		assertEquals(2, lattice.get(2, 0));
+	}
+
+	@Test
+	public void readRow()
+	{
+		Random random = new Random(3);
+		PackedStateLattice lattice = randomLattice(4, 70, random);
+		byte[] states = new byte[2 + 70];
+		for(int row = 0; row < 4; row++)
+		{
+			lattice.readRow(row, states, 2);
+			for(int col = 0; col < 70; col++)
+				assertEquals(lattice.get(row, col), states[2 + col]);
+		}
+	}
+
+	@Test
+	public void count()
+	{
+		Random random = new Random(1);
+		for(int numCols : new int[] {1, 5, 32, 33, 64, 100})
+		{
+			PackedStateLattice lattice = randomLattice(7, numCols, random);
+			long[] expected = new long[4];
+			for(int row = 0; row < 7; row++)
+				for(int col = 0; col < numCols; col++)
+					expected[lattice.get(row, col)]++;
+
+			for(int state = 0; state < 4; state++)
+				assertEquals(expected[state], lattice.count(state));
+		}
+	}
+
+	@Test
+	public void neighborCounts()
+	{
+		Random random = new Random(2);
+		int[][][] neighborhoods = {
+			fullMoore,
+			NeighborhoodType.Moore.neighborOffsets(),
+			NeighborhoodType.VonNeumann.neighborOffsets()
+		};
+
+		for(int numCols : new int[] {2, 5, 31, 32, 33, 64, 95})
+		{
+			PackedStateLattice lattice = randomLattice(6, numCols, random);
+			long[][] planes = new long[PackedStateLattice.NUM_PLANES][lattice.getWordsPerRow()];
+
+			for(int[][] offsets : neighborhoods)
+			{
+				for(int state = 0; state < 4; state++)
+				{
+					for(int row = 0; row < 6; row++)
+					{
+						lattice.neighborCounts(row, state, offsets, planes);
+						for(int col = 0; col < numCols; col++)
+						{
+							assertEquals(lattice.countNeighbors(row, col, state, offsets),
+									PackedStateLattice.countAt(planes, col));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidState()
+	{
+		new PackedStateLattice(2, 2).set(0, 0, 4);
+	}
+}
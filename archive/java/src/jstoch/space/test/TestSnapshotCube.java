@@ -0,0 +1,131 @@
+package jstoch.space.test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import jstoch.space.SnapshotCube;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestSnapshotCube
+{
+	Path path;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		path = Files.createTempFile("snapshots", ".cube");
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		Files.deleteIfExists(path);
+	}
+	
+	/**
+	 * Writes random frames on a 5x7 lattice with 3x3 tiles (so edge tiles are
+	 * partial) and 4 frames per block (so the last block is partial).
+	 */
+	private void writeFrames(byte[][] states, float[][] values) throws IOException
+	{
+		Random random = new Random(1);
+		try(SnapshotCube cube = SnapshotCube.create(path, 5, 7, 3, 4))
+		{
+			for(int frame = 0; frame < states.length; frame++)
+			{
+				states[frame] = new byte[35];
+				values[frame] = new float[35];
+				for(int site = 0; site < 35; site++)
+				{
+					states[frame][site] = (byte)random.nextInt(4);
+					values[frame][site] = states[frame][site] == 2 ? random.nextFloat() : Float.NaN;
+				}
+				cube.addFrame(0.5 * frame, states[frame], values[frame]);
+			}
+			assertEquals(states.length, cube.getFrameCount());
+		}
+	}
+	
+	@Test
+	public void readFrames() throws IOException
+	{
+		byte[][] states = new byte[10][];
+		float[][] values = new float[10][];
+		writeFrames(states, values);
+		
+		try(SnapshotCube cube = SnapshotCube.open(path))
+		{
+			assertEquals(5, cube.getNumRows());
+			assertEquals(7, cube.getNumCols());
+			assertEquals(10, cube.getFrameCount());
+			
+			byte[] frameStates = new byte[35];
+			float[] frameValues = new float[35];
+			for(int frame = 0; frame < 10; frame++)
+			{
+				assertEquals(0.5 * frame, cube.getTime(frame), 0.0);
+				cube.readFrame(frame, frameStates, frameValues);
+				assertArrayEquals(states[frame], frameStates);
+				assertArrayEquals(values[frame], frameValues, 0.0f);
+			}
+		}
+	}
+	
+	@Test
+	public void readHistories() throws IOException
+	{
+		byte[][] states = new byte[10][];
+		float[][] values = new float[10][];
+		writeFrames(states, values);
+		
+		try(SnapshotCube cube = SnapshotCube.open(path))
+		{
+			byte[] historyStates = new byte[10];
+			float[] historyValues = new float[10];
+			for(int row = 0; row < 5; row++)
+			{
+				for(int col = 0; col < 7; col++)
+				{
+					cube.readHistory(row, col, historyStates, historyValues);
+					for(int frame = 0; frame < 10; frame++)
+					{
+						assertEquals(states[frame][row * 7 + col], historyStates[frame]);
+						assertEquals(values[frame][row * 7 + col], historyValues[frame], 0.0f);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void readWhileWriting() throws IOException
+	{
+		try(SnapshotCube writer = SnapshotCube.create(path, 2, 2, 2, 2))
+		{
+			writer.addFrame(0.0, new byte[] {0, 1, 2, 3}, new float[4]);
+			try(SnapshotCube reader = SnapshotCube.open(path))
+			{
+				assertEquals(0, reader.getFrameCount());
+			}
+			
+			writer.addFrame(1.0, new byte[] {3, 2, 1, 0}, new float[4]);
+			writer.addFrame(2.0, new byte[4], new float[4]);
+			try(SnapshotCube reader = SnapshotCube.open(path))
+			{
+				assertEquals(2, reader.getFrameCount());
+				byte[] states = new byte[4];
+				reader.readFrame(1, states, new float[4]);
+				assertArrayEquals(new byte[] {3, 2, 1, 0}, states);
+			}
+		}
+		
+		try(SnapshotCube reader = SnapshotCube.open(path))
+		{
+			assertEquals(3, reader.getFrameCount());
+			assertEquals(2.0, reader.getTime(2), 0.0);
+		}
+	}
+}
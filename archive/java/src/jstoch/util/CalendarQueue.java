@@ -0,0 +1,385 @@
+package jstoch.util;
+
+import java.util.*;
+
+/**
+ * Calendar queue (Brown 1988) of times over int handles. Time is divided
+ * into days of equal width, and day d goes in bucket d mod nBuckets, so a
+ * bucket holds the events of one day in each "year". Buckets are unsorted
+ * intrusive lists threaded through per-handle arrays, so inserting, moving
+ * and removing a handle are O(1); finding the earliest time scans forward
+ * from the current day, which takes O(1) amortized when the day width
+ * matches the spacing of the earliest events, as it does for the
+ * exponential firing times of the next-reaction method.
+ *
+ * The number of buckets tracks the number of finite times, and the day
+ * width is re-estimated from the earliest events whenever the buckets are
+ * resized or searches become expensive.
+ */
+public class CalendarQueue implements IndexedTimeQueue
+{
+	private static final int MIN_BUCKETS = 16;
+	
+	// Number of earliest events used to estimate the day width
+	private static final int WIDTH_SAMPLE = 25;
+	
+	// Mean search cost (buckets plus entries visited per search) above
+	// which the day width is re-estimated
+	private static final double MAX_SEARCH_COST = 8.0;
+	
+	private static final int ABSENT = -1;
+	private static final int PARKED = -2;
+	
+	private int size;
+	private int finiteCount;
+	
+	// Per-handle time, day, list links, and bucket (or ABSENT/PARKED)
+	private double[] times;
+	private long[] days;
+	private int[] next;
+	private int[] prev;
+	private int[] bucketOf;
+	
+	private int[] buckets;
+	private int mask;
+	private double width;
+	
+	// No finite time lies on a day before the cursor
+	private long cursor;
+	
+	private int cachedMin;
+	
+	private long searchCount;
+	private long searchCost;
+	
+	public CalendarQueue()
+	{
+		this(16);
+	}
+	
+	public CalendarQueue(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		times = new double[capacity];
+		days = new long[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+		bucketOf = new int[capacity];
+		Arrays.fill(bucketOf, ABSENT);
+		
+		buckets = new int[MIN_BUCKETS];
+		Arrays.fill(buckets, -1);
+		mask = MIN_BUCKETS - 1;
+		width = 1.0;
+		cachedMin = -1;
+	}
+	
+	/**
+	 * Replaces the contents with handles 0..times.length-1, sizing the
+	 * calendar once for all of them.
+	 */
+	public void build(double[] initTimes)
+	{
+		clear();
+		ensureHandleCapacity(initTimes.length);
+		for(int handle = 0; handle < initTimes.length; handle++)
+		{
+			times[handle] = initTimes[handle];
+			size++;
+			if(initTimes[handle] == Double.POSITIVE_INFINITY)
+			{
+				bucketOf[handle] = PARKED;
+			}
+			else
+			{
+				bucketOf[handle] = 0;
+				next[handle] = buckets[0];
+				buckets[0] = handle;
+				finiteCount++;
+			}
+		}
+		resize(bucketCountFor(finiteCount));
+	}
+	
+	public void set(int handle, double time)
+	{
+		ensureHandleCapacity(handle + 1);
+		double oldTime = times[handle];
+		int oldBucket = bucketOf[handle];
+		if(oldBucket == ABSENT)
+			size++;
+		else if(oldBucket != PARKED)
+			unlink(handle);
+		
+		times[handle] = time;
+		if(time == Double.POSITIVE_INFINITY)
+		{
+			bucketOf[handle] = PARKED;
+			if(handle == cachedMin)
+				cachedMin = -1;
+		}
+		else
+		{
+			link(handle);
+			
+			if(cachedMin >= 0)
+			{
+				if(handle == cachedMin)
+				{
+					if(time > oldTime)
+						cachedMin = -1;
+				}
+				else if(time < times[cachedMin])
+				{
+					cachedMin = handle;
+				}
+			}
+			
+			if(finiteCount > 2 * buckets.length)
+				resize(2 * buckets.length);
+		}
+	}
+	
+	public void remove(int handle)
+	{
+		if(!contains(handle)) return;
+		
+		if(bucketOf[handle] != PARKED)
+		{
+			unlink(handle);
+			if(buckets.length > MIN_BUCKETS && finiteCount < buckets.length / 2)
+				resize(buckets.length / 2);
+		}
+		bucketOf[handle] = ABSENT;
+		size--;
+		if(handle == cachedMin)
+			cachedMin = -1;
+	}
+	
+	public boolean contains(int handle)
+	{
+		return handle >= 0 && handle < bucketOf.length && bucketOf[handle] != ABSENT;
+	}
+	
+	public double getTime(int handle)
+	{
+		return contains(handle) ? times[handle] : Double.NaN;
+	}
+	
+	public int peek()
+	{
+		if(cachedMin < 0 && finiteCount > 0)
+			cachedMin = search();
+		return cachedMin;
+	}
+	
+	public double peekTime()
+	{
+		int handle = peek();
+		return handle < 0 ? Double.POSITIVE_INFINITY : times[handle];
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(bucketOf, ABSENT);
+		buckets = new int[MIN_BUCKETS];
+		Arrays.fill(buckets, -1);
+		mask = MIN_BUCKETS - 1;
+		size = 0;
+		finiteCount = 0;
+		cursor = 0;
+		cachedMin = -1;
+	}
+	
+	/**
+	 * @return The current number of buckets, for testing.
+	 */
+	public int getBucketCount()
+	{
+		return buckets.length;
+	}
+	
+	/**
+	 * @return The current day width, for testing.
+	 */
+	public double getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * Scans forward from the cursor, one day per bucket, for the earliest
+	 * time on the first nonempty day. After a full year with no hits, falls
+	 * back to a direct search of all entries.
+	 */
+	private int search()
+	{
+		int cost = 0;
+		int found = -1;
+		for(int scanned = 0; scanned < buckets.length; scanned++)
+		{
+			cost++;
+			for(int handle = buckets[(int)cursor & mask]; handle >= 0; handle = next[handle])
+			{
+				cost++;
+				if(days[handle] == cursor && (found < 0 || times[handle] < times[found]))
+					found = handle;
+			}
+			if(found >= 0) break;
+			cursor++;
+		}
+		
+		if(found < 0)
+		{
+			for(int bucket = 0; bucket < buckets.length; bucket++)
+			{
+				for(int handle = buckets[bucket]; handle >= 0; handle = next[handle])
+				{
+					cost++;
+					if(found < 0 || times[handle] < times[found])
+						found = handle;
+				}
+			}
+			cursor = days[found];
+		}
+		
+		// Re-estimate the width if searches have become expensive
+		searchCount++;
+		searchCost += cost;
+		if(searchCount >= buckets.length)
+		{
+			if(searchCost > MAX_SEARCH_COST * searchCount)
+				resize(buckets.length);
+			searchCount = 0;
+			searchCost = 0;
+		}
+		return found;
+	}
+	
+	private void link(int handle)
+	{
+		long day = (long)Math.floor(times[handle] / width);
+		int bucket = (int)day & mask;
+		days[handle] = day;
+		bucketOf[handle] = bucket;
+		prev[handle] = -1;
+		next[handle] = buckets[bucket];
+		if(buckets[bucket] >= 0)
+			prev[buckets[bucket]] = handle;
+		buckets[bucket] = handle;
+		finiteCount++;
+		
+		if(day < cursor)
+			cursor = day;
+	}
+	
+	private void unlink(int handle)
+	{
+		int bucket = bucketOf[handle];
+		if(prev[handle] >= 0)
+			next[prev[handle]] = next[handle];
+		else
+			buckets[bucket] = next[handle];
+		if(next[handle] >= 0)
+			prev[next[handle]] = prev[handle];
+		finiteCount--;
+	}
+	
+	private static int bucketCountFor(int count)
+	{
+		int n = MIN_BUCKETS;
+		while(n < count)
+			n *= 2;
+		return n;
+	}
+	
+	/**
+	 * Re-estimates the day width and relinks all finite entries into
+	 * the given number of buckets.
+	 */
+	private void resize(int bucketCount)
+	{
+		int[] handles = new int[finiteCount];
+		int count = 0;
+		for(int bucket = 0; bucket < buckets.length; bucket++)
+			for(int handle = buckets[bucket]; handle >= 0; handle = next[handle])
+				handles[count++] = handle;
+		
+		width = estimateWidth(handles);
+		buckets = new int[bucketCount];
+		Arrays.fill(buckets, -1);
+		mask = bucketCount - 1;
+		
+		finiteCount = 0;
+		cursor = Long.MAX_VALUE;
+		for(int handle : handles)
+			link(handle);
+		if(count == 0)
+			cursor = 0;
+		searchCount = 0;
+		searchCost = 0;
+	}
+	
+	/**
+	 * Estimates the day width as three times the mean separation of the
+	 * earliest entries, ignoring separations more than twice the mean
+	 * (Brown 1988). Keeps the current width if there is nothing to go on.
+	 */
+	private double estimateWidth(int[] handles)
+	{
+		// Earliest times, in increasing order
+		int sampleSize = Math.min(WIDTH_SAMPLE, handles.length);
+		double[] sample = new double[sampleSize];
+		int count = 0;
+		for(int handle : handles)
+		{
+			double time = times[handle];
+			if(count == sampleSize && time >= sample[sampleSize - 1])
+				continue;
+			
+			int i = count < sampleSize ? count++ : sampleSize - 1;
+			while(i > 0 && sample[i - 1] > time)
+			{
+				sample[i] = sample[i - 1];
+				i--;
+			}
+			sample[i] = time;
+		}
+		if(sampleSize < 2)
+			return width;
+		
+		double mean = (sample[sampleSize - 1] - sample[0]) / (sampleSize - 1);
+		double sum = 0;
+		int n = 0;
+		for(int i = 1; i < sampleSize; i++)
+		{
+			double separation = sample[i] - sample[i - 1];
+			if(separation <= 2 * mean)
+			{
+				sum += separation;
+				n++;
+			}
+		}
+		double newWidth = 3 * sum / n;
+		return newWidth > 0 && newWidth < Double.POSITIVE_INFINITY ? newWidth : width;
+	}
+	
+	private void ensureHandleCapacity(int capacity)
+	{
+		if(capacity <= bucketOf.length) return;
+		
+		int oldLength = bucketOf.length;
+		int newLength = Math.max(capacity, 2 * oldLength);
+		times = Arrays.copyOf(times, newLength);
+		days = Arrays.copyOf(days, newLength);
+		next = Arrays.copyOf(next, newLength);
+		prev = Arrays.copyOf(prev, newLength);
+		bucketOf = Arrays.copyOf(bucketOf, newLength);
+		Arrays.fill(bucketOf, oldLength, newLength, ABSENT);
+	}
+}
@@ -0,0 +1,214 @@
+package jstoch.util;
+
+import java.util.*;
+
+/**
+ * Indexed 4-ary min-heap of times over int handles. The heap is kept in
+ * parallel primitive arrays of handles and times, and each handle's position
+ * in a third array, so an update moves a few array entries and nothing else.
+ * A 4-ary heap is half as deep as a binary one, and the four children of a
+ * node are adjacent in memory.
+ */
+public class IndexedQuaternaryHeap implements IndexedTimeQueue
+{
+	private int size;
+	
+	// Handle and time at each heap position
+	private int[] heap;
+	private double[] times;
+	
+	// Heap position of each handle, or -1 if not present
+	private int[] positions;
+	
+	public IndexedQuaternaryHeap()
+	{
+		this(16);
+	}
+	
+	public IndexedQuaternaryHeap(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		heap = new int[capacity];
+		times = new double[capacity];
+		positions = new int[capacity];
+		Arrays.fill(positions, -1);
+	}
+	
+	/**
+	 * Replaces the contents with handles 0..times.length-1 and builds
+	 * the heap in linear time.
+	 */
+	public void build(double[] initTimes)
+	{
+		clear();
+		ensureHandleCapacity(initTimes.length);
+		ensureHeapCapacity(initTimes.length);
+		for(int i = 0; i < initTimes.length; i++)
+		{
+			heap[i] = i;
+			times[i] = initTimes[i];
+			positions[i] = i;
+		}
+		size = initTimes.length;
+		
+		// (size - 2) / 4 truncates to 0 for size 0, where siftDown(0) would
+		// reinsert a stale handle, so only heaps with children are sifted
+		for(int i = (size - 2) >> 2; size > 1 && i >= 0; i--)
+			siftDown(i);
+	}
+	
+	public void set(int handle, double time)
+	{
+		ensureHandleCapacity(handle + 1);
+		int i = positions[handle];
+		if(i < 0)
+		{
+			ensureHeapCapacity(size + 1);
+			i = size++;
+			heap[i] = handle;
+			times[i] = time;
+			positions[handle] = i;
+			siftUp(i);
+		}
+		else
+		{
+			double oldTime = times[i];
+			times[i] = time;
+			if(time < oldTime)
+				siftUp(i);
+			else if(time > oldTime)
+				siftDown(i);
+		}
+	}
+	
+	public void remove(int handle)
+	{
+		if(!contains(handle)) return;
+		
+		int i = positions[handle];
+		positions[handle] = -1;
+		size--;
+		if(i == size) return;
+		
+		// Move the last entry into the hole and restore the heap from there
+		double oldTime = times[i];
+		heap[i] = heap[size];
+		times[i] = times[size];
+		positions[heap[i]] = i;
+		if(times[i] < oldTime)
+			siftUp(i);
+		else
+			siftDown(i);
+	}
+	
+	public boolean contains(int handle)
+	{
+		return handle >= 0 && handle < positions.length && positions[handle] >= 0;
+	}
+	
+	public double getTime(int handle)
+	{
+		return contains(handle) ? times[positions[handle]] : Double.NaN;
+	}
+	
+	public int peek()
+	{
+		if(size == 0 || times[0] == Double.POSITIVE_INFINITY) return -1;
+		return heap[0];
+	}
+	
+	public double peekTime()
+	{
+		return size == 0 ? Double.POSITIVE_INFINITY : times[0];
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public void clear()
+	{
+		for(int i = 0; i < size; i++)
+			positions[heap[i]] = -1;
+		size = 0;
+	}
+	
+	/**
+	 * @return The handle at a heap position, for testing.
+	 */
+	public int getHandleAt(int i)
+	{
+		return heap[i];
+	}
+	
+	private void siftUp(int i)
+	{
+		int handle = heap[i];
+		double time = times[i];
+		while(i > 0)
+		{
+			int parent = (i - 1) >> 2;
+			if(time >= times[parent]) break;
+			
+			heap[i] = heap[parent];
+			times[i] = times[parent];
+			positions[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = handle;
+		times[i] = time;
+		positions[handle] = i;
+	}
+	
+	private void siftDown(int i)
+	{
+		int handle = heap[i];
+		double time = times[i];
+		while(true)
+		{
+			int first = (i << 2) + 1;
+			if(first >= size) break;
+			
+			// Find the earliest of up to four children
+			int last = Math.min(first + 4, size);
+			int min = first;
+			double minTime = times[first];
+			for(int child = first + 1; child < last; child++)
+			{
+				if(times[child] < minTime)
+				{
+					min = child;
+					minTime = times[child];
+				}
+			}
+			if(minTime >= time) break;
+			
+			heap[i] = heap[min];
+			times[i] = minTime;
+			positions[heap[i]] = i;
+			i = min;
+		}
+		heap[i] = handle;
+		times[i] = time;
+		positions[handle] = i;
+	}
+	
+	private void ensureHandleCapacity(int capacity)
+	{
+		if(capacity <= positions.length) return;
+		
+		int oldLength = positions.length;
+		positions = Arrays.copyOf(positions, Math.max(capacity, 2 * oldLength));
+		Arrays.fill(positions, oldLength, positions.length, -1);
+	}
+	
+	private void ensureHeapCapacity(int capacity)
+	{
+		if(capacity <= heap.length) return;
+		
+		int newLength = Math.max(capacity, 2 * heap.length);
+		heap = Arrays.copyOf(heap, newLength);
+		times = Arrays.copyOf(times, newLength);
+	}
+}
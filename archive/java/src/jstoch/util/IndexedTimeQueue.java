@@ -0,0 +1,46 @@
+package jstoch.util;
+
+/**
+ * Priority queue of firing times keyed by int handles, as used by the
+ * next-reaction method: each event owns a handle (e.g. its index), and its
+ * time is set, updated or removed through the handle, with no hashing or
+ * comparator calls.
+ */
+public interface IndexedTimeQueue
+{
+	/**
+	 * Inserts a handle, or moves it if it is already present.
+	 * @param handle A nonnegative handle.
+	 * @param time The firing time; infinite times are kept but never at the head.
+	 */
+	public void set(int handle, double time);
+	
+	/**
+	 * Removes a handle; does nothing if it is not present.
+	 */
+	public void remove(int handle);
+	
+	public boolean contains(int handle);
+	
+	/**
+	 * @return The time of a handle, or NaN if it is not present.
+	 */
+	public double getTime(int handle);
+	
+	/**
+	 * @return The handle with the earliest finite time, or -1 if there is none.
+	 */
+	public int peek();
+	
+	/**
+	 * @return The earliest finite time, or positive infinity if there is none.
+	 */
+	public double peekTime();
+	
+	/**
+	 * @return The number of handles present, including those with infinite times.
+	 */
+	public int size();
+	
+	public void clear();
+}
@@ -0,0 +1,132 @@
+package jstoch.util.test;
+
+import java.util.*;
+
+import jstoch.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestCalendarQueue
+{
+	CalendarQueue queue;
+	
+	@Before
+	public void setUp()
+	{
+		queue = new CalendarQueue(4);
+	}
+	
+	@Test
+	public void emptyQueue()
+	{
+		assertEquals(-1, queue.peek());
+		assertEquals(Double.POSITIVE_INFINITY, queue.peekTime(), 0.0);
+		assertEquals(0, queue.size());
+	}
+	
+	@Test
+	public void setAndMove()
+	{
+		queue.set(3, 5.0);
+		queue.set(1, 2.5);
+		queue.set(7, 40.0);
+		assertEquals(1, queue.peek());
+		
+		queue.set(1, 100.0);
+		assertEquals(3, queue.peek());
+		queue.set(7, 0.5);
+		assertEquals(7, queue.peek());
+		
+		queue.remove(7);
+		queue.remove(7);
+		assertEquals(2, queue.size());
+		assertEquals(3, queue.peek());
+		assertTrue(Double.isNaN(queue.getTime(7)));
+	}
+	
+	@Test
+	public void testInfinityInQueue()
+	{
+		queue.set(0, Double.POSITIVE_INFINITY);
+		assertEquals(-1, queue.peek());
+		assertEquals(1, queue.size());
+		
+		queue.set(1, 3.0);
+		assertEquals(1, queue.peek());
+		queue.set(1, Double.POSITIVE_INFINITY);
+		assertEquals(-1, queue.peek());
+		queue.set(0, 1.0);
+		assertEquals(0, queue.peek());
+		assertEquals(2, queue.size());
+	}
+	
+	@Test
+	public void resize()
+	{
+		for(int handle = 0; handle < 1000; handle++)
+			queue.set(handle, 1000.0 - handle);
+		assertEquals(999, queue.peek());
+		assertTrue(queue.getBucketCount() >= 500);
+		
+		for(int handle = 0; handle < 990; handle++)
+			queue.remove(handle);
+		assertEquals(10, queue.size());
+		assertTrue(queue.getBucketCount() <= 32);
+		assertEquals(999, queue.peek());
+	}
+	
+	@Test
+	public void farFutureTimes()
+	{
+		// Times many years apart are found by the direct search
+		queue.build(new double[] { 1e9, 5.0, 2e12, 1e6 });
+		assertEquals(1, queue.peek());
+		queue.remove(1);
+		assertEquals(3, queue.peek());
+		queue.remove(3);
+		assertEquals(0, queue.peek());
+		queue.set(2, 10.0);
+		assertEquals(2, queue.peek());
+	}
+	
+	@Test
+	public void nextReactionOrder()
+	{
+		// Next-reaction pattern: fire the head, reschedule it and a few others
+		// after the current time, and check against a heap
+		Random random = new Random(5);
+		IndexedQuaternaryHeap heap = new IndexedQuaternaryHeap();
+		
+		int n = 500;
+		double[] rates = new double[n];
+		double[] initTimes = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			rates[i] = Math.pow(10, 3 * random.nextDouble());
+			initTimes[i] = -Math.log(random.nextDouble()) / rates[i];
+		}
+		queue.build(initTimes);
+		heap.build(initTimes);
+		
+		double time = 0;
+		for(int step = 0; step < 200000; step++)
+		{
+			int handle = queue.peek();
+			assertEquals(heap.peekTime(), queue.peekTime(), 0.0);
+			assertTrue(queue.getTime(handle) >= time);
+			time = queue.getTime(handle);
+			
+			for(int i = 0; i < 3; i++)
+			{
+				int other = i == 0 ? handle : random.nextInt(n);
+				double newTime = random.nextInt(50) == 0
+					? Double.POSITIVE_INFINITY
+					: time - Math.log(random.nextDouble()) / rates[other];
+				queue.set(other, newTime);
+				heap.set(other, newTime);
+			}
+		}
+		assertEquals(n, queue.size());
+	}
+}
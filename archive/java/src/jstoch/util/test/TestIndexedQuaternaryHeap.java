@@ -0,0 +1,142 @@
+package jstoch.util.test;
+
+import java.util.*;
+
+import jstoch.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestIndexedQuaternaryHeap
+{
+	IndexedQuaternaryHeap heap;
+	
+	@Before
+	public void setUp()
+	{
+		heap = new IndexedQuaternaryHeap(4);
+	}
+	
+	private int[] getHandles()
+	{
+		int[] handles = new int[heap.size()];
+		for(int i = 0; i < handles.length; i++)
+			handles[i] = heap.getHandleAt(i);
+		return handles;
+	}
+	
+	@Test
+	public void buildReverse()
+	{
+		heap.build(new double[] { 8, 7, 6, 5, 4, 3, 2, 1 });
+		assertArrayEquals(new int[] { 7, 6, 2, 3, 4, 5, 0, 1 }, getHandles());
+		assertEquals(7, heap.peek());
+		assertEquals(1.0, heap.peekTime(), 0.0);
+	}
+	
+	@Test
+	public void buildEmptyAfterUse()
+	{
+		heap.build(new double[] { 3, 1, 2 });
+		heap.set(5, 0.5);
+		heap.build(new double[0]);
+		assertEquals(0, heap.size());
+		for(int handle = 0; handle < 6; handle++)
+			assertFalse(heap.contains(handle));
+		assertEquals(-1, heap.peek());
+		
+		heap.build(new double[] { 4 });
+		assertEquals(1, heap.size());
+		assertTrue(heap.contains(0));
+		assertFalse(heap.contains(5));
+		assertEquals(0, heap.peek());
+	}
+	
+	@Test
+	public void updateUp()
+	{
+		heap.build(new double[] { 1, 2, 3, 4, 5, 6, 7 });
+		heap.set(5, 0);
+		assertArrayEquals(new int[] { 5, 0, 2, 3, 4, 1, 6 }, getHandles());
+	}
+	
+	@Test
+	public void updateDown()
+	{
+		heap.build(new double[] { 1, 2, 3, 4, 5, 6, 7 });
+		heap.set(0, 5);
+		assertArrayEquals(new int[] { 1, 0, 2, 3, 4, 5, 6 }, getHandles());
+		assertEquals(5.0, heap.getTime(0), 0.0);
+	}
+	
+	@Test
+	public void removeAndGrow()
+	{
+		for(int handle = 0; handle < 20; handle++)
+			heap.set(handle * 3, 20 - handle);
+		assertEquals(20, heap.size());
+		assertEquals(57, heap.peek());
+		
+		heap.remove(57);
+		heap.remove(57);
+		heap.remove(1000);
+		assertEquals(19, heap.size());
+		assertFalse(heap.contains(57));
+		assertTrue(Double.isNaN(heap.getTime(57)));
+		assertEquals(54, heap.peek());
+	}
+	
+	@Test
+	public void testInfinityInQueue()
+	{
+		heap.set(0, Double.POSITIVE_INFINITY);
+		assertEquals(-1, heap.peek());
+		assertEquals(Double.POSITIVE_INFINITY, heap.peekTime(), 0.0);
+		
+		heap.set(1, 3.0);
+		assertEquals(1, heap.peek());
+		assertEquals(2, heap.size());
+	}
+	
+	@Test
+	public void randomOperations()
+	{
+		Random random = new Random(11);
+		Map<Integer, Double> reference = new HashMap<Integer, Double>();
+		for(int i = 0; i < 100000; i++)
+		{
+			int handle = random.nextInt(200);
+			if(random.nextInt(4) == 0)
+			{
+				heap.remove(handle);
+				reference.remove(handle);
+			}
+			else
+			{
+				double time = random.nextDouble();
+				heap.set(handle, time);
+				reference.put(handle, time);
+			}
+			
+			if(i % 100 == 0)
+			{
+				double min = Double.POSITIVE_INFINITY;
+				for(double time : reference.values())
+					min = Math.min(min, time);
+				assertEquals(reference.size(), heap.size());
+				assertEquals(min, heap.peekTime(), 0.0);
+			}
+		}
+		
+		// Draining the heap yields times in order
+		double last = Double.NEGATIVE_INFINITY;
+		while(heap.size() > 0)
+		{
+			int handle = heap.peek();
+			assertTrue(heap.getTime(handle) >= last);
+			assertEquals(reference.get(handle), heap.getTime(handle), 0.0);
+			last = heap.getTime(handle);
+			heap.remove(handle);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package landusemodel;
+
+import java.io.*;
+import java.nio.file.Paths;
+
+import jstoch.logging.*;
+import jstoch.model.*;
+
+/**
+ * Writes the same rows as TextLogger to output.bin (or output.N.bin), in
+ * the columnar binary format of jstoch.logging.MappedTimeSeries, so they
+ * can be read back by mapping the file instead of parsing text.
+ */
+public class BinaryLogger implements PeriodicLogger {
+	private Config config;
+	private OutputColumns columns;
+	private MappedTimeSeries series;
+
+	long logCount = 0;
+
+	public BinaryLogger(Config config, OutputColumns columns) {
+		this.config = config;
+		this.columns = columns;
+	}
+
+	public void logStart(StochasticModel ignore) throws LoggingException {
+		try {
+			String filename;
+			if (config.runNum == null)
+				filename = "output.bin";
+			else
+				filename = String.format("output.%d.bin", config.runNum);
+
+			series = MappedTimeSeries.create(Paths.get(filename), OutputColumns.NAMES,
+					MappedTimeSeries.DEFAULT_CHUNK_ROWS);
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+	}
+
+	public void logEnd(StochasticModel ignore) throws LoggingException {
+		try {
+			series.close();
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+	}
+
+	public double getNextLogTime(StochasticModel ignore) throws LoggingException {
+		return logCount * config.logInterval;
+	}
+
+	public void logPeriodic(StochasticModel ignore, double time)
+			throws LoggingException {
+		try {
+			series.append(columns.getRow(time));
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+
+		logCount++;
+	}
+}
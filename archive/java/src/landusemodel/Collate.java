@@ -0,0 +1,232 @@
+package landusemodel;
+
+import java.io.*;
+import java.nio.DoubleBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import jstoch.logging.*;
+
+/**
+ * Collates the periodic output of the runs of an experiment into one
+ * CollatedRunStore. Runs are the subdirectories of a runs directory named
+ * by integer ids, each holding output.bin (preferred) or output.csv.
+ *
+ * Usage: Collate <runs directory> <store file> [threads]
+ *
+ * Runs are read in parallel twice: once to count their rows, which fixes
+ * where each run goes in the store, and once to read and write them.
+ */
+public class Collate
+{
+	public static void main(String[] args) throws Throwable
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: Collate <runs directory> <store file> [threads]");
+			System.exit(1);
+		}
+		Path runsDir = Paths.get(args[0]);
+		Path storePath = Paths.get(args[1]);
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		
+		// Find runs, in order of id
+		TreeMap<Long, Path> runFiles = new TreeMap<Long, Path>();
+		try(DirectoryStream<Path> dirs = Files.newDirectoryStream(runsDir))
+		{
+			for(Path dir : dirs)
+			{
+				long runId;
+				try
+				{
+					runId = Long.parseLong(dir.getFileName().toString());
+				}
+				catch(NumberFormatException e)
+				{
+					continue;
+				}
+				
+				if(Files.exists(dir.resolve("output.bin")))
+					runFiles.put(runId, dir.resolve("output.bin"));
+				else if(Files.exists(dir.resolve("output.csv")))
+					runFiles.put(runId, dir.resolve("output.csv"));
+			}
+		}
+		if(runFiles.isEmpty())
+			throw new IllegalArgumentException("No run outputs found in " + runsDir + ".");
+		
+		final long[] runIds = new long[runFiles.size()];
+		final Path[] paths = new Path[runFiles.size()];
+		int n = 0;
+		for(Map.Entry<Long, Path> entry : runFiles.entrySet())
+		{
+			runIds[n] = entry.getKey();
+			paths[n] = entry.getValue();
+			n++;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			// Pass 1: row counts, and the columns, which must agree across runs
+			List<Future<String[]>> headers = new ArrayList<Future<String[]>>();
+			final long[] rowCounts = new long[paths.length];
+			for(int i = 0; i < paths.length; i++)
+			{
+				final int run = i;
+				headers.add(executor.submit(new Callable<String[]>()
+				{
+					public String[] call() throws IOException
+					{
+						return readHeader(paths[run], rowCounts, run);
+					}
+				}));
+			}
+			final String[] columnNames = headers.get(0).get();
+			for(int i = 1; i < paths.length; i++)
+			{
+				if(!Arrays.equals(columnNames, headers.get(i).get()))
+					throw new IOException("Columns of " + paths[i] + " differ from those of " + paths[0] + ".");
+			}
+			
+			// Pass 2: read each run and write it in place
+			final CollatedRunStore store = CollatedRunStore.create(storePath, columnNames, runIds, rowCounts);
+			try
+			{
+				List<Future<Object>> writes = new ArrayList<Future<Object>>();
+				for(int i = 0; i < paths.length; i++)
+				{
+					final int run = i;
+					writes.add(executor.submit(new Callable<Object>()
+					{
+						public Object call() throws IOException
+						{
+							store.writeRun(run, readColumns(paths[run], columnNames.length, rowCounts[run]));
+							return null;
+						}
+					}));
+				}
+				for(Future<Object> write : writes)
+					write.get();
+			}
+			finally
+			{
+				store.close();
+			}
+			System.err.println("Collated " + paths.length + " runs (" + store.getTotalRowCount()
+					+ " rows) into " + storePath);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	private static boolean isBinary(Path path)
+	{
+		return path.getFileName().toString().endsWith(".bin");
+	}
+	
+	/**
+	 * Reads a run's column names and stores its row count.
+	 */
+	static String[] readHeader(Path path, long[] rowCounts, int run) throws IOException
+	{
+		if(isBinary(path))
+		{
+			try(MappedTimeSeries series = MappedTimeSeries.open(path))
+			{
+				rowCounts[run] = series.getRowCount();
+				return series.getColumnNames();
+			}
+		}
+		
+		try(BufferedReader reader = Files.newBufferedReader(path))
+		{
+			String header = reader.readLine();
+			if(header == null)
+				throw new IOException("Empty output file: " + path);
+			
+			long count = 0;
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				if(!line.isEmpty())
+					count++;
+			}
+			rowCounts[run] = count;
+			return header.split(",", -1);
+		}
+	}
+	
+	/**
+	 * Reads all rows of a run into one array per column; empty CSV fields are NaN.
+	 * A CSV row with the wrong number of fields, or a field that is not a
+	 * number, is reported with its file and line.
+	 */
+	static double[][] readColumns(Path path, int numColumns, long rowCount) throws IOException
+	{
+		double[][] columns = new double[numColumns][(int)rowCount];
+		if(isBinary(path))
+		{
+			try(MappedTimeSeries series = MappedTimeSeries.open(path))
+			{
+				for(int col = 0; col < numColumns; col++)
+				{
+					for(int chunk = 0; chunk < series.getChunkCount(); chunk++)
+					{
+						// Rows appended since the count was taken are left out
+						int first = chunk * series.getChunkRows();
+						if(first >= rowCount) break;
+						DoubleBuffer values = series.getColumnChunk(chunk, col);
+						values.get(columns[col], first, (int)Math.min(values.remaining(), rowCount - first));
+					}
+				}
+			}
+			return columns;
+		}
+		
+		try(BufferedReader reader = Files.newBufferedReader(path))
+		{
+			reader.readLine();
+			String line;
+			int lineNumber = 1;
+			int row = 0;
+			while((line = reader.readLine()) != null && row < rowCount)
+			{
+				lineNumber++;
+				if(line.isEmpty())
+					continue;
+				
+				int start = 0;
+				for(int col = 0; col < numColumns; col++)
+				{
+					if(start > line.length())
+						throw new IOException(path + ", line " + lineNumber + ": expected " + numColumns
+								+ " fields, found " + col + ".");
+					int end = line.indexOf(',', start);
+					if(end < 0)
+						end = line.length();
+					try
+					{
+						columns[col][row] = end == start ? Double.NaN : Double.parseDouble(line.substring(start, end));
+					}
+					catch(NumberFormatException e)
+					{
+						throw new IOException(path + ", line " + lineNumber + ": field " + (col + 1)
+								+ " is not a number.", e);
+					}
+					start = end + 1;
+				}
+				if(start <= line.length())
+					throw new IOException(path + ", line " + lineNumber + ": expected " + numColumns
+							+ " fields, found more.");
+				row++;
+			}
+			if(row < rowCount)
+				throw new IOException(path + " changed while it was being collated.");
+		}
+		return columns;
+	}
+}
@@ -1,12 +1,25 @@
 package landusemodel;
 
+import jstoch.model.GillespieDirectSimulator;
+
 public class Config {
 	boolean spatial = true;
 	Integer randomSeed = null;
 	
+	// Random number generator: "MersenneTwister" (Colt) or "Xoroshiro"
+	// (xoroshiro128++). With Xoroshiro, a run with a runNum uses substream
+	// runNum of randomSeed, so replicates can share one seed.
+	enum RandomEngineType
+	{
+		MersenneTwister,
+		Xoroshiro
+	}
+	
+	RandomEngineType randomEngine = RandomEngineType.MersenneTwister;
+	
 	double k = 0.0;
 	double maxTime = 10000;
-
+	
 	boolean outputImages = false;
 	
 	// Image output interval
@@ -15,8 +28,69 @@ public class Config {
 	// Logging interval
 	double logInterval = 1.0;
 	
+	// If outputBinary == true, the rows of output.csv are also written to
+	// output.bin in a columnar binary format that can be memory-mapped
+	// (see jstoch.logging.MappedTimeSeries).
+	boolean outputBinary = false;
+	
+	// If outputFullState == true, the state and beta of every site are
+	// written every fullStateInterval to state.cube, compressed in chunks of
+	// fullStateTileSize x fullStateTileSize sites by fullStateTileFrames
+	// frames (see jstoch.space.SnapshotCube). Spatial runs only.
+	boolean outputFullState = false;
+	double fullStateInterval = 1.0;
+	int fullStateTileSize = 64;
+	int fullStateTileFrames = 16;
+	
+	// If asyncLogging == true, image output is produced on a separate
+	// thread from compact event records rather than inline with each event.
+	boolean asyncLogging = false;
+	
 	Integer runNum = null;
 	
+	// If chunkedLattice == true, the spatial lattice is stored in 64x64 tiles
+	// that are only allocated once the populated region reaches them;
+	// untouched tiles count as forest. Requires the Gillespie engine.
+	boolean chunkedLattice = false;
+	
+	// If set, site states and betas are copied to this memory-mapped file
+	// during spatial runs (see jstoch.space.MappedStateLattice), so it can be
+	// read as a live snapshot while the run is in progress. This is a mirror
+	// only: the sites themselves stay on the heap, and each change costs an
+	// extra write to the file, so it does not help fit larger lattices.
+	String stateFile = null;
+	
+	// Simulation engine for spatial runs: "Gillespie" keeps a rate for every
+	// event; "Rejection" samples event categories from upper bounds on their
+	// total rates and accepts or rejects randomly chosen sites; "NFoldWay"
+	// groups sites into classes of equal rate and samples classes exactly.
+	enum Engine
+	{
+		Gillespie,
+		Rejection,
+		NFoldWay
+	}
+	
+	Engine engine = Engine.Gillespie;
+	
+	// Event distribution for the Gillespie engine: "BinaryTree" keeps
+	// floating-point partial sums; "FixedPoint" keeps exact integer sums
+	// that cannot drift, for very long runs; "Adaptive" picks the fastest
+	// of a linear scan, tree, or rejection sampler from the run's behavior.
+	GillespieDirectSimulator.DiscreteDistributionType sampler =
+		GillespieDirectSimulator.DiscreteDistributionType.BinaryTree;
+	
+	// If stopOnExtinction == true, the run ends once no populated sites remain.
+	boolean stopOnExtinction = false;
+	
+	// If stationarityWindow > 0, the run ends once state fractions are stationary:
+	// after stationarityBurnIn, the last stationarityWindow time units are split into
+	// stationarityBatches batches, and all batch means must agree within stationarityThreshold.
+	double stationarityBurnIn = 100.0;
+	double stationarityWindow = 0.0;
+	int stationarityBatches = 5;
+	double stationarityThreshold = 0.005;
+	
 	// Beta evolution rate
 	double sigma = 0.2;
 	
@@ -0,0 +1,36 @@
+package landusemodel;
+
+import jstoch.model.*;
+import landusemodel.SuperModel.State;
+
+/**
+ * Stops a run once no populated sites remain, a state the model never leaves.
+ * Checked every logInterval.
+ */
+public class ExtinctionStopCondition implements StopCondition
+{
+	private Config config;
+	private SuperModel model;
+	
+	long checkCount = 0;
+	
+	public ExtinctionStopCondition(Config config, SuperModel model)
+	{
+		this.config = config;
+		this.model = model;
+	}
+	
+	public double getNextCheckTime(StochasticModel ignore)
+	{
+		return checkCount * config.logInterval;
+	}
+	
+	public String check(StochasticModel ignore, double time)
+	{
+		checkCount++;
+		
+		if(model.getCount(State.Populated) == 0)
+			return "extinction";
+		return null;
+	}
+}
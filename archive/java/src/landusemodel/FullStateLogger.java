@@ -0,0 +1,105 @@
+package landusemodel;
+
+import java.io.*;
+import java.nio.file.Paths;
+
+import jstoch.logging.*;
+import jstoch.model.*;
+import jstoch.space.PackedStateLattice;
+import jstoch.space.SnapshotCube;
+import landusemodel.SuperModel.State;
+
+/**
+ * Writes the state and beta of every site every fullStateInterval to
+ * state.cube (or state.N.cube), in the chunked, compressed format of
+ * jstoch.space.SnapshotCube, so single frames or single-site histories
+ * can be read back without decompressing the whole run.
+ */
+public class FullStateLogger implements PeriodicLogger {
+	private Config config;
+	private SpatialModel model;
+	private SnapshotCube cube;
+
+	private byte[] states;
+	private float[] betas;
+
+	long logCount = 0;
+
+	public FullStateLogger(Config config, SpatialModel model) {
+		this.config = config;
+		this.model = model;
+	}
+
+	public void logStart(StochasticModel ignore) throws LoggingException {
+		try {
+			String filename;
+			if (config.runNum == null)
+				filename = "state.cube";
+			else
+				filename = String.format("state.%d.cube", config.runNum);
+
+			cube = SnapshotCube.create(Paths.get(filename), config.L, config.L,
+					config.fullStateTileSize, config.fullStateTileFrames);
+			states = new byte[config.L * config.L];
+			betas = new float[config.L * config.L];
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+	}
+
+	public void logEnd(StochasticModel ignore) throws LoggingException {
+		try {
+			cube.close();
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+	}
+
+	public double getNextLogTime(StochasticModel ignore) throws LoggingException {
+		return logCount * config.fullStateInterval;
+	}
+
+	public void logPeriodic(StochasticModel ignore, double time)
+			throws LoggingException {
+		PackedStateLattice packedStates = model.getPackedStates();
+		if (packedStates != null)
+			readPackedStates(packedStates);
+		else
+			readSiteStates();
+
+		try {
+			cube.addFrame(time, states, betas);
+		} catch (IOException e) {
+			throw new LoggingException(this, e);
+		}
+
+		logCount++;
+	}
+
+	/**
+	 * Unpacks states a row at a time from the model's packed mirror, and
+	 * only looks up the sites themselves for populated betas.
+	 */
+	private void readPackedStates(PackedStateLattice packedStates) {
+		int populated = State.Populated.ordinal();
+		int i = 0;
+		for (int row = 0; row < config.L; row++) {
+			packedStates.readRow(row, states, i);
+			for (int col = 0; col < config.L; col++) {
+				betas[i] = states[i] == populated ? (float) model.getBeta(row, col) : Float.NaN;
+				i++;
+			}
+		}
+	}
+
+	private void readSiteStates() {
+		int i = 0;
+		for (int row = 0; row < config.L; row++) {
+			for (int col = 0; col < config.L; col++) {
+				states[i] = (byte) model.getState(row, col).ordinal();
+				betas[i] = (float) model.getBeta(row, col);
+				i++;
+			}
+		}
+	}
+}
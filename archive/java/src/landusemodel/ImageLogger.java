@@ -9,13 +9,16 @@ import javax.imageio.ImageIO;
 import jstoch.logging.*;
 import jstoch.model.*;
 import landusemodel.SpatialModel.Site;
+import landusemodel.SuperModel.State;
 
-public class ImageLogger implements Logger
+public class ImageLogger implements Logger, AsyncLogger
 {
 	private Config config;
 	private BufferedImage image;
 	private SpatialModel model;
 	
+	private static final State[] states = State.values();
+	
 	long logCount = 0;
 	
 	public ImageLogger(Config config, SpatialModel model)
@@ -29,7 +32,7 @@ public class ImageLogger implements Logger
 		image = new BufferedImage(config.L, config.L, BufferedImage.TYPE_INT_ARGB);
 		for(int row = 0; row < config.L; row++)
 			for(int col = 0; col < config.L; col++)
-				image.setRGB(row, col, model.space.get(row, col).state.color());
+				image.setRGB(row, col, model.getState(row, col).color());
 	}
 
 	public void logEnd(StochasticModel ignore) throws LoggingException
@@ -37,12 +40,22 @@ public class ImageLogger implements Logger
 	}
 	
 	public double getNextLogTime(StochasticModel ignore) throws LoggingException
+	{
+		return getNextLogTime();
+	}
+	
+	public double getNextLogTime()
 	{
 		return logCount * config.imageInterval;
 	}
 
 	public void logPeriodic(StochasticModel ignore, double time)
 			throws LoggingException
+	{
+		logPeriodic(time);
+	}
+	
+	public void logPeriodic(double time) throws LoggingException
 	{
 		writeImage(time);
 		
@@ -52,14 +65,25 @@ public class ImageLogger implements Logger
 	public void logEvent(StochasticModel ignore, double time, Event event)
 			throws LoggingException
 	{
-		Site.SiteEvent siteEvent = (Site.SiteEvent)event;
-		int row = siteEvent.getRow();
-		int col = siteEvent.getCol();
-		Site site = model.space.get(siteEvent.getRow(), siteEvent.getCol());
+		// Site events and aggregated channel events both report the changed site
+		logChange(ignore, time, (RecordableEvent)event);
+	}
+	
+	public void logChange(StochasticModel ignore, double time, ChangeRecord record)
+			throws LoggingException
+	{
+		int row = record.getSiteIndex() / config.L;
+		int col = record.getSiteIndex() % config.L;
+		Site site = model.space.get(row, col);
 		
 		image.setRGB(row, col, site.state.color());
 	}
 	
+	public void logRecord(double time, int siteIndex, int stateIndex, double beta)
+	{
+		image.setRGB(siteIndex / config.L, siteIndex % config.L, states[stateIndex].color());
+	}
+	
 	void writeImage(double time) throws LoggingException
 	{
 		String filename;
@@ -5,6 +5,8 @@ import java.io.PrintStream;
 import java.util.Date;
 
 import jstoch.model.*;
+import jstoch.random.DiscreteDistributionAdaptive;
+import jstoch.random.Xoroshiro128PlusPlus;
 
 import com.google.gson.*;
 
@@ -21,7 +23,17 @@ public class Main
 		// Create random number generator
 		if(config.randomSeed == null)
 			config.randomSeed = (int)(new Date()).getTime();
-		RandomEngine rng = new MersenneTwister(config.randomSeed);
+		RandomEngine rng;
+		switch(config.randomEngine)
+		{
+			case Xoroshiro:
+				Xoroshiro128PlusPlus root = new Xoroshiro128PlusPlus(config.randomSeed);
+				rng = config.runNum == null ? root : root.substream(config.runNum);
+				break;
+			default:
+				rng = new MersenneTwister(config.randomSeed);
+				break;
+		}
 		
 		// Create model and apply Settings
 		SuperModel model;
@@ -45,20 +57,98 @@ public class Main
 		paramsStream.println();
 		paramsStream.close();
 		
-		Simulator sim = new GillespieDirectSimulator(model, rng);
+		if(config.engine != Config.Engine.Gillespie && !config.spatial)
+			throw new IllegalArgumentException("The " + config.engine + " engine requires a spatial model.");
+		if(config.chunkedLattice && config.engine != Config.Engine.Gillespie)
+			throw new IllegalArgumentException("The " + config.engine + " engine does not support chunked lattices.");
+		if(config.chunkedLattice && config.stateFile != null)
+			throw new IllegalArgumentException("State files are not supported with chunked lattices.");
+		
+		Simulator sim;
+		switch(config.engine)
+		{
+			case Rejection:
+				sim = new RejectionSimulator((SpatialModel) model, rng);
+				break;
+			case NFoldWay:
+				sim = new NFoldWaySimulator((SpatialModel) model, rng);
+				break;
+			default:
+				GillespieDirectSimulator gillespieSim = new GillespieDirectSimulator(model, rng);
+				gillespieSim.setDiscreteDistributionType(config.sampler);
+				sim = gillespieSim;
+				break;
+		}
 		if(config.spatial)
 		{
 			if(config.outputImages) {
-				sim.addLogger(new ImageLogger(config, (SpatialModel) model));
+				if(config.asyncLogging)
+					sim.addAsyncLogger(new ImageLogger(config, (SpatialModel) model));
+				else
+					sim.addLogger(new ImageLogger(config, (SpatialModel) model));
 			}
+			if(config.outputFullState)
+				sim.addPeriodicLogger(new FullStateLogger(config, (SpatialModel) model));
 		}
 		
-		sim.addPeriodicLogger(new TextLogger(config, model));
+		// Text and binary output share rows, computed once per log time
+		OutputColumns columns = new OutputColumns(model);
+		sim.addPeriodicLogger(new TextLogger(config, columns));
+		if(config.outputBinary)
+			sim.addPeriodicLogger(new BinaryLogger(config, columns));
+		
+		if(config.stopOnExtinction)
+			sim.addStopCondition(new ExtinctionStopCondition(config, model));
+		if(config.stationarityWindow > 0)
+			sim.addStopCondition(new StationarityStopCondition(config, model));
 		
 		System.err.println("Start date: " + new Date());
 		double T = config.maxTime;
 		sim.runUntil(T);
 		sim.finish();
+		if(config.spatial)
+			((SpatialModel) model).closeStateFile();
 		System.err.println("End date: " + new Date());
+		if(sim instanceof RejectionSimulator)
+		{
+			RejectionSimulator rejectionSim = (RejectionSimulator) sim;
+			for(RejectionSimulator.Category category : RejectionSimulator.Category.values())
+				System.err.println(category + ": " + rejectionSim.getAcceptCount(category)
+						+ " accepted, " + rejectionSim.getRejectCount(category) + " rejected");
+		}
+		if(sim instanceof GillespieDirectSimulator)
+		{
+			GillespieDirectSimulator gillespieSim = (GillespieDirectSimulator) sim;
+			System.err.println("Rate updates: " + gillespieSim.getAppliedUpdateCount() + " applied, "
+					+ gillespieSim.getSkippedUpdateCount() + " skipped as unchanged");
+			if(gillespieSim.getDistribution() instanceof DiscreteDistributionAdaptive)
+			{
+				DiscreteDistributionAdaptive<?> adaptive = (DiscreteDistributionAdaptive<?>) gillespieSim.getDistribution();
+				System.err.println("Sampler: " + adaptive.getBackend() + " after "
+						+ adaptive.getMigrationCount() + " migrations");
+			}
+		}
+		
+		// Write reason the run ended
+		JsonObject stopInfo = new JsonObject();
+		if(sim.getStopReason() == null)
+		{
+			stopInfo.addProperty("reason", "maxTime");
+			stopInfo.addProperty("time", T);
+		}
+		else
+		{
+			stopInfo.addProperty("reason", sim.getStopReason());
+			stopInfo.addProperty("time", sim.getStopTime());
+			System.err.println("Stopped early (" + sim.getStopReason() + ") at time " + sim.getStopTime());
+		}
+		if(config.runNum == null)
+			filename = "stop_out.json";
+		else
+			filename = String.format("stop_out.%d.json", config.runNum);
+		PrintStream stopStream = new PrintStream(filename);
+		new GsonBuilder().setPrettyPrinting().create().toJson(stopInfo, stopStream);
+		stopStream.println();
+		stopStream.close();
 	}
 }
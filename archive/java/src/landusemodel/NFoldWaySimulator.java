@@ -0,0 +1,514 @@
+package landusemodel;
+
+import java.util.*;
+
+import jstoch.model.*;
+import jstoch.random.*;
+import landusemodel.SpatialModel.Site;
+import landusemodel.SuperModel.State;
+
+import cern.jet.random.*;
+import cern.jet.random.engine.*;
+
+/**
+ * Rejection-free n-fold way (BKL) simulation of a SpatialModel.
+ *
+ * Apart from conversion (F->A), every event rate depends only on a site's state
+ * and a few small neighbor counts. Sites are grouped, separately for each kind of
+ * event, into classes of equal rate. A small tree over class totals picks a class,
+ * and a site is then picked uniformly from the class. Conversion rates depend on
+ * beta, so they are kept per populated site in a second tree.
+ *
+ * As in RejectionSimulator, colonization and conversion are attributed to the
+ * populated site doing them, which then picks one of its eligible targets uniformly.
+ * After each event only the sites whose counts can have changed are reclassified.
+ */
+public class NFoldWaySimulator extends SimulatorAbstract
+{
+	/**
+	 * Kinds of event grouped into rate classes.
+	 */
+	enum Kind
+	{
+		Abandonment,
+		GlobalColonization,
+		LocalColonization,
+		BetaChange,
+		AgriculturalDegradation,
+		Recovery
+	}
+	
+	private static final Kind[] kinds = Kind.values();
+	
+	private SpatialModel spatialModel;
+	private Config config;
+	private Uniform unif;
+	
+	private int[][] neighborOffsets;
+	private Site[] sites;
+	
+	private Channel[] channels;
+	private int numClasses;
+	
+	// Class ids as tree values, and the channel each class belongs to
+	private Integer[] classIds;
+	private Channel[] classChannels;
+	
+	// Totals of all classes with nonzero rate
+	private DiscreteDistributionBinaryTree<Integer> classes;
+	
+	// Classes whose size has changed since the tree was last updated
+	private int[] dirtyClasses;
+	private int dirtyCount;
+	private boolean[] dirty;
+	
+	// Conversion rates for populated sites: beta times # forested sites they neighbor
+	private DiscreteDistributionBinaryTree<Site> conversions;
+	private double[] conversionWeights;
+	
+	// Marks sites already reclassified after the current event
+	private int[] visitStamps;
+	private int stamp;
+	
+	// Scratch array of the classes of one site, by kind (-1 for none)
+	private int[] siteClasses;
+	
+	public NFoldWaySimulator(SpatialModel model, RandomEngine rng)
+	{
+		super(model, rng);
+		spatialModel = model;
+		config = model.config;
+		unif = new Uniform(rng);
+		
+		model.useEvents = false;
+	}
+	
+	/**
+	 * Sites of one kind of event, grouped by class. Each class has a fixed
+	 * per-site rate; classes with zero rate are not tracked.
+	 */
+	private class Channel
+	{
+		Kind kind;
+		double[] classRates;
+		int firstClassId;
+		
+		int[][] members;
+		int[] sizes;
+		
+		// Class of each site (-1 for none), and its slot within the class
+		int[] siteClass;
+		int[] siteSlot;
+		
+		Channel(Kind kind, double[] classRates)
+		{
+			this.kind = kind;
+			this.classRates = classRates;
+			firstClassId = numClasses;
+			numClasses += classRates.length;
+			
+			members = new int[classRates.length][];
+			sizes = new int[classRates.length];
+			siteClass = new int[sites.length];
+			siteSlot = new int[sites.length];
+			Arrays.fill(siteClass, -1);
+		}
+		
+		void classify(int site, int cls)
+		{
+			if(cls >= 0 && classRates[cls] == 0) cls = -1;
+			
+			int oldCls = siteClass[site];
+			if(cls == oldCls) return;
+			
+			if(oldCls >= 0)
+			{
+				int[] list = members[oldCls];
+				int slot = siteSlot[site];
+				int last = --sizes[oldCls];
+				list[slot] = list[last];
+				siteSlot[list[slot]] = slot;
+				markDirty(firstClassId + oldCls);
+			}
+			
+			if(cls >= 0)
+			{
+				if(members[cls] == null)
+					members[cls] = new int[16];
+				else if(sizes[cls] == members[cls].length)
+					members[cls] = Arrays.copyOf(members[cls], 2 * sizes[cls]);
+				
+				members[cls][sizes[cls]] = site;
+				siteSlot[site] = sizes[cls];
+				sizes[cls]++;
+				markDirty(firstClassId + cls);
+			}
+			
+			siteClass[site] = cls;
+		}
+		
+		Site randomMember(int cls)
+		{
+			return sites[members[cls][unif.nextIntFromTo(0, sizes[cls] - 1)]];
+		}
+		
+		double getClassTotal(int cls)
+		{
+			return sizes[cls] * classRates[cls];
+		}
+	}
+	
+	protected void initializeEngine() throws SimulationException
+	{
+		spatialModel.initialize();
+		
+		int L = config.L;
+		neighborOffsets = spatialModel.space.getNeighborhoodType().neighborOffsets();
+		sites = new Site[L * L];
+		for(int row = 0; row < L; row++)
+			for(int col = 0; col < L; col++)
+				sites[row * L + col] = spatialModel.space.get(row, col);
+		
+		buildChannels();
+		
+		classIds = new Integer[numClasses];
+		classChannels = new Channel[numClasses];
+		for(Channel channel : channels)
+		{
+			for(int cls = 0; cls < channel.classRates.length; cls++)
+			{
+				classIds[channel.firstClassId + cls] = channel.firstClassId + cls;
+				classChannels[channel.firstClassId + cls] = channel;
+			}
+		}
+		dirtyClasses = new int[numClasses];
+		dirty = new boolean[numClasses];
+		
+		classes = new DiscreteDistributionBinaryTree<Integer>(rng);
+		conversions = new DiscreteDistributionBinaryTree<Site>(rng);
+		conversionWeights = new double[sites.length];
+		visitStamps = new int[sites.length];
+		siteClasses = new int[kinds.length];
+		
+		for(Site site : sites)
+			reclassify(site);
+		updateClassTotals();
+	}
+	
+	/**
+	 * Builds the per-class rate tables from the model's rate tables.
+	 */
+	private void buildChannels()
+	{
+		int n = SpatialModel.MAX_NEIGHBORS;
+		channels = new Channel[kinds.length];
+		
+		channels[Kind.Abandonment.ordinal()] = new Channel(Kind.Abandonment, spatialModel.pdRates);
+		channels[Kind.GlobalColonization.ordinal()] = new Channel(Kind.GlobalColonization, spatialModel.globalAlphas);
+		
+		// Class is productivity count * (n + 1) + # of colonizable targets
+		double[] localRates = new double[spatialModel.localAlphas.length * (n + 1)];
+		for(int count = 0; count < spatialModel.localAlphas.length; count++)
+			for(int targets = 0; targets <= n; targets++)
+				localRates[count * (n + 1) + targets] = targets * spatialModel.localAlphas[count];
+		channels[Kind.LocalColonization.ordinal()] = new Channel(Kind.LocalColonization, localRates);
+		
+		channels[Kind.BetaChange.ordinal()] = new Channel(Kind.BetaChange, new double[] { config.sigma });
+		
+		// Class is 0 without populated neighbors, else 1 + # of forested neighbors
+		double[] adRates = new double[n + 2];
+		adRates[0] = config.deltaF ? 1.0 : config.delta;
+		for(int nF = 0; nF <= n; nF++)
+			adRates[1 + nF] = config.deltaF ? spatialModel.adRates[nF] : config.delta;
+		channels[Kind.AgriculturalDegradation.ordinal()] = new Channel(Kind.AgriculturalDegradation, adRates);
+		
+		// Class is # of forested neighbors
+		double[] dfRates = new double[n + 1];
+		for(int nF = 0; nF <= n; nF++)
+			dfRates[nF] = config.epsilonF ? spatialModel.dfRates[nF] : config.epsilon;
+		channels[Kind.Recovery.ordinal()] = new Channel(Kind.Recovery, dfRates);
+	}
+	
+	protected double getTotalRate()
+	{
+		return classes.getTotalWeight() + conversions.getTotalWeight();
+	}
+	
+	protected Event performStep() throws SimulationException
+	{
+		Site changed;
+		
+		double conversionTotal = conversions.getTotalWeight();
+		if(unif.nextDouble() * (conversionTotal + classes.getTotalWeight()) < conversionTotal)
+		{
+			Site source = conversions.nextValue();
+			changed = randomTarget(source, State.Forest, false);
+			changed.changeState(time, State.Forest, State.Agricultural);
+			reclassifyAround(changed);
+		}
+		else
+		{
+			int classId = classes.nextValue();
+			Channel channel = classChannels[classId];
+			Site site = channel.randomMember(classId - channel.firstClassId);
+			changed = performEvent(channel.kind, site);
+		}
+		
+		updateClassTotals();
+		
+		if(changed != null)
+			logChange(changed);
+		return null;
+	}
+	
+	/**
+	 * Performs an event of the given kind at a site chosen from its class.
+	 * @return The site that changed, or null if none did.
+	 */
+	private Site performEvent(Kind kind, Site site)
+	{
+		Site target;
+		switch(kind)
+		{
+			case Abandonment:
+				site.changeState(time, State.Populated, State.Degraded);
+				reclassifyAround(site);
+				return site;
+			case GlobalColonization:
+				int nF = spatialModel.getCount(State.Forest);
+				int total = nF + spatialModel.getCount(State.Degraded);
+				if(total == 0) return null;
+				
+				int i = unif.nextIntFromTo(0, total - 1);
+				if(i < nF)
+					target = spatialModel.sitesByState[State.Forest.ordinal()][i];
+				else
+					target = spatialModel.sitesByState[State.Degraded.ordinal()][i - nF];
+				colonize(site, target);
+				return target;
+			case LocalColonization:
+				target = randomTarget(site, State.Forest, config.useDP);
+				colonize(site, target);
+				return target;
+			case BetaChange:
+				site.setBeta(Math.max(0, site.beta + spatialModel.nextBetaChange()));
+				setConversionWeight(site, site.beta * countReverseNeighbors(site, State.Forest));
+				return site;
+			case AgriculturalDegradation:
+				site.changeState(time, State.Agricultural, State.Degraded);
+				reclassifyAround(site);
+				return site;
+			case Recovery:
+				site.changeState(time, State.Degraded, State.Forest);
+				reclassifyAround(site);
+				return site;
+		}
+		return null;
+	}
+	
+	private void colonize(Site source, Site target)
+	{
+		target.changeState(time, target.state, State.Populated);
+		target.setBeta(source.beta);
+		reclassifyAround(target);
+	}
+	
+	/**
+	 * Reclassifies every site whose counts can depend on the given site's state:
+	 * the site itself, its neighbors, the sites it neighbors, and for productivity
+	 * function AF the populated sites that neighbor those.
+	 */
+	private void reclassifyAround(Site site)
+	{
+		stamp++;
+		boolean af = config.productivityFunction == Config.ProductivityFunction.AF;
+		
+		reclassifyOnce(site);
+		for(int[] offset : neighborOffsets)
+		{
+			reclassifyOnce(spatialModel.space.get(site.row + offset[0], site.col + offset[1]));
+			
+			Site reverse = spatialModel.space.get(site.row - offset[0], site.col - offset[1]);
+			reclassifyOnce(reverse);
+			if(af)
+			{
+				for(int[] offset2 : neighborOffsets)
+				{
+					Site reverse2 = spatialModel.space.get(reverse.row - offset2[0], reverse.col - offset2[1]);
+					if(reverse2.state == State.Populated)
+						reclassifyOnce(reverse2);
+				}
+			}
+		}
+	}
+	
+	private void reclassifyOnce(Site site)
+	{
+		int i = index(site);
+		if(visitStamps[i] == stamp) return;
+		visitStamps[i] = stamp;
+		reclassify(site);
+	}
+	
+	/**
+	 * Moves a site into the classes matching its current state and neighbor counts.
+	 */
+	private void reclassify(Site site)
+	{
+		int i = index(site);
+		double conversionWeight = 0;
+		Arrays.fill(siteClasses, -1);
+		
+		switch(site.state)
+		{
+			case Populated:
+				int count = getProductivityCount(site);
+				siteClasses[Kind.Abandonment.ordinal()] = countNeighbors(site, State.Agricultural);
+				siteClasses[Kind.GlobalColonization.ordinal()] = count;
+				siteClasses[Kind.LocalColonization.ordinal()] = count * (SpatialModel.MAX_NEIGHBORS + 1)
+						+ countTargets(site, State.Forest, config.useDP);
+				siteClasses[Kind.BetaChange.ordinal()] = 0;
+				conversionWeight = site.beta * countReverseNeighbors(site, State.Forest);
+				break;
+			case Agricultural:
+				if(countNeighbors(site, State.Populated) == 0)
+					siteClasses[Kind.AgriculturalDegradation.ordinal()] = 0;
+				else
+					siteClasses[Kind.AgriculturalDegradation.ordinal()] = 1 + countNeighbors(site, State.Forest);
+				break;
+			case Degraded:
+				siteClasses[Kind.Recovery.ordinal()] = countNeighbors(site, State.Forest);
+				break;
+			case Forest:
+				break;
+		}
+		
+		for(Channel channel : channels)
+			channel.classify(i, siteClasses[channel.kind.ordinal()]);
+		setConversionWeight(site, conversionWeight);
+	}
+	
+	private void setConversionWeight(Site site, double weight)
+	{
+		int i = index(site);
+		if(weight == conversionWeights[i]) return;
+		conversionWeights[i] = weight;
+		conversions.update(site, weight);
+	}
+	
+	private void markDirty(int classId)
+	{
+		if(!dirty[classId])
+		{
+			dirty[classId] = true;
+			dirtyClasses[dirtyCount++] = classId;
+		}
+	}
+	
+	/**
+	 * Hands the totals of all classes changed since the last call to the class tree.
+	 */
+	private void updateClassTotals()
+	{
+		for(int j = 0; j < dirtyCount; j++)
+		{
+			int classId = dirtyClasses[j];
+			Channel channel = classChannels[classId];
+			classes.update(classIds[classId], channel.getClassTotal(classId - channel.firstClassId));
+			dirty[classId] = false;
+		}
+		dirtyCount = 0;
+	}
+	
+	private int index(Site site)
+	{
+		return site.row * config.L + site.col;
+	}
+	
+	private int countNeighbors(Site site, State state)
+	{
+		int count = 0;
+		for(int[] offset : neighborOffsets)
+			if(spatialModel.space.get(site.row + offset[0], site.col + offset[1]).state == state)
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Counts the sites in a state that have the given site as a neighbor.
+	 */
+	private int countReverseNeighbors(Site site, State state)
+	{
+		int count = 0;
+		for(int[] offset : neighborOffsets)
+			if(spatialModel.space.get(site.row - offset[0], site.col - offset[1]).state == state)
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Counts the sites that have the given site as a neighbor and are in
+	 * the given state, or degraded if includeDegraded is set.
+	 */
+	private int countTargets(Site site, State state, boolean includeDegraded)
+	{
+		int count = 0;
+		for(int[] offset : neighborOffsets)
+			if(isTarget(spatialModel.space.get(site.row - offset[0], site.col - offset[1]), state, includeDegraded))
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Picks uniformly from the sites counted by countTargets(), which must be nonzero.
+	 */
+	private Site randomTarget(Site site, State state, boolean includeDegraded)
+	{
+		int k = unif.nextIntFromTo(0, countTargets(site, state, includeDegraded) - 1);
+		for(int[] offset : neighborOffsets)
+		{
+			Site target = spatialModel.space.get(site.row - offset[0], site.col - offset[1]);
+			if(isTarget(target, state, includeDegraded) && k-- == 0)
+				return target;
+		}
+		throw new IllegalStateException("No target available.");
+	}
+	
+	private static boolean isTarget(Site site, State state, boolean includeDegraded)
+	{
+		return site.state == state || (includeDegraded && site.state == State.Degraded);
+	}
+	
+	/**
+	 * Same as Site.getProductivityCount(), without allocating neighbor lists.
+	 */
+	private int getProductivityCount(Site site)
+	{
+		int count = 0;
+		for(int[] offset : neighborOffsets)
+		{
+			Site siteA = spatialModel.space.get(site.row + offset[0], site.col + offset[1]);
+			if(siteA.state == State.Agricultural)
+			{
+				switch(config.productivityFunction)
+				{
+					case A:
+						count++;
+						break;
+					case AF:
+						count += countNeighbors(siteA, State.Forest);
+						break;
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return The number of rate classes that currently contain sites.
+	 */
+	public int getOccupiedClassCount()
+	{
+		return classes.getSize();
+	}
+}
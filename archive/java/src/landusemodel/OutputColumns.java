@@ -0,0 +1,91 @@
+package landusemodel;
+
+import landusemodel.SuperModel.State;
+import static landusemodel.Util.*;
+
+/**
+ * The columns of the periodic output: time, the count and lifetime average
+ * of each state, and statistics of beta over populated sites. Values that
+ * are undefined (no sites in a state, or no populated sites) are NaN.
+ *
+ * Loggers that write the same rows share one instance, which computes
+ * each row once per log time.
+ */
+class OutputColumns {
+	static final String[] NAMES = {
+		"time",
+		"H", "H_lifetime_avg", "A", "A_lifetime_avg", "F", "F_lifetime_avg", "D", "D_lifetime_avg",
+		"betaMean", "betaSD", "betaMin", "betaMax",
+		"beta025", "beta050", "beta100", "beta250", "beta500", "beta750", "beta900", "beta950", "beta975"
+	};
+
+	// Whether each column is an integer count
+	static final boolean[] INTEGER = {
+		false,
+		true, false, true, false, true, false, true, false,
+		false, false, false, false,
+		false, false, false, false, false, false, false, false, false
+	};
+
+	private static final State[] STATES = {
+		State.Populated, State.Agricultural, State.Forest, State.Degraded
+	};
+
+	private static final double[] QUANTILES = {
+		0.025, 0.050, 0.100, 0.250, 0.500, 0.750, 0.900, 0.950, 0.975
+	};
+
+	private SuperModel model;
+
+	// The last row computed, and its time
+	private double[] row;
+	private double rowTime = Double.NaN;
+
+	OutputColumns(SuperModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * @return The row of output at a time, computed on the first request
+	 * for that time and shared by later ones; it must not be modified.
+	 */
+	double[] getRow(double time) {
+		if(row == null || time != rowTime) {
+			row = compute(model, time);
+			rowTime = time;
+		}
+		return row;
+	}
+
+	/**
+	 * Brings lifetimes up to date and computes a row of output at a time.
+	 */
+	static double[] compute(SuperModel model, double time) {
+		model.updateLifetimes(time);
+
+		double[] row = new double[NAMES.length];
+		int i = 0;
+		row[i++] = time;
+		for(State state : STATES) {
+			row[i++] = model.getCount(state);
+			row[i++] = model.getAvgLifetime(state);
+		}
+
+		double[] betas = model.getSortedBetas();
+		if(betas.length > 0) {
+			row[i++] = mean(betas);
+			row[i++] = sd(betas);
+			row[i++] = betas[0];
+			row[i++] = betas[betas.length - 1];
+			for(double p : QUANTILES) {
+				row[i++] = quantile(betas, p);
+			}
+		}
+		else {
+			while(i < row.length) {
+				row[i++] = Double.NaN;
+			}
+		}
+		return row;
+	}
+}
@@ -0,0 +1,325 @@
+package landusemodel;
+
+import jstoch.model.*;
+import landusemodel.SpatialModel.Site;
+import landusemodel.SuperModel.State;
+
+import cern.jet.random.*;
+import cern.jet.random.engine.*;
+
+/**
+ * Simulates a SpatialModel without per-site rates, following the README notes
+ * for a simplified implementation. Each step picks an event category in proportion
+ * to an upper bound on its total rate, then picks sites uniformly from the
+ * per-state site arrays and accepts the event with probability rate / bound.
+ * Rejected steps advance time but change nothing.
+ */
+public class RejectionSimulator extends SimulatorAbstract
+{
+	/**
+	 * Event categories, each with an upper bound on its total rate.
+	 */
+	public enum Category
+	{
+		LocalColonization,
+		GlobalColonization,
+		Conversion,
+		Abandonment,
+		AgriculturalDegradation,
+		Recovery,
+		BetaChange
+	}
+	
+	private static final Category[] categories = Category.values();
+	
+	private SpatialModel spatialModel;
+	private Config config;
+	private Uniform unif;
+	
+	// Neighbor offsets of the lattice; site (row, col) is a neighbor
+	// of (row - offset[0], col - offset[1])
+	private int[][] neighborOffsets;
+	
+	// Maximum per-site (or per-neighbor) rate in each category
+	private double maxLocalAlpha;
+	private double maxGlobalAlpha;
+	private double maxPDRate;
+	private double maxADRate;
+	private double maxDFRate;
+	
+	// Upper bound on beta over populated sites. Raised by beta changes,
+	// and recomputed after roughly as many steps as there are populated sites.
+	private double maxBeta;
+	private long stepsSinceBetaScan;
+	
+	private double[] bounds;
+	private double totalBound;
+	
+	private long[] acceptCounts;
+	private long[] rejectCounts;
+	
+	public RejectionSimulator(SpatialModel model, RandomEngine rng)
+	{
+		super(model, rng);
+		spatialModel = model;
+		config = model.config;
+		unif = new Uniform(rng);
+		
+		model.useEvents = false;
+		
+		bounds = new double[categories.length];
+		acceptCounts = new long[categories.length];
+		rejectCounts = new long[categories.length];
+	}
+	
+	protected void initializeEngine() throws SimulationException
+	{
+		spatialModel.initialize();
+		
+		neighborOffsets = spatialModel.space.getNeighborhoodType().neighborOffsets();
+		
+		maxLocalAlpha = config.k < 1.0 ? max(spatialModel.localAlphas) : 0;
+		maxGlobalAlpha = config.k > 0.0 ? max(spatialModel.globalAlphas) : 0;
+		maxPDRate = max(spatialModel.pdRates);
+		maxADRate = config.deltaF ? Math.max(1.0, max(spatialModel.adRates)) : config.delta;
+		maxDFRate = config.epsilonF ? max(spatialModel.dfRates) : config.epsilon;
+		scanBetas();
+	}
+	
+	protected double getTotalRate()
+	{
+		int nP = spatialModel.getCount(State.Populated);
+		int nA = spatialModel.getCount(State.Agricultural);
+		int nF = spatialModel.getCount(State.Forest);
+		int nD = spatialModel.getCount(State.Degraded);
+		int numNeighbors = neighborOffsets.length;
+		
+		bounds[Category.LocalColonization.ordinal()] = nP * numNeighbors * maxLocalAlpha;
+		bounds[Category.GlobalColonization.ordinal()] = nF + nD > 0 ? nP * maxGlobalAlpha : 0;
+		bounds[Category.Conversion.ordinal()] = nP * numNeighbors * maxBeta;
+		bounds[Category.Abandonment.ordinal()] = nP * maxPDRate;
+		bounds[Category.AgriculturalDegradation.ordinal()] = nA * maxADRate;
+		bounds[Category.Recovery.ordinal()] = nD * maxDFRate;
+		bounds[Category.BetaChange.ordinal()] = nP * config.sigma;
+		
+		totalBound = 0;
+		for(double bound : bounds)
+			totalBound += bound;
+		return totalBound;
+	}
+	
+	protected Event performStep() throws SimulationException
+	{
+		Category category = chooseCategory();
+		Site changed = null;
+		
+		switch(category)
+		{
+			case LocalColonization:
+				changed = tryLocalColonization();
+				break;
+			case GlobalColonization:
+				changed = tryGlobalColonization();
+				break;
+			case Conversion:
+				changed = tryConversion();
+				break;
+			case Abandonment:
+			{
+				Site site = randomSite(State.Populated);
+				if(accept(site.getPDRate(), maxPDRate))
+				{
+					site.changeState(time, State.Populated, State.Degraded);
+					changed = site;
+				}
+				break;
+			}
+			case AgriculturalDegradation:
+			{
+				Site site = randomSite(State.Agricultural);
+				if(accept(site.getADRate(), maxADRate))
+				{
+					site.changeState(time, State.Agricultural, State.Degraded);
+					changed = site;
+				}
+				break;
+			}
+			case Recovery:
+			{
+				Site site = randomSite(State.Degraded);
+				if(accept(site.getDFRate(), maxDFRate))
+				{
+					site.changeState(time, State.Degraded, State.Forest);
+					changed = site;
+				}
+				break;
+			}
+			case BetaChange:
+				changed = changeBeta();
+				break;
+		}
+		
+		if(changed == null)
+		{
+			rejectCounts[category.ordinal()]++;
+			return null;
+		}
+		acceptCounts[category.ordinal()]++;
+		logChange(changed);
+		return null;
+	}
+	
+	/**
+	 * Chooses a category in proportion to the bounds computed by getTotalRate().
+	 */
+	private Category chooseCategory()
+	{
+		double u = unif.nextDouble() * totalBound;
+		int last = 0;
+		for(int i = 0; i < bounds.length; i++)
+		{
+			if(bounds[i] > 0)
+			{
+				if(u < bounds[i]) return categories[i];
+				u -= bounds[i];
+				last = i;
+			}
+		}
+		// Only reached through rounding error
+		return categories[last];
+	}
+	
+	/**
+	 * D->P or F->P from a random populated site onto a random neighbor.
+	 */
+	private Site tryLocalColonization()
+	{
+		Site source = randomSite(State.Populated);
+		Site target = randomNeighborOf(source);
+		if(target.state != State.Forest && !(config.useDP && target.state == State.Degraded))
+			return null;
+		if(!accept(spatialModel.localAlphas[source.getProductivityCount()], maxLocalAlpha))
+			return null;
+		
+		target.changeState(time, target.state, State.Populated);
+		target.setBeta(source.beta);
+		return target;
+	}
+	
+	/**
+	 * D->P or F->P from a random populated site onto any forested or degraded site.
+	 */
+	private Site tryGlobalColonization()
+	{
+		Site source = randomSite(State.Populated);
+		if(!accept(spatialModel.globalAlphas[source.getProductivityCount()], maxGlobalAlpha))
+			return null;
+		
+		int nF = spatialModel.getCount(State.Forest);
+		int i = unif.nextIntFromTo(0, nF + spatialModel.getCount(State.Degraded) - 1);
+		Site target;
+		if(i < nF)
+			target = spatialModel.sitesByState[State.Forest.ordinal()][i];
+		else
+			target = spatialModel.sitesByState[State.Degraded.ordinal()][i - nF];
+		
+		target.changeState(time, target.state, State.Populated);
+		target.setBeta(source.beta);
+		return target;
+	}
+	
+	/**
+	 * F->A driven by the beta of a random populated site on a random neighbor.
+	 */
+	private Site tryConversion()
+	{
+		Site source = randomSite(State.Populated);
+		Site target = randomNeighborOf(source);
+		boolean accepted = target.state == State.Forest && accept(source.beta, maxBeta);
+		
+		// The bound may only be tightened after it has been used for this step
+		stepsSinceBetaScan++;
+		if(stepsSinceBetaScan > spatialModel.getCount(State.Populated))
+			scanBetas();
+		
+		if(!accepted)
+			return null;
+		
+		target.changeState(time, State.Forest, State.Agricultural);
+		return target;
+	}
+	
+	private Site changeBeta()
+	{
+		Site site = randomSite(State.Populated);
+		site.setBeta(Math.max(0, site.beta + spatialModel.nextBetaChange()));
+		if(site.beta > maxBeta) maxBeta = site.beta;
+		return site;
+	}
+	
+	/**
+	 * Recomputes the beta bound exactly, so it does not stay loose after
+	 * high-beta sites have been lost.
+	 */
+	private void scanBetas()
+	{
+		maxBeta = 0;
+		Site[] populated = spatialModel.sitesByState[State.Populated.ordinal()];
+		for(int i = 0; i < spatialModel.getCount(State.Populated); i++)
+			maxBeta = Math.max(maxBeta, populated[i].beta);
+		stepsSinceBetaScan = 0;
+	}
+	
+	private Site randomSite(State state)
+	{
+		int i = unif.nextIntFromTo(0, spatialModel.getCount(state) - 1);
+		return spatialModel.sitesByState[state.ordinal()][i];
+	}
+	
+	/**
+	 * @return A random site that has the given site as a neighbor.
+	 */
+	private Site randomNeighborOf(Site site)
+	{
+		int[] offset = neighborOffsets[unif.nextIntFromTo(0, neighborOffsets.length - 1)];
+		return spatialModel.space.get(site.row - offset[0], site.col - offset[1]);
+	}
+	
+	private boolean accept(double rate, double maxRate)
+	{
+		return unif.nextDouble() * maxRate < rate;
+	}
+	
+	private static double max(double[] values)
+	{
+		double max = 0;
+		for(double value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+	
+	public long getAcceptCount(Category category)
+	{
+		return acceptCounts[category.ordinal()];
+	}
+	
+	public long getRejectCount(Category category)
+	{
+		return rejectCounts[category.ordinal()];
+	}
+	
+	/**
+	 * @return Accepted steps as a fraction of all steps taken.
+	 */
+	public double getAcceptanceRatio()
+	{
+		long accepted = 0;
+		long total = 0;
+		for(int i = 0; i < categories.length; i++)
+		{
+			accepted += acceptCounts[i];
+			total += acceptCounts[i] + rejectCounts[i];
+		}
+		return total == 0 ? 0 : (double)accepted / total;
+	}
+}
@@ -1,11 +1,19 @@
 package landusemodel;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.stream.IntStream;
 
+import jstoch.logging.ChangeRecord;
+import jstoch.logging.RecordableEvent;
 import jstoch.model.*;
 import jstoch.random.*;
+import jstoch.space.ChunkedLattice;
 import jstoch.space.Lattice;
+import jstoch.space.MappedStateLattice;
+import jstoch.space.PackedStateLattice;
 import jstoch.space.Lattice.BoundaryCondition;
 import jstoch.space.Lattice.NeighborhoodType;
 import jstoch.util.*;
@@ -15,20 +23,81 @@ import static java.lang.Math.*;
 import cern.jet.random.*;
 import cern.jet.random.engine.*;
 
-public class SpatialModel extends SuperModel
+public class SpatialModel extends SuperModel implements BulkStochasticModel
 {
 	Lattice<Site> space;
+	
+	// Standard deviation of random changes to beta
+	static final double BETA_CHANGE_SD = 0.01;
+	
 	Normal betaDist;
 	
+	// The rng, if it is a Xoroshiro128PlusPlus, which draws normal variates
+	// itself; otherwise null and betaDist is used
+	Xoroshiro128PlusPlus xoroshiro;
+	Uniform unif;
+	
 	EnumMap<State, IntW> stateCounts;
 	
+	// Sites in each state, indexed by state ordinal; the first
+	// getCount(state) entries of each array are valid, in no particular order
+	Site[][] sitesByState;
+	
+	// Site states packed 2 bits per site (state ordinals), kept in step with
+	// the sites, for row-level sweeps and bulk statistics
+	PackedStateLattice packedStates;
+	
+	// If config.stateFile is set, states and betas are also written through
+	// to this memory-mapped file, a live snapshot that other processes can
+	// read during the run; the model itself never reads it
+	MappedStateLattice mappedStates;
+	
+	// If useEvents == false, sites carry no event objects and state changes
+	// are made directly by a simulator that does its own event selection
+	boolean useEvents = true;
+	
 	double lastLifetimeUpdate;
 	EnumMap<State, DoubleW> totalLifetimes;
 	
+	// If useChannels == true, events with the same constant rate at every site
+	// in a state are aggregated into one channel event per state
+	boolean useChannels = true;
+	
+	// Aggregated channel for each state (by ordinal), or null
+	ChannelEvent[] channels = new ChannelEvent[State.values().length];
+	
+	// Aggregated global colonization from all populated sites, or null
+	GlobalColonizationChannel globalChannel;
+	
+	// Site event types. An event is addressed by the code
+	// siteIndex * NUM_EVENT_TYPES + type, and each site's events are
+	// enumerated in type order for the bulk build.
+	static final int EVENT_PD = 0;           // Populated->Degraded
+	static final int EVENT_BETA_CHANGE = 1;  // Change of beta
+	static final int EVENT_GLOBAL_DFP = 2;   // Global colonization from a populated site
+	static final int EVENT_AD = 3;           // Agricultural->Degraded
+	static final int EVENT_FA = 4;           // Forest->Agricultural
+	static final int EVENT_DFP = 5;          // Local colonization (Degraded or Forest->Populated)
+	static final int EVENT_DF = 6;           // Degraded->Forest
+	static final int NUM_EVENT_TYPES = 7;
+	
+	// Per-run rate tables indexed by neighbor counts, built in initialize()
+	static final int MAX_NEIGHBORS = 8;
+	double[] pdRates;        // P->D rate by # agricultural neighbors
+	double[] adRates;        // A->D rate (deltaF) by # forest neighbors
+	double[] dfRates;        // D->F rate (epsilonF) by # forest neighbors
+	double[] localAlphas;    // Local colonization rate by productivity count
+	double[] globalAlphas;   // Global colonization rate by productivity count
+	
+	// Which events to update after a change, compiled in initialize() from
+	// the rate inputs declared in declareDependencies()
+	RateDependencies dependencies;
+	
 	/**
-	 * Implements behavior for sites on the LxL lattice.
+	 * Implements behavior for sites on the LxL lattice. A site is also the
+	 * record of its own latest change, for loggers.
 	 */
-	class Site
+	class Site implements ChangeRecord
 	{
 		State state;
 		double beta;
@@ -36,162 +105,170 @@ public class SpatialModel extends SuperModel
 		int col;
 		double birthTime;
 		
-		// Maintains map from class of event to the actual event object
-		// so different objects can be easily retrieved/invalidated/etc.
-		public Map<Class<? extends Event>, Event> activeEvents;
+		// Position of this site in sitesByState[state.ordinal()]
+		int stateSlot;
+		
+		// Set while this site waits in globalChannel's list of sources to recompute
+		boolean globalSourceDirty;
+		
+		// Event objects by type, created on first use; null until then
+		SiteEvent[] events;
+		
+		// Bit (1 << type) is set for each event currently in the simulation.
+		// Events whose rates are zero are cleared.
+		int activeMask;
 		
 		public Site(State state, int row, int col)
 		{
 			this.state = state;
 			this.row = row;
 			this.col = col;
-			activeEvents = new HashMap<Class<? extends Event>, Event>();
 			birthTime = 0;
 		}
 		
+		public int getSiteIndex() { return row * config.L + col; }
+		public int getStateIndex() { return state.ordinal(); }
+		public double getValue() { return beta; }
 		
-		/*** EVENT CLASSES ***/ 
 		
-		/**
-		 * Abstract event superclass to return the location and destination state of an event. 
-		 */
-		abstract class SiteEvent implements Event
-		{
-			public int getRow() { return row; }
-			public int getCol() { return col; }
-		}
+		/*** EVENTS ***/ 
 		
 		/**
-		 * Inner class representing Populated->Degraded events (abandonment of populated area).
+		 * Event at this site, of one of the EVENT_* types. There is a single
+		 * event class, dispatched on the type, and each site creates at most
+		 * one object per type and reuses it across state changes.
 		 */
-		class PDEvent extends SiteEvent
+		final class SiteEvent implements RecordableEvent
 		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
-			{
-				performStateChange(time, State.Populated, State.Degraded, eventsToRemove, eventsToUpdate);
-			}
+			final int type;
 			
-			public double getRate()
-			{
-				assert(state == State.Populated);
-				double a = getNeighborCount(State.Agricultural) / 8.0;
-				return 1.0 - a/(a + config.c);
-			}
-		}
-
-		/**
-		 * Inner class representing Agricultural->Degraded events (abandonment of agricultural area).
-		 */
-		class ADEvent extends SiteEvent
-		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
+			// Rate as of the model's last update of this event
+			double rate;
+			
+			// Populated neighbors weighted by local colonization rate (EVENT_DFP only)
+			DiscreteDistributionBinaryTree<Site> populatedNeighbors;
+			
+			SiteEvent(int type)
 			{
-				performStateChange(time, State.Agricultural, State.Degraded, eventsToRemove, eventsToUpdate);
+				this.type = type;
 			}
 			
+			Site getSite() { return Site.this; }
+			
+			/**
+			 * @return siteIndex * NUM_EVENT_TYPES + type.
+			 */
+			public int getCode() { return getSiteIndex() * NUM_EVENT_TYPES + type; }
+			
+			public int getRow() { return row; }
+			public int getCol() { return col; }
+			
+			public int getSiteIndex() { return Site.this.getSiteIndex(); }
+			public int getStateIndex() { return Site.this.getStateIndex(); }
+			public double getValue() { return Site.this.getValue(); }
+			
+			/**
+			 * @return The rate computed by updateRate() when the model last
+			 * updated this event.
+			 */
 			public double getRate()
 			{
-				assert(state == State.Agricultural);
-				
-				if(config.deltaF)
-				{
-					int nP = 0;
-					int nF = 0;
-					
-					for(Site site : getNeighbors())
-					{
-						switch(site.state)
-						{
-							case Populated:
-								nP++;
-								break;
-							case Forest:
-								nF++;
-								break;
-						}
-					}
-					
-					if(nP == 0) return 1.0;
-					
-					double fq = pow(nF / 8.0, config.q);
-					return 1.0 -  fq/(fq + config.m);
-				}
-				else return config.delta;
+				return rate;
 			}
-		}
-
-		/**
-		 * Inner class representing Forest->Agricultural events (conversion to productive land).
-		 */
-		class FAEvent extends SiteEvent
-		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
+			
+			/**
+			 * Recomputes the rate after a change that may affect it.
+			 * @return The new rate.
+			 */
+			double updateRate()
 			{
-				performStateChange(time, State.Forest, State.Agricultural, eventsToRemove, eventsToUpdate);
+				rate = computeRate();
+				return rate;
 			}
 			
-			public double getRate()
+			double computeRate()
 			{
-				assert(state == State.Forest);
-				double betaTotal = 0;
-				for(Site site : getNeighbors())
+				switch(type)
 				{
-					if(site.state == State.Populated)
-					{
-						betaTotal += site.beta; 
-					}
+					case EVENT_PD:
+						assert(state == State.Populated);
+						return getPDRate();
+					case EVENT_BETA_CHANGE:
+						assert(state == State.Populated);
+						return config.sigma;
+					case EVENT_GLOBAL_DFP:
+						assert(state == State.Populated);
+						return globalAlphas[getProductivityCount()];
+					case EVENT_AD:
+						assert(state == State.Agricultural);
+						return getADRate();
+					case EVENT_FA:
+						assert(state == State.Forest);
+						return getFARate();
+					case EVENT_DFP:
+						assert(state == State.Degraded || state == State.Forest);
+						return computeDFPRate();
+					case EVENT_DF:
+						assert(state == State.Degraded);
+						return getDFRate();
+					default:
+						return 0;
 				}
-				return betaTotal;
 			}
-		}
-
-		/**
-		 * Inner class representing Degraded->Populated or Forest->Populated events (colonization).
-		 */
-		class DFPEvent extends SiteEvent
-		{
-			DiscreteDistributionBinaryTree<Site> populatedNeighbors;
 			
 			public void performEvent(double time, Set<Event> eventsToRemove,
 					Set<Event> eventsToUpdate)
 			{
-				assert(state == State.Degraded || state == State.Forest);
-				performStateChange(time, state, State.Populated, eventsToRemove, eventsToUpdate);
-				
-				beta = populatedNeighbors.nextValue().beta;
-				populatedNeighbors = null;
+				switch(type)
+				{
+					case EVENT_PD:
+						// Abandonment of populated area
+						performStateChange(time, State.Populated, State.Degraded, eventsToRemove, eventsToUpdate);
+						break;
+					case EVENT_BETA_CHANGE:
+						changeBeta(eventsToUpdate);
+						break;
+					case EVENT_GLOBAL_DFP:
+						performGlobalDFP(time, eventsToRemove, eventsToUpdate);
+						break;
+					case EVENT_AD:
+						// Abandonment of agricultural area
+						performStateChange(time, State.Agricultural, State.Degraded, eventsToRemove, eventsToUpdate);
+						break;
+					case EVENT_FA:
+						// Conversion to productive land
+						performStateChange(time, State.Forest, State.Agricultural, eventsToRemove, eventsToUpdate);
+						break;
+					case EVENT_DFP:
+						// Local colonization
+						assert(state == State.Degraded || state == State.Forest);
+						performStateChange(time, state, State.Populated, eventsToRemove, eventsToUpdate);
+						setBeta(populatedNeighbors.nextValue().beta);
+						populatedNeighbors = null;
+						break;
+					case EVENT_DF:
+						// Land recovery
+						performStateChange(time, State.Degraded, State.Forest, eventsToRemove, eventsToUpdate);
+						break;
+					default:
+						assert false;
+				}
+				updateSiteEventRates(eventsToRemove, eventsToUpdate);
 			}
 			
-			public double getRate()
+			/**
+			 * Computes the local colonization rate and sets up the distribution
+			 * of colonizing neighbors.
+			 */
+			double computeDFPRate()
 			{
-				assert(state == State.Degraded || state == State.Forest);
 				double alphaTotal = 0;
 				HashMap<Site, Double> alphas = new HashMap<Site, Double>();
 				for(Site siteP : space.getNeighbors(row, col))
 				{
 					if(siteP.state == State.Populated)
 					{
-						double agriculturalProductivity = 0;
-						for(Site siteA : space.getNeighbors(siteP.row, siteP.col))
-						{
-							if(siteA.state == State.Agricultural)
-							{
-								switch(config.productivityFunction)
-								{
-									case A:
-										agriculturalProductivity += 1.0;
-										break;
-									case AF:
-										agriculturalProductivity += siteA.getNeighborCount(State.Forest) / 7.0;
-										break;
-								}
-							}
-						}
-						agriculturalProductivity /= 8.0;
-						double alpha = (1.0 - config.k) * agriculturalProductivity/(agriculturalProductivity + config.r);
+						double alpha = localAlphas[siteP.getProductivityCount()];
 						alphas.put(siteP, alpha);
 						alphaTotal += alpha;
 					}
@@ -203,115 +280,35 @@ public class SpatialModel extends SuperModel
 		}
 		
 		/**
-		 * Inner class representing Degraded->Forest events (land recovery).
-		 */
-		class DFEvent extends SiteEvent
-		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
-			{
-				performStateChange(time, State.Degraded, State.Forest, eventsToRemove, eventsToUpdate);
-			}
-			
-			public double getRate()
-			{
-				assert(state == State.Degraded);
-				
-				if(config.epsilonF)
-				{
-					double nF = getNeighborCount(State.Forest);
-					return config.epsilon * nF / 8.0;
-					
-				}
-				else
-					return config.epsilon;
-			}
-		}
-		
-		
-		/**
-		 * Inner class representing global colonization events (D->P or F->P).
+		 * Performs a global colonization event (D->P or F->P) from this site.
 		 * Unlike other events, which are applied to the site that is changing state,
 		 * this event is centered around the "colonizer," and then a random colonized site
 		 * is chosen from those available.
 		 */
-		class GlobalDFPEvent extends SiteEvent
+		void performGlobalDFP(double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
 		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
-			{
-				assert(state == State.Populated);
-				
-				int totalCount = stateCounts.get(State.Forest).value + stateCounts.get(State.Degraded).value;
-				
-				if(totalCount > 0)
-				{
-					Uniform unif = new Uniform(rng);
-					
-					Site site;
-					do
-					{
-						int row = unif.nextIntFromTo(0, config.L-1);
-						int col = unif.nextIntFromTo(0, config.L-1);
-						site = space.get(row, col);
-					} while(site.state != State.Forest && site.state != State.Degraded);
-					
-					site.performStateChange(time, site.state, State.Populated, eventsToRemove, eventsToUpdate);
-					site.beta = beta;
-				}
-			}
+			assert(state == State.Populated);
 			
-			public double getRate()
+			Site site = randomColonizationTarget();
+			if(site != null)
 			{
-				assert(state == State.Populated);
-				double agriculturalProductivity = 0;
-				for(Site siteA : space.getNeighbors(row, col))
-				{
-					if(siteA.state == State.Agricultural)
-					{
-						switch(config.productivityFunction)
-						{
-							case A:
-								agriculturalProductivity += 1.0;
-								break;
-							case AF:
-								agriculturalProductivity += siteA.getNeighborCount(State.Forest) / 7.0;
-								break;
-						}
-					}
-				}
-				return config.k * agriculturalProductivity/(agriculturalProductivity + config.r);
+				site.performStateChange(time, site.state, State.Populated, eventsToRemove, eventsToUpdate);
+				site.setBeta(beta);
 			}
 		}
 		
 		/**
-		 * Inner class representing change of beta (rate at which people convert land to agriculture).
+		 * Applies a random change to beta and marks dependent events for update.
 		 */
-		class BetaChangeEvent extends SiteEvent
+		void changeBeta(Set<Event> eventsToUpdate)
 		{
-			public void performEvent(double time, Set<Event> eventsToRemove,
-					Set<Event> eventsToUpdate)
-			{
-				assert(state == State.Populated);
-				double oldBeta = beta;
-				beta += betaDist.nextDouble();
-				if(beta < 0) beta = 0;
-				//else if(beta > 1) beta = 1;
-				
-				for(Site site : getNeighbors())
-				{
-					if(site.state == State.Forest)
-					{
-						eventsToUpdate.add(site.getEvent(FAEvent.class));
-					}
-				}
-			}
+			assert(state == State.Populated);
+			double newBeta = beta + nextBetaChange();
+			if(newBeta < 0) newBeta = 0;
+			//else if(newBeta > 1) newBeta = 1;
+			setBeta(newBeta);
 			
-			public double getRate()
-			{
-				assert(state == State.Populated);
-				return config.sigma;
-			}
+			addDependencies(eventsToUpdate, dependencies.getValueRules(State.Populated.ordinal()));
 		}
 		
 		/**
@@ -322,29 +319,107 @@ public class SpatialModel extends SuperModel
 		 * @param eventsToUpdate Set object to add new/updated events to for use by simulation engine.
 		 */
 		void performStateChange(double time, State from, State to, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			changeState(time, from, to);
+			
+			// Remove existing events at this site
+			addActiveEvents(eventsToRemove);
+			activeMask = 0;
+			
+			// Add events associated with new state; those with zero rates
+			// are dropped again by updateSiteEventRates() once the event
+			// is done. An event in both sets is updated, not removed.
+			setUpEvents();
+			addActiveEvents(eventsToUpdate);
+			
+			// Aggregated channels depend on state counts
+			if(channels[from.ordinal()] != null)
+				eventsToUpdate.add(channels[from.ordinal()]);
+			if(channels[to.ordinal()] != null)
+				eventsToUpdate.add(channels[to.ordinal()]);
+			if(globalChannel != null && (from == State.Populated || to == State.Populated))
+				eventsToUpdate.add(globalChannel);
+			
+			// Update all events dependent on from and to states
+			addDependencies(eventsToUpdate, dependencies.getStateRules(from.ordinal(), to.ordinal()));
+		}
+		
+		/**
+		 * Changes state and updates counts, lifetimes and per-state site arrays,
+		 * without touching any events.
+		 * @param from The previous state. Included only for verification.
+		 * @param to The destination state.
+		 */
+		void changeState(double time, State from, State to)
 		{
 			assert(state == from);
-			state = to;
 			
 			updateLifetimes(time);
 			
+			// Global colonization sources are kept in the same slots as the
+			// populated site array, so they move with it
+			if(globalChannel != null && from == State.Populated)
+				globalChannel.removeSource(this);
+			if(sitesByState != null)
+				removeFromStateArray();
+			state = to;
+			if(sitesByState != null)
+				addToStateArray();
+			if(globalChannel != null && to == State.Populated)
+				globalChannel.markSource(this);
+			if(packedStates != null)
+				packedStates.set(row, col, to.ordinal());
+			if(mappedStates != null)
+			{
+				mappedStates.setState(row, col, to.ordinal());
+				mappedStates.setTime(time);
+			}
+			
 			stateCounts.get(from).value--;
 			stateCounts.get(to).value++;
 			
 			totalLifetimes.get(from).value -= (time - birthTime);
 			birthTime = time;
-			
-			// Remove existing events at this site
-			eventsToRemove.addAll(activeEvents.values());
-			activeEvents.clear();
-			
-			// Add events associated with new state
-			setUpEvents();
-			eventsToUpdate.addAll(activeEvents.values());
-			
-			// Update all events dependent on from and to states
-			addDependencies(eventsToUpdate, from);
-			addDependencies(eventsToUpdate, to);
+		}
+		
+		void setBeta(double beta)
+		{
+			this.beta = beta;
+			if(mappedStates != null)
+				mappedStates.setValue(row, col, beta);
+		}
+		
+		/**
+		 * Appends this site to the array of sites in its current state.
+		 * Must be called before the state count is incremented.
+		 */
+		void addToStateArray()
+		{
+			Site[] sites = sitesByState[state.ordinal()];
+			if(sites == null)
+				return;
+			stateSlot = stateCounts.get(state).value;
+			if(stateSlot == sites.length)
+			{
+				sites = Arrays.copyOf(sites, 2 * sites.length);
+				sitesByState[state.ordinal()] = sites;
+			}
+			sites[stateSlot] = this;
+		}
+		
+		/**
+		 * Removes this site from the array of sites in its current state by moving
+		 * the last site into its slot. Must be called before the state count is decremented.
+		 */
+		void removeFromStateArray()
+		{
+			Site[] sites = sitesByState[state.ordinal()];
+			if(sites == null)
+				return;
+			int last = stateCounts.get(state).value - 1;
+			sites[stateSlot] = sites[last];
+			sites[stateSlot].stateSlot = stateSlot;
+			sites[last] = null;
 		}
 		
 		/**
@@ -353,7 +428,7 @@ public class SpatialModel extends SuperModel
 		 */
 		void setUpEvents()
 		{
-			assert(activeEvents.size() == 0);
+			assert(activeMask == 0);
 			switch(state)
 			{
 				case Populated:
@@ -373,130 +448,69 @@ public class SpatialModel extends SuperModel
 		
 		void setUpEventsPopulated()
 		{
-			addEvent(new PDEvent());
-			addEvent(new BetaChangeEvent());
-			if(config.k > 0.0)
-				addEvent(new GlobalDFPEvent());
+			getEvent(EVENT_PD);
+			if(channels[State.Populated.ordinal()] == null)
+				getEvent(EVENT_BETA_CHANGE);
+			if(config.k > 0.0 && globalChannel == null)
+				getEvent(EVENT_GLOBAL_DFP);
 		}
-
+		
 		void setUpEventsAgricultural()
 		{
-			addEvent(new ADEvent());
+			if(channels[State.Agricultural.ordinal()] == null)
+				getEvent(EVENT_AD);
 		}
-
+		
 		void setUpEventsForest()
 		{
-			addEvent(new FAEvent());
+			getEvent(EVENT_FA);
 			if(config.k < 1.0)
-				addEvent(new DFPEvent());
+				getEvent(EVENT_DFP);
 		}
 		
 		void setUpEventsDegraded()
 		{
-			addEvent(new DFEvent());
+			if(channels[State.Degraded.ordinal()] == null)
+				getEvent(EVENT_DF);
 			
 			if(config.useDP && config.k < 1.0)
-				addEvent(new DFPEvent());
+				getEvent(EVENT_DFP);
 		}
 		
 		/**
-		 * Adds the events dependent on this site being in a particular state.
+		 * Adds the events whose rates may have changed with a change at this site.
 		 * Events may belong to neighbors, or to neighbors' neighbors, or...
 		 * @param events Set to add events to for updating by simulation engine.
-		 * @param state The state for which dependent events will be found.
+		 * @param rules Rules compiled from the declared rate inputs.
 		 */
-		void addDependencies(Set<Event> events, State state)
+		void addDependencies(Set<Event> events, RateDependencies.Rule[] rules)
 		{
-			switch(state)
-			{
-				case Populated:
-					addDependenciesPopulated(events);
-					break;
-				case Agricultural:
-					addDependenciesAgricultural(events);
-					break;
-				case Forest:
-					addDependenciesForest(events);
-					break;
-				case Degraded:
-					// No neighbor transitions depend on # of degraded sites
-					break;
-			}
+			for(RateDependencies.Rule rule : rules)
+				addDependencies(events, rule, 0);
 		}
 		
-		void addDependenciesPopulated(Set<Event> events)
-		{
-			for(Site site : getNeighbors())
-			{
-				switch(site.state)
-				{
-					case Agricultural:
-						events.add(site.getEvent(ADEvent.class));
-						break;
-					case Forest:
-						events.add(site.getEvent(FAEvent.class));
-						if(config.k < 1.0)
-							events.add(site.getEvent(DFPEvent.class));
-						break;
-					case Degraded:
-						if(config.useDP && config.k < 1.0)
-							events.add(site.getEvent(DFPEvent.class));
-						break;
-				}
-			}
-		}
-
-		void addDependenciesAgricultural(Set<Event> events)
-		{
-			for(Site site : getNeighbors())
-			{
-				if(site.state == State.Populated)
-				{
-					if(config.k > 0.0)
-						events.add(site.getEvent(GlobalDFPEvent.class));
-					
-					events.add(site.getEvent(PDEvent.class));
-					
-					if(config.useDP && config.k < 1.0)
-					{
-						for(Site site2 : site.getNeighbors())
-						{
-							if(site2.state == State.Degraded || site2.state == State.Forest)
-								events.add(site2.getEvent(DFPEvent.class));
-						}
-					}
-				}
-			}
-		}
-
-		void addDependenciesForest(Set<Event> events)
+		/**
+		 * Walks outward from this site through sites in the states given by
+		 * the rule, and adds the events of sites that host the rule's type.
+		 * Rates read neighbors, so each hop goes to the sites that have the
+		 * current one as a neighbor.
+		 */
+		void addDependencies(Set<Event> events, RateDependencies.Rule rule, int hop)
 		{
-			for(Site site : getNeighbors())
+			for(Site site : space.getReverseNeighbors(row, col))
 			{
-				if(site.state == State.Agricultural)
+				int stateIndex = site.state.ordinal();
+				if(hop < rule.walk.length)
 				{
-					events.add(site.getEvent(ADEvent.class));
-					
-					if(config.productivityFunction == Config.ProductivityFunction.AF)
-					{
-						for(Site site2 : site.getNeighbors())
-							if(site2.state == State.Populated)
-							{
-								if(config.k > 0.0)
-									events.add(site2.getEvent(GlobalDFPEvent.class));
-								
-								if(config.useDP && config.k < 1.0)
-								{
-									for(Site site3 : site2.getNeighbors())
-										if(site3.state == State.Degraded || site3.state == State.Forest)
-											events.add(site3.getEvent(DFPEvent.class));
-								}
-							}
-					}
+					if(stateIndex == rule.walk[hop])
+						site.addDependencies(events, rule, hop + 1);
 				}
-				else if(config.epsilonF && site.state == State.Degraded)
+				else if(rule.hostStates[stateIndex])
 				{
-					events.add(site.getEvent(DFEvent.class));
+					if(rule.eventType == EVENT_GLOBAL_DFP)
+						addGlobalDependency(events, site);
+					else
+						events.add(site.getEvent(rule.eventType));
 				}
 			}
 		}
@@ -527,85 +541,703 @@ public class SpatialModel extends SuperModel
 		}
 		
 		/**
-		 * Convenience method  for readability) to add an event to
-		 * the map of active events.
-		 * @param to The destination state. (Start state is the current state.)
-		 * @param event The event object.
+		 * @return The P->D rate for this site.
 		 */
-		void addEvent(Event event)
+		double getPDRate()
 		{
-			activeEvents.put(event.getClass(), event);
+			return pdRates[getNeighborCount(State.Agricultural)];
 		}
 		
 		/**
-		 * Convenience method (for readability) to retrieve an event object.
-		 * @param cl The class of the event.
-		 * @return The event object.
+		 * @return The F->A rate for this site: the total beta of populated neighbors.
 		 */
-		Event getEvent(Class<? extends Event> cl)
+		double getFARate()
 		{
-			return activeEvents.get(cl);
-			/*Event event = activeEvents.get(cl);
-			if(event == null)
+			double betaTotal = 0;
+			for(Site site : getNeighbors())
 			{
-				System.err.println("null event!");
+				if(site.state == State.Populated)
+				{
+					betaTotal += site.beta; 
+				}
 			}
-			
-			return event;*/
+			return betaTotal;
 		}
-	}
-	
-	/**
-	 * Constructor. Simply records the rng: other initialization happens in initialize().
-	 * @param rng
-	 */
-	public SpatialModel(RandomEngine rng, Config config)
-	{
-		super(rng, config);
-	}
-	
-	/**
-	 * Initializes the model when asked by the simulator. Initialization
-	 * is deferred so that parameters can be changed after object creation
-	 * but before a simulation run, roughly akin to "object phases" in Swarm.
-	 */
-	public void initialize()
-	{
-		betaDist = new Normal(0, 0.01, rng);
-		space = new Lattice<Site>(config.L, config.L, BoundaryCondition.Periodic, NeighborhoodType.Moore);
-		int initPopLoc = config.L/2;
 		
-		for(int row = 0; row < config.L; row++)
+		/**
+		 * @return The A->D rate for this site.
+		 */
+		double getADRate()
 		{
-			for(int col = 0; col < config.L; col++)
+			if(config.deltaF)
 			{
-				Site site;
-				if(row == initPopLoc && col == initPopLoc)
-				{
-					site = new Site(State.Populated, row, col);
-					site.beta = config.beta0;
-				}
-				else
+				int nP = 0;
+				int nF = 0;
+				
+				for(Site site : getNeighbors())
 				{
-					site = new Site(State.Forest, row, col);
+					switch(site.state)
+					{
+						case Populated:
+							nP++;
+							break;
+						case Forest:
+							nF++;
+							break;
+					}
 				}
-				site.setUpEvents();
-				space.put(site, row, col);
+				
+				if(nP == 0) return 1.0;
+				
+				return adRates[nF];
 			}
+			else return config.delta;
 		}
 		
-		lastLifetimeUpdate = 0;
-		totalLifetimes = new EnumMap<State, DoubleW>(State.class);
-		totalLifetimes.put(State.Populated, new DoubleW(0));
-		totalLifetimes.put(State.Agricultural, new DoubleW(0));
-		totalLifetimes.put(State.Forest, new DoubleW(0));
-		totalLifetimes.put(State.Degraded, new DoubleW(0));
+		/**
+		 * @return The D->F rate for this site.
+		 */
+		double getDFRate()
+		{
+			if(config.epsilonF)
+			{
+				return dfRates[getNeighborCount(State.Forest)];
+			}
+			else
+				return config.epsilon;
+		}
+		
+		/**
+		 * Returns the integer numerator of this site's agricultural productivity,
+		 * which indexes the colonization rate tables: the number of agricultural
+		 * neighbors for productivity function A, or the total number of forested
+		 * neighbors of agricultural neighbors for AF.
+		 * @return The productivity count.
+		 */
+		int getProductivityCount()
+		{
+			int count = 0;
+			for(Site siteA : getNeighbors())
+			{
+				if(siteA.state == State.Agricultural)
+				{
+					switch(config.productivityFunction)
+					{
+						case A:
+							count++;
+							break;
+						case AF:
+							count += siteA.getNeighborCount(State.Forest);
+							break;
+					}
+				}
+			}
+			return count;
+		}
+		
+		/**
+		 * Returns the event object of a type, creating it if needed, and
+		 * marks it active. The caller must only ask for events that are
+		 * possible in the current state.
+		 * @param type The EVENT_* type.
+		 * @return The event object.
+		 */
+		SiteEvent getEvent(int type)
+		{
+			if(events == null)
+				events = new SiteEvent[NUM_EVENT_TYPES];
+			SiteEvent event = events[type];
+			if(event == null)
+			{
+				event = new SiteEvent(type);
+				events[type] = event;
+			}
+			activeMask |= 1 << type;
+			return event;
+		}
+		
+		/**
+		 * @return The active event of a type, or null if there is none.
+		 */
+		SiteEvent getActiveEvent(int type)
+		{
+			return (activeMask & (1 << type)) == 0 ? null : events[type];
+		}
+		
+		void removeEvent(int type)
+		{
+			activeMask &= ~(1 << type);
+		}
+		
+		/**
+		 * Adds the active events to a collection, in type order.
+		 */
+		void addActiveEvents(Collection<? super SiteEvent> out)
+		{
+			for(int mask = activeMask; mask != 0; mask &= mask - 1)
+				out.add(events[Integer.numberOfTrailingZeros(mask)]);
+		}
+		
+		int getActiveEventCount()
+		{
+			return Integer.bitCount(activeMask);
+		}
+		
+		/**
+		 * Sets up events, computes their rates and keeps only those with
+		 * nonzero rates.
+		 */
+		void setUpNonzeroEvents()
+		{
+			setUpEvents();
+			for(int mask = activeMask; mask != 0; mask &= mask - 1)
+			{
+				int type = Integer.numberOfTrailingZeros(mask);
+				if(events[type].updateRate() == 0.0)
+					removeEvent(type);
+			}
+		}
+	}
+	
+	/**
+	 * Event standing for one constant-rate event at every site in a state:
+	 * the rate is (number of sites) * (per-site rate), and the event is
+	 * applied to a uniformly chosen site. The sampler then holds one entry
+	 * for the whole state, which does not have to be removed and re-added
+	 * as sites change state.
+	 */
+	abstract class ChannelEvent implements RecordableEvent
+	{
+		State state;
+		double siteRate;
+		
+		// Site chosen by the last performEvent(), for loggers
+		Site site;
+		
+		ChannelEvent(State state, double siteRate)
+		{
+			this.state = state;
+			this.siteRate = siteRate;
+		}
+		
+		public void performEvent(double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			int count = stateCounts.get(state).value;
+			site = sitesByState[state.ordinal()][unif.nextIntFromTo(0, count - 1)];
+			performAt(site, time, eventsToRemove, eventsToUpdate);
+			updateSiteEventRates(eventsToRemove, eventsToUpdate);
+		}
+		
+		abstract void performAt(Site site, double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate);
+		
+		public double getRate()
+		{
+			return stateCounts.get(state).value * siteRate;
+		}
+		
+		public int getSiteIndex() { return site.getSiteIndex(); }
+		public int getStateIndex() { return site.getStateIndex(); }
+		public double getValue() { return site.getValue(); }
+	}
+	
+	/**
+	 * Beta change at a random populated site, at rate sigma per site.
+	 */
+	class BetaChangeChannel extends ChannelEvent
+	{
+		BetaChangeChannel()
+		{
+			super(State.Populated, config.sigma);
+		}
+		
+		void performAt(Site site, double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			site.changeBeta(eventsToUpdate);
+		}
+	}
+	
+	/**
+	 * Constant-rate Agricultural->Degraded at a random agricultural site (deltaF == false).
+	 */
+	class ADChannel extends ChannelEvent
+	{
+		ADChannel()
+		{
+			super(State.Agricultural, config.delta);
+		}
+		
+		void performAt(Site site, double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			site.performStateChange(time, State.Agricultural, State.Degraded, eventsToRemove, eventsToUpdate);
+		}
+	}
+	
+	/**
+	 * Constant-rate Degraded->Forest at a random degraded site (epsilonF == false).
+	 */
+	class DFChannel extends ChannelEvent
+	{
+		DFChannel()
+		{
+			super(State.Degraded, config.epsilon);
+		}
+		
+		void performAt(Site site, double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			site.performStateChange(time, State.Degraded, State.Forest, eventsToRemove, eventsToUpdate);
+		}
+	}
+	
+	/**
+	 * Global colonization (D->P or F->P) from all populated sites at once.
+	 * Each source's rate is kept in a sum tree, in the same slot as the site in
+	 * sitesByState[Populated]. When the channel fires, the source is picked from
+	 * the tree and the target uniformly from forest and degraded sites.
+	 * Sources whose productivity may have changed are only recomputed when
+	 * the rate is next needed, so each is recomputed once per event.
+	 */
+	class GlobalColonizationChannel implements RecordableEvent
+	{
+		SumTree sources = new SumTree(16);
+		List<Site> dirtySources = new ArrayList<Site>();
+		
+		// Site colonized by the last performEvent() (or the source if there
+		// was no target), for loggers
+		Site site;
+		
+		/**
+		 * Marks a source for recomputation.
+		 */
+		void markSource(Site source)
+		{
+			if(!source.globalSourceDirty)
+			{
+				source.globalSourceDirty = true;
+				dirtySources.add(source);
+			}
+		}
+		
+		/**
+		 * Mirrors removeFromStateArray() for a site leaving the populated state:
+		 * the last source moves into its slot. Must be called before the
+		 * site is removed from the array.
+		 */
+		void removeSource(Site source)
+		{
+			int last = stateCounts.get(State.Populated).value - 1;
+			sources.set(source.stateSlot, sources.get(last));
+			sources.set(last, 0);
+		}
+		
+		void updateSources()
+		{
+			for(Site source : dirtySources)
+			{
+				source.globalSourceDirty = false;
+				if(source.state == State.Populated)
+					sources.set(source.stateSlot, globalAlphas[source.getProductivityCount()]);
+			}
+			dirtySources.clear();
+		}
+		
+		public void performEvent(double time, Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+		{
+			updateSources();
+			Site source = sitesByState[State.Populated.ordinal()][sources.find(unif.nextDouble() * sources.getTotal())];
+			
+			site = randomColonizationTarget();
+			if(site == null)
+			{
+				site = source;
+				return;
+			}
+			site.performStateChange(time, site.state, State.Populated, eventsToRemove, eventsToUpdate);
+			site.setBeta(source.beta);
+			updateSiteEventRates(eventsToRemove, eventsToUpdate);
+		}
+		
+		public double getRate()
+		{
+			updateSources();
+			return sources.getTotal();
+		}
+		
+		public int getSiteIndex() { return site.getSiteIndex(); }
+		public int getStateIndex() { return site.getStateIndex(); }
+		public double getValue() { return site.getValue(); }
+	}
+	
+	/**
+	 * Recomputes the rates of the site events marked for update by an event,
+	 * and makes those whose rates are now zero inactive at their sites,
+	 * moving them to the removals. They are reactivated by getEvent() when
+	 * they are next needed.
+	 */
+	void updateSiteEventRates(Set<Event> eventsToRemove, Set<Event> eventsToUpdate)
+	{
+		Iterator<Event> itr = eventsToUpdate.iterator();
+		while(itr.hasNext())
+		{
+			Event event = itr.next();
+			if(event instanceof Site.SiteEvent)
+			{
+				Site.SiteEvent siteEvent = (Site.SiteEvent)event;
+				if(siteEvent.updateRate() == 0.0)
+				{
+					siteEvent.getSite().removeEvent(siteEvent.type);
+					itr.remove();
+					eventsToRemove.add(siteEvent);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Marks the global colonization rate of a populated site for update,
+	 * through globalChannel if there is one.
+	 */
+	void addGlobalDependency(Set<Event> events, Site site)
+	{
+		if(globalChannel != null)
+		{
+			globalChannel.markSource(site);
+			events.add(globalChannel);
+		}
+		else
+		{
+			events.add(site.getEvent(EVENT_GLOBAL_DFP));
+		}
+	}
+	
+	/**
+	 * Picks a target for global colonization uniformly from forest and
+	 * degraded sites. If forest sites are not tracked (chunked lattice),
+	 * random positions are drawn until one is forest or degraded.
+	 * @return The target, or null if there are no forest or degraded sites.
+	 */
+	Site randomColonizationTarget()
+	{
+		int forestCount = stateCounts.get(State.Forest).value;
+		int totalCount = forestCount + stateCounts.get(State.Degraded).value;
+		if(totalCount == 0)
+			return null;
+		
+		if(sitesByState != null && sitesByState[State.Forest.ordinal()] != null)
+		{
+			int i = unif.nextIntFromTo(0, totalCount - 1);
+			if(i < forestCount)
+				return sitesByState[State.Forest.ordinal()][i];
+			return sitesByState[State.Degraded.ordinal()][i - forestCount];
+		}
+		
+		Site site;
+		do
+		{
+			int row = unif.nextIntFromTo(0, config.L-1);
+			int col = unif.nextIntFromTo(0, config.L-1);
+			site = space.peek(row, col);
+			
+			// Unallocated parts of a chunked lattice are forest
+			if(site == null)
+				site = space.get(row, col);
+		} while(site.state != State.Forest && site.state != State.Degraded);
+		return site;
+	}
+	
+	/**
+	 * @return The aggregated channel events, in a fixed order.
+	 */
+	List<Event> getChannelEvents()
+	{
+		List<Event> events = new ArrayList<Event>();
+		for(ChannelEvent channel : channels)
+			if(channel != null)
+				events.add(channel);
+		if(globalChannel != null)
+			events.add(globalChannel);
+		return events;
+	}
+	
+	/**
+	 * Constructor. Simply records the rng: other initialization happens in initialize().
+	 * @param rng
+	 */
+	public SpatialModel(RandomEngine rng, Config config)
+	{
+		super(rng, config);
+	}
+	
+	/**
+	 * Initializes the model when asked by the simulator. Initialization
+	 * is deferred so that parameters can be changed after object creation
+	 * but before a simulation run, roughly akin to "object phases" in Swarm.
+	 */
+	public void initialize() throws SimulationException
+	{
+		buildRateTables();
+		declareDependencies();
+		betaDist = new Normal(0, BETA_CHANGE_SD, rng);
+		xoroshiro = rng instanceof Xoroshiro128PlusPlus ? (Xoroshiro128PlusPlus)rng : null;
+		unif = new Uniform(rng);
+		int initPopLoc = config.L/2;
+		if((long)config.L * config.L > Integer.MAX_VALUE)
+			throw new SimulationException("Lattice size " + config.L + " is too large.");
 		
 		stateCounts = new EnumMap<State, IntW>(State.class);
-		stateCounts.put(State.Populated, new IntW(1));
-		stateCounts.put(State.Agricultural, new IntW(0));
-		stateCounts.put(State.Forest, new IntW(config.L*config.L - 1));
-		stateCounts.put(State.Degraded, new IntW(0));
+		for(State state : State.values())
+			stateCounts.put(state, new IntW(0));
+		
+		channels = new ChannelEvent[State.values().length];
+		if(useEvents && useChannels)
+		{
+			channels[State.Populated.ordinal()] = new BetaChangeChannel();
+			if(!config.deltaF)
+				channels[State.Agricultural.ordinal()] = new ADChannel();
+			if(!config.epsilonF)
+				channels[State.Degraded.ordinal()] = new DFChannel();
+		}
+		globalChannel = null;
+		if(useEvents && useChannels && config.k > 0.0)
+			globalChannel = new GlobalColonizationChannel();
+		
+		if(config.chunkedLattice)
+		{
+			initializeChunked(initPopLoc);
+		}
+		else
+		{
+			initializeFull(initPopLoc);
+		}
+		
+		if(globalChannel != null)
+			for(int i = 0; i < getCount(State.Populated); i++)
+				globalChannel.markSource(sitesByState[State.Populated.ordinal()][i]);
+		
+		lastLifetimeUpdate = 0;
+		totalLifetimes = new EnumMap<State, DoubleW>(State.class);
+		totalLifetimes.put(State.Populated, new DoubleW(0));
+		totalLifetimes.put(State.Agricultural, new DoubleW(0));
+		totalLifetimes.put(State.Forest, new DoubleW(0));
+		totalLifetimes.put(State.Degraded, new DoubleW(0));
+	}
+	
+	/**
+	 * Sets up a fully allocated lattice, with per-state site arrays and packed states.
+	 */
+	void initializeFull(int initPopLoc) throws SimulationException
+	{
+		space = new Lattice<Site>(config.L, config.L, BoundaryCondition.Periodic, NeighborhoodType.Moore);
+		
+		packedStates = new PackedStateLattice(config.L, config.L);
+		if(config.stateFile != null)
+		{
+			try
+			{
+				mappedStates = MappedStateLattice.create(Paths.get(config.stateFile), config.L, config.L);
+			}
+			catch(IOException e)
+			{
+				throw new SimulationException("Could not create state file " + config.stateFile, e);
+			}
+		}
+		
+		// Per-state arrays are sized by the initial counts, all forest but
+		// one site, and grow by doubling as other states fill up
+		sitesByState = new Site[State.values().length][];
+		for(State state : State.values())
+			sitesByState[state.ordinal()] = new Site[state == State.Forest ? config.L * config.L : 16];
+		
+		// Rows are independent here, so sites are created in parallel
+		IntStream.range(0, config.L).parallel().forEach(row ->
+		{
+			for(int col = 0; col < config.L; col++)
+			{
+				Site site;
+				if(row == initPopLoc && col == initPopLoc)
+				{
+					site = new Site(State.Populated, row, col);
+					site.beta = config.beta0;
+				}
+				else
+				{
+					site = new Site(State.Forest, row, col);
+				}
+				space.put(site, row, col);
+			}
+		});
+		
+		// Shared bookkeeping and rate evaluation stay serial, in row-major order.
+		// Only sites with nonzero rates (initially the neighborhood of the
+		// populated site) end up holding event objects.
+		for(int row = 0; row < config.L; row++)
+		{
+			for(int col = 0; col < config.L; col++)
+			{
+				Site site = space.get(row, col);
+				site.addToStateArray();
+				packedStates.set(row, col, site.state.ordinal());
+				if(mappedStates != null)
+					mappedStates.set(row, col, site.state.ordinal(), site.beta);
+				stateCounts.get(site.state).value++;
+			}
+		}
+		if(useEvents)
+		{
+			for(int row = 0; row < config.L; row++)
+				for(int col = 0; col < config.L; col++)
+					space.get(row, col).setUpNonzeroEvents();
+		}
+	}
+	
+	/**
+	 * Sets up a chunked lattice in which only tiles reached by the
+	 * populated region are allocated; the rest counts as forest.
+	 * There is no packed state lattice or forest site array in this mode.
+	 */
+	void initializeChunked(int initPopLoc)
+	{
+		space = new ChunkedLattice<Site>(config.L, config.L, BoundaryCondition.Periodic, NeighborhoodType.Moore,
+				(row, col) -> new Site(State.Forest, row, col));
+		
+		// Sites in all states but forest are allocated, so they are kept in
+		// growable per-state arrays; forest sites are not tracked
+		sitesByState = new Site[State.values().length][];
+		for(State state : State.values())
+			if(state != State.Forest)
+				sitesByState[state.ordinal()] = new Site[16];
+		
+		stateCounts.get(State.Forest).value = config.L * config.L - 1;
+		
+		Site site = space.get(initPopLoc, initPopLoc);
+		site.state = State.Populated;
+		site.beta = config.beta0;
+		site.addToStateArray();
+		stateCounts.get(State.Populated).value = 1;
+		
+		// All other sites are forest, so only the populated site and the sites
+		// that have it as a neighbor can have nonzero rates
+		if(useEvents)
+		{
+			site.setUpNonzeroEvents();
+			for(int[] offset : space.getNeighborhoodType().neighborOffsets())
+				space.get(site.row - offset[0], site.col - offset[1]).setUpNonzeroEvents();
+		}
+	}
+	
+	/**
+	 * Declares the sites that host each type of event and the neighbor
+	 * states (and betas) each rate reads, for the current configuration,
+	 * and compiles the invalidation rules. Events replaced by aggregated
+	 * channels and constant rates declare no inputs.
+	 */
+	void declareDependencies()
+	{
+		final int P = State.Populated.ordinal();
+		final int A = State.Agricultural.ordinal();
+		final int F = State.Forest.ordinal();
+		final int D = State.Degraded.ordinal();
+		
+		dependencies = new RateDependencies(State.values().length, NUM_EVENT_TYPES);
+		
+		// P->D reads # agricultural neighbors
+		dependencies.addHost(EVENT_PD, P);
+		dependencies.addInput(EVENT_PD, false, A);
+		
+		// F->A reads betas of populated neighbors
+		dependencies.addHost(EVENT_FA, F);
+		dependencies.addInput(EVENT_FA, true, P);
+		
+		// A->D reads # populated and forest neighbors if deltaF
+		if(config.deltaF)
+		{
+			dependencies.addHost(EVENT_AD, A);
+			dependencies.addInput(EVENT_AD, false, P);
+			dependencies.addInput(EVENT_AD, false, F);
+		}
+		
+		// D->F reads # forest neighbors if epsilonF
+		if(config.epsilonF)
+		{
+			dependencies.addHost(EVENT_DF, D);
+			dependencies.addInput(EVENT_DF, false, F);
+		}
+		
+		// Productivity of a populated site reads its agricultural neighbors,
+		// and for AF, their forest neighbors
+		int[] productivityPath = config.productivityFunction == Config.ProductivityFunction.AF
+				? new int[] {A, F} : new int[] {A};
+		
+		// Local colonization reads productivity of populated neighbors
+		if(config.k < 1.0)
+		{
+			dependencies.addHost(EVENT_DFP, F);
+			if(config.useDP)
+				dependencies.addHost(EVENT_DFP, D);
+			int[] path = new int[productivityPath.length + 1];
+			path[0] = P;
+			System.arraycopy(productivityPath, 0, path, 1, productivityPath.length);
+			dependencies.addInput(EVENT_DFP, false, path);
+		}
+		
+		// Global colonization reads productivity of the source
+		if(config.k > 0.0)
+		{
+			dependencies.addHost(EVENT_GLOBAL_DFP, P);
+			dependencies.addInput(EVENT_GLOBAL_DFP, false, productivityPath);
+		}
+		
+		dependencies.compile();
+	}
+	
+	/**
+	 * Precomputes all rates that depend only on small neighbor counts,
+	 * so rate evaluation is an array lookup instead of pow() and division.
+	 */
+	void buildRateTables()
+	{
+		pdRates = new double[MAX_NEIGHBORS + 1];
+		adRates = new double[MAX_NEIGHBORS + 1];
+		dfRates = new double[MAX_NEIGHBORS + 1];
+		for(int n = 0; n <= MAX_NEIGHBORS; n++)
+		{
+			double a = n / 8.0;
+			pdRates[n] = 1.0 - a/(a + config.c);
+			
+			double fq = pow(n / 8.0, config.q);
+			adRates[n] = 1.0 - fq/(fq + config.m);
+			
+			dfRates[n] = config.epsilon * n / 8.0;
+		}
+		
+		// Productivity is count / 8 for A, and (sum of forest counts / 7) / 8 for AF.
+		// The global colonization rate has always used the productivity before
+		// division by 8, and that is preserved here. Rates for A are exactly
+		// those of per-neighbor summation; for AF, dividing the summed count
+		// once gives the same rates up to rounding, since the sum of n_i / 7.0
+		// over neighbors depends on how the count is split among them.
+		int maxCount;
+		double scale;
+		switch(config.productivityFunction)
+		{
+			case AF:
+				maxCount = MAX_NEIGHBORS * MAX_NEIGHBORS;
+				scale = 7.0 * 8.0;
+				break;
+			default:
+				maxCount = MAX_NEIGHBORS;
+				scale = 8.0;
+				break;
+		}
+		localAlphas = new double[maxCount + 1];
+		globalAlphas = new double[maxCount + 1];
+		for(int count = 0; count <= maxCount; count++)
+		{
+			double agriculturalProductivity = count / scale;
+			localAlphas[count] = (1.0 - config.k) * agriculturalProductivity/(agriculturalProductivity + config.r);
+			
+			agriculturalProductivity *= 8.0;
+			globalAlphas[count] = config.k * agriculturalProductivity/(agriculturalProductivity + config.r);
+		}
 	}
 	
 	/**
@@ -618,6 +1250,54 @@ public class SpatialModel extends SuperModel
 		return stateCounts.get(state).value;
 	}
 	
+	/**
+	 * @return A random change to beta.
+	 */
+	double nextBetaChange()
+	{
+		return xoroshiro != null ? xoroshiro.nextNormal(0, BETA_CHANGE_SD) : betaDist.nextDouble();
+	}
+	
+	/**
+	 * @return The state of a site, without allocating anything on a chunked lattice.
+	 */
+	public State getState(int row, int col)
+	{
+		Site site = space.peek(row, col);
+		return site == null ? State.Forest : site.state;
+	}
+	
+	/**
+	 * @return The beta of a populated site, or NaN for any other site.
+	 */
+	public double getBeta(int row, int col)
+	{
+		Site site = space.peek(row, col);
+		return site == null || site.state != State.Populated ? Double.NaN : site.beta;
+	}
+	
+	/**
+	 * @return The site states packed 2 bits per site, as state ordinals,
+	 * or null on a chunked lattice.
+	 */
+	public PackedStateLattice getPackedStates()
+	{
+		return packedStates;
+	}
+	
+	/**
+	 * Marks the state file, if any, as final and closes it.
+	 */
+	public void closeStateFile() throws IOException
+	{
+		if(mappedStates != null)
+		{
+			mappedStates.finish();
+			mappedStates.close();
+			mappedStates = null;
+		}
+	}
+	
 	@Override
 	void updateLifetimes(double time)
 	{
@@ -646,33 +1326,63 @@ public class SpatialModel extends SuperModel
 	{
 		ArrayList<Event> events = new ArrayList<Event>();
 		
-		for(int row = 0; row < config.L; row++)
+		events.addAll(getChannelEvents());
+		for(Site site : space.sites())
+			site.addActiveEvents(events);
+		
+		return events;
+	}
+	
+	public int getEventCount()
+	{
+		int count = getChannelEvents().size();
+		for(Site site : space.sites())
+			count += site.getActiveEventCount();
+		return count;
+	}
+	
+	/**
+	 * Streams the channel events, then all site events and their rates in site
+	 * order (row-major for a full lattice), and in a fixed order of event classes within each site,
+	 * independent of hash ordering. Rates are computed on this thread.
+	 */
+	public void getAllEvents(Event[] events, double[] rates)
+	{
+		int i = 0;
+		for(Event channel : getChannelEvents())
 		{
-			for(int col = 0; col < config.L; col++)
+			events[i] = channel;
+			rates[i] = channel.getRate();
+			i++;
+		}
+		for(Site site : space.sites())
+		{
+			for(int type = 0; type < NUM_EVENT_TYPES; type++)
 			{
-				Site site = space.get(row, col);
-				events.addAll(site.activeEvents.values());
+				Event event = site.getActiveEvent(type);
+				if(event != null)
+				{
+					events[i] = event;
+					rates[i] = event.getRate();
+					i++;
+				}
 			}
 		}
-		
-		return events;
+		assert(i == events.length);
 	}
-
+	
 	@Override
 	double[] getSortedBetas() {
 		double betas[] = new double[getCount(State.Populated)];
-
+		
 		int i = 0;
-		for(int row = 0; row < config.L; row++) {
-			for (int col = 0; col < config.L; col++) {
-				SpatialModel.Site site = space.get(row, col);
-				if(site.state == State.Populated) {
-					betas[i] = site.beta;
-					i++;
-				}
+		for(SpatialModel.Site site : space.sites()) {
+			if(site.state == State.Populated) {
+				betas[i] = site.beta;
+				i++;
 			}
 		}
-
+		
 		Arrays.sort(betas);
 		return betas;
 	}
@@ -0,0 +1,87 @@
+package landusemodel;
+
+import jstoch.model.*;
+import landusemodel.SuperModel.State;
+
+/**
+ * Stops a run once the fraction of sites in each state has stopped drifting.
+ * 
+ * Every logInterval after stationarityBurnIn, the state fractions are recorded.
+ * Once a full window of stationarityWindow time units is available, the window
+ * is split into stationarityBatches consecutive batches, and the run stops if,
+ * for every state, the batch means differ by less than stationarityThreshold.
+ */
+public class StationarityStopCondition implements StopCondition
+{
+	private Config config;
+	private SuperModel model;
+	
+	long checkCount = 0;
+	
+	private static final State[] states = State.values();
+	
+	// Circular buffer of recent state fractions, indexed [state][sample]
+	private double[][] samples;
+	private int sampleCount = 0;
+	private int batchSize;
+	
+	public StationarityStopCondition(Config config, SuperModel model)
+	{
+		this.config = config;
+		this.model = model;
+		
+		batchSize = Math.max(1,
+				(int)Math.round(config.stationarityWindow / config.logInterval / config.stationarityBatches));
+		samples = new double[states.length][batchSize * config.stationarityBatches];
+	}
+	
+	public double getNextCheckTime(StochasticModel ignore)
+	{
+		return checkCount * config.logInterval;
+	}
+	
+	public String check(StochasticModel ignore, double time)
+	{
+		checkCount++;
+		if(time < config.stationarityBurnIn) return null;
+		
+		int windowSize = samples[0].length;
+		double total = config.L * config.L;
+		for(int i = 0; i < states.length; i++)
+		{
+			samples[i][sampleCount % windowSize] = model.getCount(states[i]) / total;
+		}
+		sampleCount++;
+		
+		// Only evaluated when a batch has just been completed, so that each
+		// batch occupies its own contiguous, time-ordered slice of the buffer
+		if(sampleCount < windowSize || sampleCount % batchSize != 0) return null;
+		
+		for(int i = 0; i < states.length; i++)
+		{
+			if(getDrift(i) >= config.stationarityThreshold) return null;
+		}
+		return "stationary";
+	}
+	
+	/**
+	 * Range of batch means for one state over the current window.
+	 */
+	private double getDrift(int stateIndex)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(int batch = 0; batch < config.stationarityBatches; batch++)
+		{
+			double sum = 0.0;
+			for(int j = batch * batchSize; j < (batch + 1) * batchSize; j++)
+			{
+				sum += samples[stateIndex][j];
+			}
+			double batchMean = sum / batchSize;
+			min = Math.min(min, batchMean);
+			max = Math.max(max, batchMean);
+		}
+		return max - min;
+	}
+}
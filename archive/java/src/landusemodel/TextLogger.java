@@ -1,24 +1,22 @@
 package landusemodel;
 
 import java.io.*;
-import java.util.Arrays;
 
 
 import jstoch.logging.*;
 import jstoch.model.*;
-import landusemodel.SuperModel.State;
 import static landusemodel.Util.*;
 
 public class TextLogger implements PeriodicLogger {
 	private Config config;
-	private SuperModel model;
+	private OutputColumns columns;
 	private PrintStream stream;
 
 	long logCount = 0;
 
-	public TextLogger(Config config, SuperModel model) {
+	public TextLogger(Config config, OutputColumns columns) {
 		this.config = config;
-		this.model = model;
+		this.columns = columns;
 	}
 
 	public void logStart(StochasticModel modelTmp) throws LoggingException {
@@ -31,7 +29,7 @@ public class TextLogger implements PeriodicLogger {
 				filename = String.format("output.%d.csv", config.runNum);
 
 			stream = openBufferedPrintStream(filename);
-			stream.printf("time,H,H_lifetime_avg,A,A_lifetime_avg,F,F_lifetime_avg,D,D_lifetime_avg,betaMean,betaSD,betaMin,betaMax,beta025,beta050,beta100,beta250,beta500,beta750,beta900,beta950,beta975\n");
+			stream.print(String.join(",", OutputColumns.NAMES) + "\n");
 			stream.flush();
 		} catch (Exception e) {
 			throw new LoggingException(this, e);
@@ -49,55 +47,17 @@ public class TextLogger implements PeriodicLogger {
 
 	public void logPeriodic(StochasticModel ignore, double time)
 			throws LoggingException {
-		model.updateLifetimes(time);
-
-		double[] betas = model.getSortedBetas();
-		if(betas.length > 0) {
-			double betaMean = mean(betas);
-			double betaSD = sd(betas);
-			double betaMin = betas[0];
-			double betaMax = betas[betas.length - 1];
-			double beta025 = quantile(betas, 0.025);
-			double beta050 = quantile(betas, 0.050);
-			double beta100 = quantile(betas, 0.100);
-			double beta250 = quantile(betas, 0.250);
-			double beta500 = quantile(betas, 0.500);
-			double beta750 = quantile(betas, 0.750);
-			double beta900 = quantile(betas, 0.900);
-			double beta950 = quantile(betas, 0.950);
-			double beta975 = quantile(betas, 0.975);
-
-			stream.printf("%f,%d,%s,%d,%s,%d,%s,%d,%s,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f\n",
-					time,
-					model.getCount(State.Populated),
-					formatNumber(model.getAvgLifetime(State.Populated)),
-					model.getCount(State.Agricultural),
-					formatNumber(model.getAvgLifetime(State.Agricultural)),
-					model.getCount(State.Forest),
-					formatNumber(model.getAvgLifetime(State.Forest)),
-					model.getCount(State.Degraded),
-					formatNumber(model.getAvgLifetime(State.Degraded)),
-					betaMean, betaSD,
-					betaMin, betaMax,
-					beta025, beta050, beta100, beta250, beta500, beta750, beta900, beta950, beta975
-			);
-		}
-		else {
-			model.updateLifetimes(time);
-
-			stream.printf("%f,%d,%s,%d,%s,%d,%s,%d,%s,,,,,,,,,,,,,\n",
-				time,
-				model.getCount(State.Populated),
-				formatNumber(model.getAvgLifetime(State.Populated)),
-				model.getCount(State.Agricultural),
-				formatNumber(model.getAvgLifetime(State.Agricultural)),
-				model.getCount(State.Forest),
-				formatNumber(model.getAvgLifetime(State.Forest)),
-				model.getCount(State.Degraded),
-				formatNumber(model.getAvgLifetime(State.Degraded))
-			);
+		double[] row = columns.getRow(time);
 
+		// Counts are integers; undefined values are left empty
+		stream.printf("%f", row[0]);
+		for(int i = 1; i < row.length; i++) {
+			if(OutputColumns.INTEGER[i])
+				stream.printf(",%d", (long)row[i]);
+			else
+				stream.printf(",%s", formatNumber(row[i]));
 		}
+		stream.print("\n");
 
 //		stream.flush();
 
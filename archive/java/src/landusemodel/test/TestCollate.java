@@ -0,0 +1,153 @@
+package landusemodel.test;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import jstoch.logging.CollatedRunStore;
+import jstoch.logging.MappedTimeSeries;
+import landusemodel.Collate;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestCollate
+{
+	static final String[] COLUMNS = new String[] { "time", "count", "beta" };
+	
+	Path runsDir;
+	Path storePath;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		runsDir = Files.createTempDirectory("runs");
+		storePath = runsDir.resolve("store.bin");
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		List<Path> paths = new ArrayList<Path>();
+		try(DirectoryStream<Path> dirs = Files.newDirectoryStream(runsDir))
+		{
+			for(Path dir : dirs)
+			{
+				if(Files.isDirectory(dir))
+				{
+					try(DirectoryStream<Path> files = Files.newDirectoryStream(dir))
+					{
+						for(Path file : files)
+							paths.add(file);
+					}
+				}
+				paths.add(dir);
+			}
+		}
+		paths.add(runsDir);
+		for(Path path : paths)
+			Files.deleteIfExists(path);
+	}
+	
+	private Path runDir(long runId) throws IOException
+	{
+		return Files.createDirectories(runsDir.resolve(Long.toString(runId)));
+	}
+	
+	private void writeCsv(long runId, String... rows) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.join(",", COLUMNS));
+		lines.addAll(Arrays.asList(rows));
+		Files.write(runDir(runId).resolve("output.csv"), lines);
+	}
+	
+	private void writeBinary(long runId, double[][] rows) throws IOException
+	{
+		try(MappedTimeSeries series = MappedTimeSeries.create(runDir(runId).resolve("output.bin"), COLUMNS, 2))
+		{
+			for(double[] row : rows)
+				series.append(row);
+		}
+	}
+	
+	private static double[] column(CollatedRunStore store, long runId, int col) throws IOException
+	{
+		DoubleBuffer buffer = store.getRunColumn(store.findRun(runId), col);
+		double[] values = new double[buffer.remaining()];
+		buffer.get(values);
+		return values;
+	}
+	
+	@Test
+	public void mixedFormats() throws Throwable
+	{
+		writeCsv(1, "0.000000,10,1.500000", "1.000000,0,", "", "2.000000,12,1.250000");
+		double[][] binaryRows = new double[][] {
+			{ 0, 20, 2.0 }, { 1, 21, 2.5 }, { 2, 22, Double.NaN }, { 3, 23, 3.0 }, { 4, 24, 3.5 }
+		};
+		writeBinary(2, binaryRows);
+		writeCsv(3);
+		Files.createDirectories(runsDir.resolve("notarun"));
+		
+		Collate.main(new String[] { runsDir.toString(), storePath.toString(), "2" });
+		
+		try(CollatedRunStore store = CollatedRunStore.open(storePath))
+		{
+			assertArrayEquals(COLUMNS, store.getColumnNames());
+			assertEquals(3, store.getRunCount());
+			assertEquals(8, store.getTotalRowCount());
+			
+			// CSV run, with an empty field as NaN and the blank line skipped
+			assertArrayEquals(new double[] { 0, 1, 2 }, column(store, 1, 0), 0.0);
+			assertArrayEquals(new double[] { 10, 0, 12 }, column(store, 1, 1), 0.0);
+			assertArrayEquals(new double[] { 1.5, Double.NaN, 1.25 }, column(store, 1, 2), 0.0);
+			
+			// Binary run, against the file itself
+			try(MappedTimeSeries series = MappedTimeSeries.open(runsDir.resolve("2").resolve("output.bin")))
+			{
+				assertEquals(binaryRows.length, store.getRowCount(store.findRun(2)));
+				for(int col = 0; col < COLUMNS.length; col++)
+					assertArrayEquals(series.readColumn(col), column(store, 2, col), 0.0);
+			}
+			
+			assertEquals(0, store.getRowCount(store.findRun(3)));
+		}
+	}
+	
+	@Test
+	public void shortRowReported() throws Throwable
+	{
+		writeCsv(1, "0.000000,10,1.500000", "1.000000,11");
+		try
+		{
+			Collate.main(new String[] { runsDir.toString(), storePath.toString(), "1" });
+			fail();
+		}
+		catch(ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof IOException);
+			String message = e.getCause().getMessage();
+			assertTrue(message, message.contains("output.csv, line 3"));
+			assertTrue(message, message.contains("expected 3 fields, found 2"));
+		}
+	}
+	
+	@Test
+	public void longRowReported() throws Throwable
+	{
+		writeCsv(1, "0.000000,10,1.500000,7");
+		try
+		{
+			Collate.main(new String[] { runsDir.toString(), storePath.toString(), "1" });
+			fail();
+		}
+		catch(ExecutionException e)
+		{
+			String message = e.getCause().getMessage();
+			assertTrue(message, message.contains("output.csv, line 2"));
+		}
+	}
+}